@@ -11,13 +11,14 @@ public class EventSourceSurflet implements Surflet {
         response.status(200);
         response.addHeader ("Content-Type", "text/event-stream");
         response.addHeader("Cache-Control", "no-cache");
-        response.addHeader("Content-Length", "chunked");
-        response.sendStatusLineAndHeaders ();
+        response.startChunked ();
 
+        // Jedes Event wird sofort (als eigener Chunk) gesendet.
         for (int counter = 1; counter <= 100; counter += 1) {
-            response.send("data: {\"counter\":" + Integer.toString(counter) + "}\n\n");
+            response.write("data: {\"counter\":" + Integer.toString(counter) + "}\n\n").flush();
             Thread.sleep(1000);
         }
+        response.finish();
         return;
     }
 
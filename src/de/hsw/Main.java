@@ -1,6 +1,7 @@
 package de.hsw;
 
 import de.hsw.server.Server;
+import de.hsw.server.configs.ServerConfig;
 import de.hsw.server.configs.SurfletMapper;
 
 import java.util.Scanner;
@@ -9,18 +10,13 @@ public class Main {
     public static void main (String[] args) {
         Scanner s = new Scanner (System.in);
         boolean running = true;
-        int port = 8080;
 
-        if (args.length > 0) {
-            String sPort = args [0];
-            try {
-                port = Integer.parseInt (sPort);
-            } catch (RuntimeException e) {}
-        }
+        // Das erste Argument ist der Port, danach können weitere Optionen (z. B. --mode=pooled) folgen.
+        ServerConfig config = ServerConfig.fromArguments (args);
 
         System.out.println("You can quit/redeploy at any time. Just type \"quit\" or \"redeploy\".");
 
-        new Thread(new Server (port)).start();
+        new Thread(new Server (config)).start();
 
         while (running) {
             String command = s.nextLine();
@@ -1,5 +1,6 @@
 package de.hsw.http;
 
+import de.hsw.http.helper.HttpHeaders;
 import de.hsw.http.helper.HttpRequestBody;
 import de.hsw.http.helper.UnsafeHttpInputStreamReader;
 import de.hsw.errors.ConnectionClosedException;
@@ -7,7 +8,9 @@ import de.hsw.errors.InvalidHttpRequestException;
 import de.hsw.http.helper.UrlDecodingUtils;
 
 import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -46,25 +49,42 @@ public class HttpRequest {
         POST ("POST"),
         DELETE ("DELETE");
         private String stringValue;
+        private byte[] bytes;
         RequestMethod (String stringValue) {
             this.stringValue = stringValue;
+            this.bytes = stringValue.getBytes (StandardCharsets.US_ASCII);
         }
         @Override public String toString() {
             return this.stringValue;
         }
     }
 
+    // "values ()" erstellt bei jedem Aufruf ein neues Array, daher wird es hier einmal gespeichert.
+    private static final RequestMethod[] REQUEST_METHODS = RequestMethod.values();
+
     // Hier die Inhalte der sogenannten Request-Line:
     private RequestMethod method;
     private String path;
 
     // Hier alles Weitere (Header, Query-Parameter, Anfragen-Body):
     private Map<String, String> queryParameter = new HashMap<>();
-    private Map<String, String> headers = new HashMap<>();
+    private Map<String, String> pathParameter = Collections.emptyMap();
+    private HttpHeaders headers = new HttpHeaders();
     private HttpRequestBody body;
 
+    // "True", wenn die Anfrage bereits bearbeitet wurde und nicht mehr verwendet werden darf (siehe "release").
+    private boolean released = false;
+
+    /**
+     * Hiermit wird eine leere Anfrage erstellt, die anschließend mit "readFrom" gelesen wird.
+     * So kann dasselbe Objekt für alle Anfragen einer Verbindung verwendet werden (siehe RequestRecycler).
+     */
+    public HttpRequest () {}
+
     /**
      * Hiermit kann ein neuer Request aus einem Stream gelesen werden.
+     * ! Wichtig: Der dabei erstellte Reader puffert Bytes. Bei Keep-Alive-Verbindungen muss deshalb ein Reader pro
+     * Verbindung erstellt und an den anderen Konstruktor übergeben werden.
      * @param inputStream Der Input-Stream des Sockets.
      * @throws ConnectionClosedException
      * @throws InvalidHttpRequestException
@@ -84,41 +104,81 @@ public class HttpRequest {
     public HttpRequest (UnsafeHttpInputStreamReader reader)
             throws ConnectionClosedException, InvalidHttpRequestException
     {
-        // Parse zunächst die Request-Line:
-        this.setRequestLine (reader.readLineAsUSASCII());
-
-        // Lese so lange neue Header-Lines, bis eine komplett leere Zeile zurück kommt.
-        while (true) {
-            String headerLine = reader.readLineAsUSASCII ();
-            if (headerLine.trim().equalsIgnoreCase(STR_EMPTY)) {
-                break;
-            }
-            this.parseAndAddHeader (headerLine);
+        this.readFrom (reader);
+    }
+
+    /**
+     * Hiermit wird die nächste Anfrage aus dem Reader gelesen. Alles von der vorherigen Anfrage wird dabei verworfen,
+     * die Header und der Body (samt ihren Arrays) werden aber wiederverwendet.
+     * @param reader Der HttpInputStreamReader der Verbindung.
+     * @throws ConnectionClosedException
+     * @throws InvalidHttpRequestException
+     */
+    public void readFrom (UnsafeHttpInputStreamReader reader)
+            throws ConnectionClosedException, InvalidHttpRequestException
+    {
+        this.method = null;
+        this.path = null;
+        this.pathParameter = Collections.emptyMap();
+        this.released = false;
+
+        // Der gesamte Kopf (Request-Line und Header) wird auf einmal gelesen und dann direkt auf den Bytes geparsed.
+        // Strings entstehen dabei nur für den Pfad, unbekannte Header-Namen und (erst beim Lesen) die Header-Werte.
+        byte[] headerBlock = reader.readHeaderBlock ();
+        int headersStart = this.parseRequestLine (headerBlock, headerBlock.length);
+        this.headers.parseFrom (headerBlock, headersStart, headerBlock.length);
+
+        // Der Body wird nur mit dem Reader verbunden. Gelesen wird er erst, wenn das Surflet ihn verwendet.
+        if (this.body == null) {
+            this.body = HttpRequestBody.init (this.headers);
+        } else {
+            this.body.reset (this.headers);
+        }
+        this.body.attach (reader);
+    }
+
+    /**
+     * Hiermit wird die Anfrage als bearbeitet markiert. Jeder weitere Zugriff wirft eine IllegalStateException.
+     * Dies wird (mit "--recycle=debug") aufgerufen, nachdem das Surflet die Anfrage bearbeitet hat: So fallen Surflets
+     * auf, die die Anfrage (z. B. in einem anderen Thread) länger verwenden, als sie gültig ist.
+     */
+    public void release () {
+        this.released = true;
+        if (this.body != null) {
+            this.body.release ();
         }
+    }
 
-        // Versuche dann den Body zu parsen.
-        this.body = HttpRequestBody.init (this.headers);
-        this.body.fill (reader);
+    private void ensureActive () {
+        if (this.released) {
+            throw new IllegalStateException ("The request has been used after handleRequest returned");
+        }
     }
 
     /**
-     * Hiermit kann versucht werden eine Methode aus der Request-Line in String form,
-     * in eine aus der Enum oben umzuwandeln.
-     * @param method Die Methode aus der Request-Line.
+     * Hiermit kann versucht werden eine Methode aus der Request-Line (als Bytes),
+     * in eine aus der Enum oben umzuwandeln. Verglichen wird direkt mit den Bytes der Methoden.
+     * @param line Die Bytes der Request-Line.
+     * @param offset Ab welchem Index die Methode beginnt.
+     * @param length Die Länge der Methode.
      * @return Die Methode in Enum Form.
      * @throws InvalidHttpRequestException
      */
-    private RequestMethod resolveRequestMethod (String method) throws InvalidHttpRequestException {
-        switch (method.toUpperCase().trim ()) {
-            case "GET":
-                return RequestMethod.GET;
-            case "POST":
-                return RequestMethod.POST;
-            case "DELETE":
-                return RequestMethod.DELETE;
-            default:
-                throw new InvalidHttpRequestException ("Request-Method not Supported");
+    private RequestMethod resolveRequestMethod (byte[] line, int offset, int length) throws InvalidHttpRequestException {
+        for (RequestMethod method : REQUEST_METHODS) {
+            if (method.bytes.length != length) {
+                continue;
+            }
+            int index = 0;
+            // Klein geschriebene Methoden werden (wie bisher) akzeptiert: "& 0xDF" macht aus a-z A-Z.
+            while (index < length && (line [offset + index] & 0xDF) == method.bytes [index]) {
+                index += 1;
+            }
+            if (index == length) {
+                return method;
+            }
         }
+        throw new InvalidHttpRequestException ("Request-Method not Supported");
     }
 
     /**
@@ -143,28 +203,62 @@ public class HttpRequest {
      * @throws InvalidHttpRequestException
      */
     public void setRequestLine (String requestLine) throws InvalidHttpRequestException {
+        byte[] line = requestLine.getBytes (StandardCharsets.US_ASCII);
+        this.parseRequestLine (line, line.length);
+    }
 
-        final int HTTP_VERB = 0;
-        final int HTTP_PATH = 1;
+    /**
+     * Hiermit wird die Request-Line direkt auf den Bytes des Anfrage-Kopfes geparsed.
+     * @param block Die Bytes, beginnend mit der Request-Line.
+     * @param end Bis zu welchem Index (exklusive) gelesen werden darf.
+     * @return Der Index hinter der Request-Line (also hinter dem CRLF), an dem die Header beginnen.
+     * @throws InvalidHttpRequestException
+     */
+    private int parseRequestLine (byte[] block, int end) throws InvalidHttpRequestException {
 
         // Aufbau der Request-Zeile:
         // <HTTP-VERB> <PFAD> <VERSION>
         // Die Version ist uns egal. Wir gehen von 1.1 aus.
+        int lineEnd = 0;
+        while (lineEnd < end && (block [lineEnd] != '\r' || lineEnd + 1 == end || block [lineEnd + 1] != '\n')) {
+            lineEnd += 1;
+        }
 
-        // Hier wird ein split auf Leerzeichen durchgeführt, da die Leerzeichen die Abschnitte voneinander trennen.
-        String[] requestLineParts = requestLine.split("\\s+");
+        // Die Abschnitte sind durch (ein oder mehrere) Leerzeichen bzw. Tabs getrennt.
+        int methodStart = HttpRequest.skipWhitespace (block, 0, lineEnd);
+        int methodEnd = HttpRequest.skipToken (block, methodStart, lineEnd);
+        int pathStart = HttpRequest.skipWhitespace (block, methodEnd, lineEnd);
+        int pathEnd = HttpRequest.skipToken (block, pathStart, lineEnd);
+        int versionStart = HttpRequest.skipWhitespace (block, pathEnd, lineEnd);
 
-        // Es sollten drei Teile entstehen. In dem 1. Element (Index 0) ist das Verb enthalten.
-        // Im 2. (Index 1) der gewünschte Pfad, und im 3. (Index 2) die vom Browser verwendete HTTP-Version.
-        // Ist dies nicht der Fall, so ist die Anfrage auf jeden Fall ungültig.
-        if (requestLineParts.length < 3) {
+        // Es sollten drei Teile vorhanden sein: das Verb, der gewünschte Pfad und die vom Browser verwendete
+        // HTTP-Version. Ist dies nicht der Fall, so ist die Anfrage auf jeden Fall ungültig.
+        if (methodStart == methodEnd || pathStart == pathEnd || versionStart == lineEnd) {
             throw new InvalidHttpRequestException ("Invalid Request-Line");
         }
 
         // Andernfalls kann versucht werden die Methode, sowie den Pfad zu parsen.
-        this.method = this.resolveRequestMethod (requestLineParts [HTTP_VERB]);
-        this.path = requestLineParts [HTTP_PATH];
+        this.method = this.resolveRequestMethod (block, methodStart, methodEnd - methodStart);
+        this.path = new String (block, pathStart, pathEnd - pathStart, StandardCharsets.US_ASCII);
         this.parsePath();
+
+        return Math.min (end, lineEnd + 2);
+    }
+
+    private static boolean isWhitespace (byte value) {
+        return value == ' ' || value == '\t';
+    }
+    private static int skipWhitespace (byte[] line, int index, int end) {
+        while (index < end && HttpRequest.isWhitespace (line [index])) {
+            index += 1;
+        }
+        return index;
+    }
+    private static int skipToken (byte[] line, int index, int end) {
+        while (index < end && HttpRequest.isWhitespace (line [index]) == false) {
+            index += 1;
+        }
+        return index;
     }
 
     /**
@@ -177,9 +271,6 @@ public class HttpRequest {
         // <Header-Name>: <Header-Value>
         // Hier wird jedoch, abweichend vom RFC 2616, kein Header über mehr als eine Zeile berücksichtigt.
 
-        String key;
-        String value;
-
         // Finde also zunächst den 1. Doppelpunkt.
         // Wenn keiner gefunden werden kann, soll ein Fehler geworfen werden.
         int firstColonIndex = line.indexOf(':');
@@ -188,12 +279,8 @@ public class HttpRequest {
             return;
         }
 
-        // Hole den Key und den Wert mithilfe des Indexes und der substring Funktion des Strings.
         // Der Key ist dabei case-insensitive (RFC 2616 Section 4.2).
-        key   = line.substring(0, firstColonIndex).trim().toLowerCase();
-        value = line.substring (firstColonIndex + 1).trim();
-
-        this.headers.put(key, value);
+        this.headers.add (line.substring (0, firstColonIndex).trim().toLowerCase(), line.substring (firstColonIndex + 1).trim());
     }
 
     /**
@@ -201,6 +288,7 @@ public class HttpRequest {
      * @return Die Http-Methode dieses Aufrufs.
      */
     public RequestMethod getMethod () {
+        this.ensureActive ();
         return this.method;
     }
 
@@ -209,6 +297,7 @@ public class HttpRequest {
      * @return Das Ziel (der Pfad) dieses Aufrufs.
      */
     public String getPath () {
+        this.ensureActive ();
         return this.path;
     }
 
@@ -217,6 +306,7 @@ public class HttpRequest {
      * @return Der Anfrage-Body dieses Aufrufs.
      */
     public HttpRequestBody getBody () {
+        this.ensureActive ();
         return this.body;
     }
 
@@ -226,7 +316,8 @@ public class HttpRequest {
      * @return "True", wenn ein Wert vorhanden ist. Andernfalls "False".
      */
     public boolean hasHeader (String header) {
-        return this.headers.containsKey (header);
+        this.ensureActive ();
+        return this.headers.contains (header);
     }
 
     /**
@@ -235,12 +326,20 @@ public class HttpRequest {
      * @return Der Wert des Headers, wenn es einen unter diesem Namen gibt. Sonst "null".
      */
     public String getHeader (String header) {
-        if (this.hasHeader (header) == false) {
-            return null;
-        }
+        this.ensureActive ();
         return this.headers.get (header);
     }
 
+    /**
+     * Hiermit können alle Werte eines Headers gelesen werden, der mehrfach gesendet wurde (z. B. mehrere "Cookie"-Zeilen).
+     * @param header Der Name des Headers.
+     * @return Die Werte in der gesendeten Reihenfolge (leer, wenn es den Header nicht gibt).
+     */
+    public List<String> getHeaders (String header) {
+        this.ensureActive ();
+        return this.headers.getAll (header);
+    }
+
     /**
      * Hiermit kann ein Header gelesen werden.
      * Gibt es keinen Wert zu diesem Header, so wird der mitgegebene Standardwert zurückgegeben.
@@ -262,6 +361,7 @@ public class HttpRequest {
      * @return "True", wenn ein Wert vorhanden ist. Andernfalls "False".
      */
     public boolean hasParameter (String parameter) {
+        this.ensureActive ();
         return this.queryParameter.containsKey (parameter);
     }
     /**
@@ -290,4 +390,34 @@ public class HttpRequest {
         }
         return defaultValue;
     }
+
+    /**
+     * Hiermit werden die Pfad-Parameter gesetzt. Dies geschieht beim Auflösen der Route im Surflet-Mapper.
+     * @param pathParameter Die Pfad-Parameter (z. B. "id" bei einer Route "/task/{id}").
+     */
+    public void setPathParameters (Map<String, String> pathParameter) {
+        this.pathParameter = pathParameter;
+    }
+
+    /**
+     * Hier kann geprüft werden, ob ein Wert für einen bestimmten Pfad-Parameter vorliegt.
+     * @param parameter Der Name des Parameters (bei einer Wildcard "*").
+     * @return "True", wenn ein Wert vorhanden ist. Andernfalls "False".
+     */
+    public boolean hasPathParameter (String parameter) {
+        this.ensureActive ();
+        return this.pathParameter.containsKey (parameter);
+    }
+
+    /**
+     * Hiermit kann ein Pfad-Parameter gelesen werden.
+     * Bei einer Route "/task/{id}" und dem Pfad "/task/42" ist der Parameter "id" also "42".
+     * Der von einer Wildcard abgedeckte Rest des Pfades ist unter dem Namen "*" verfügbar.
+     * @param parameter Der Name des Parameters.
+     * @return Der Wert des Parameters, wenn es einen unter diesem Namen gibt. Sonst "null".
+     */
+    public String getPathParameter (String parameter) {
+        this.ensureActive ();
+        return this.pathParameter.get (parameter);
+    }
 }
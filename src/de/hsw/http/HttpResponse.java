@@ -1,13 +1,25 @@
 package de.hsw.http;
 
 import com.google.gson.JsonElement;
+import de.hsw.http.helper.BufferPool;
 import de.hsw.http.helper.ByteUtils;
+import de.hsw.http.helper.ContentEncoding;
+import de.hsw.http.helper.DynamicByteBuffer;
+import de.hsw.http.helper.ETagUtils;
+import de.hsw.http.helper.HttpHeaders;
 import de.hsw.http.helper.HttpRequestBody;
+import de.hsw.http.helper.PipelinedOutputStream;
 import de.hsw.sessions.Cookie;
 
+import java.io.IOException;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.util.*;
 
 public class HttpResponse {
@@ -16,8 +28,28 @@ public class HttpResponse {
     public static final byte[] HTTP_VERSION = "HTTP/1.1".getBytes(StandardCharsets.US_ASCII);
     public static final byte[] SPACE = " ".getBytes(StandardCharsets.US_ASCII);
     public static final byte[] CRLF = new byte[] {0x0D, 0x0A};
+    private static final byte[] HEADER_SEPARATOR = ": ".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] SET_COOKIE = "Set-Cookie: ".getBytes(StandardCharsets.US_ASCII);
+
+    // Bodys bis zu dieser Größe werden zusammen mit den Headern in einen Buffer kopiert,
+    // sodass die gesamte Antwort mit einem einzigen Schreibaufruf (und meist in einem TCP-Segment) gesendet wird.
+    private static final int MAX_COALESCED_BODY_SIZE = 16 * 1024;
+    // Größere Bodys (Dateien, Buffer) werden, falls kein Channel vorhanden ist, in Blöcken dieser Größe kopiert.
+    private static final int COPY_CHUNK_SIZE = 64 * 1024;
     private static final byte[] DEFAULT_STATUS_LINE = "HTTP/1.1 200 OK".getBytes (StandardCharsets.US_ASCII);
 
+    // Beim Streamen (Transfer-Encoding: chunked) werden so viele Bytes gesammelt, bevor sie als ein Chunk gesendet werden.
+    private static final int CHUNK_BUFFER_SIZE = 8 * 1024;
+    // Vor den gesammelten Bytes wird Platz für die Größen-Zeile des Chunks freigehalten (höchstens "7fffffff\r\n"),
+    // damit ein Chunk ohne weitere Kopie mit einem einzigen Schreibaufruf gesendet werden kann.
+    private static final byte[] CHUNK_SIZE_PLACEHOLDER = new byte [10];
+    private static final byte[] LAST_CHUNK = "0\r\n\r\n".getBytes (StandardCharsets.US_ASCII);
+
+    // Gepufferte Bodys ab dieser Größe werden komprimiert, sofern der Client es erlaubt (0 = nie).
+    // Bei kleineren Bodys lohnt sich die Komprimierung kaum, kostet aber trotzdem CPU-Zeit.
+    public static final int DEFAULT_COMPRESSION_THRESHOLD = 1024;
+    private static volatile int compressionThreshold = DEFAULT_COMPRESSION_THRESHOLD;
+
     // Hier eine (hoffentlich) vollständige Liste an in RFC2616 (Sec. 6.1.1) definierten Status-Codes:
     private static final Map<Integer, byte[]> REASON_PHRASES = new HashMap<> ();
     static {
@@ -90,18 +122,78 @@ public class HttpResponse {
         REASON_PHRASES.put(511, "Network Authentication Required".getBytes(StandardCharsets.US_ASCII));
     }
 
+    /**
+     * Eine vorab kodierte Antwort, z. B. für einen Cache, der dieselbe Antwort sehr oft sendet.
+     * Sie besteht aus der Standard-Status-Zeile und dem Standard-Connection-Header, gefolgt von den
+     * Entity-Headern (Content-Type, Content-Length), der leeren Zeile und dem Body.
+     */
+    public static class PreEncoded {
+
+        private final byte[] bytes;
+        private final int entityOffset;
+        private final int bodyLength;
+
+        private PreEncoded (byte[] bytes, int entityOffset, int bodyLength) {
+            this.bytes = bytes;
+            this.entityOffset = entityOffset;
+            this.bodyLength = bodyLength;
+        }
+
+        /**
+         * Hiermit kann die Größe der gesamten kodierten Antwort abgefragt werden.
+         * @return Die Anzahl an Bytes.
+         */
+        public int size () {
+            return this.bytes.length;
+        }
+        public int getBodyLength () {
+            return this.bodyLength;
+        }
+    }
+
+    // So groß darf der Body-Buffer beim Zurücksetzen (siehe "reset") höchstens sein, um weiterverwendet zu werden.
+    private static final int MAX_RECYCLED_BUFFER_SIZE = 64 * 1024;
+
+    // Ersetzt den Stream einer Antwort, die bereits bearbeitet wurde (siehe "release").
+    private static final OutputStream RELEASED_OUTPUT_STREAM = new OutputStream () {
+        @Override
+        public void write (int value) {
+            throw new IllegalStateException ("The response has been used after handleRequest returned");
+        }
+        @Override
+        public void write (byte[] bytes, int offset, int length) {
+            throw new IllegalStateException ("The response has been used after handleRequest returned");
+        }
+    };
+
     // Der eigentliche Stream:
     private OutputStream outputStream;
 
+    // Der Channel des Sockets (falls vorhanden). Über ihn können Dateien ohne Kopie in den Heap gesendet werden.
+    private WritableByteChannel channel;
+
     // Die 1. Zeile der Antwort.
     private byte[] statusLine = HttpResponse.DEFAULT_STATUS_LINE;
+    private int statusCode = 200;
+
+    // Ist hier eine Anfrage hinterlegt, wird für einen gepufferten Body ein ETag berechnet (siehe "enableETag").
+    private HttpRequest conditionalRequest = null;
+
+    // Das Encoding, mit dem ein gepufferter Body komprimiert werden darf (siehe "negotiateContentEncoding").
+    private ContentEncoding acceptedEncoding = ContentEncoding.IDENTITY;
+
+    // Alle Informationen zum Streamen in Chunks (siehe "startChunked"):
+    private boolean chunked = false;
+    private boolean finished = false;
+    private DynamicByteBuffer chunkBuffer = null;
+    private ByteBuffer pooledChunkBuffer = null;
 
     // Alle Informationen zu den Antwort-Headern:
-    private Map<String, String> headers = new HashMap<>();
+    private HttpHeaders headers = new HttpHeaders();
     private boolean headersSent = false;
 
     // Alle Informationen zum Response-Body:
-    private List<Byte> bodyBuffer = new ArrayList<>();
+    private DynamicByteBuffer bodyBuffer = new DynamicByteBuffer();
     private String contentType = HttpRequestBody.ContentType.TEXT_PLAIN.toString();
     private Charset charset = StandardCharsets.UTF_8;
 
@@ -113,9 +205,73 @@ public class HttpResponse {
      * @param outputStream Der Output-Stream des Sockets.
      */
     public HttpResponse (OutputStream outputStream) {
+        this (outputStream, null);
+    }
+
+    /**
+     * Hier wird die Http-Antwort bereits mit Standard-Werten befüllt.
+     * @param outputStream Der Output-Stream des Sockets.
+     * @param channel Der (blockierende) Channel desselben Sockets oder "null". Ist er vorhanden, werden Dateien
+     *                mit "FileChannel.transferTo" (unter Linux "sendfile") gesendet.
+     */
+    public HttpResponse (OutputStream outputStream, WritableByteChannel channel) {
         this.outputStream = outputStream;
-        this.headers.put("Content-Length", "0");
-        this.headers.put("Connection", "keep-alive");
+        this.channel = channel;
+        this.headers.add ("Content-Length", "0");
+        this.headers.add ("Connection", "keep-alive");
+    }
+
+    /**
+     * Hiermit wird die Antwort für die nächste Anfrage derselben Verbindung zurückgesetzt (siehe RequestRecycler).
+     * Danach entspricht sie einer neu erstellten Antwort, die Buffer werden aber wiederverwendet.
+     * Ein sehr großer Body-Buffer wird dabei verworfen, damit eine einzelne große Antwort nicht für die gesamte
+     * Verbindung Speicher belegt.
+     */
+    public void reset () {
+        this.statusLine = HttpResponse.DEFAULT_STATUS_LINE;
+        this.statusCode = 200;
+        this.conditionalRequest = null;
+        this.acceptedEncoding = ContentEncoding.IDENTITY;
+        this.chunked = false;
+        this.finished = false;
+
+        this.headers.clear ();
+        this.headers.add ("Content-Length", "0");
+        this.headers.add ("Connection", "keep-alive");
+        this.headersSent = false;
+
+        if (this.bodyBuffer.array().length > MAX_RECYCLED_BUFFER_SIZE) {
+            this.bodyBuffer = new DynamicByteBuffer();
+        } else {
+            this.bodyBuffer.clear ();
+        }
+        this.contentType = HttpRequestBody.ContentType.TEXT_PLAIN.toString();
+        this.charset = StandardCharsets.UTF_8;
+        this.cookies.clear ();
+    }
+
+    /**
+     * Hiermit wird die Antwort als gesendet markiert. Jeder weitere Schreibversuch wirft eine IllegalStateException
+     * (bzw. gibt ihren Stack-Trace aus), statt in die (dann bereits für die nächste Anfrage verwendete) Verbindung
+     * zu schreiben. Dies wird mit "--recycle=debug" aufgerufen, nachdem das Surflet die Anfrage bearbeitet hat.
+     */
+    public void release () {
+        this.outputStream = RELEASED_OUTPUT_STREAM;
+        this.channel = null;
+    }
+
+    /**
+     * Hiermit kann eingestellt werden, ab welcher Größe gepufferte Bodys komprimiert werden.
+     * @param threshold Die minimale Größe in Bytes (0 = es wird nie komprimiert).
+     */
+    public static void setCompressionThreshold (int threshold) {
+        if (threshold < 0) {
+            throw new IllegalArgumentException ("The compression threshold must not be negative");
+        }
+        HttpResponse.compressionThreshold = threshold;
+    }
+    public static int getCompressionThreshold () {
+        return HttpResponse.compressionThreshold;
     }
 
     /**
@@ -185,6 +341,7 @@ public class HttpResponse {
             System.out.println ("[WARNING]: headers have been sent already. Calling .status has no effect.");
             return this;
         }
+        this.statusCode = statusCode;
         this.statusLine = ByteUtils.concatByteArrays (
                 HTTP_VERSION,
                 SPACE,
@@ -195,8 +352,34 @@ public class HttpResponse {
         return this;
     }
 
+    /**
+     * Hiermit kann (optional) ein ETag für den Body der Antwort aktiviert werden.
+     * Beim Senden wird dann ein Hash über den Body berechnet und als (schwaches) ETag gesendet.
+     * Hat der Client dieses ETag bereits (If-None-Match), wird stattdessen ein "304 Not Modified" ohne Body gesendet.
+     * Dies gilt nur für Antworten mit dem Status 200, die mit "send" (nicht gestreamt) gesendet werden.
+     * @param request Die Http-Anfrage, deren If-None-Match-Header geprüft werden soll.
+     * @return Dieses HttpResponse Objekt, damit method chaining verwendet werden kann.
+     */
+    public HttpResponse enableETag (HttpRequest request) {
+        this.conditionalRequest = request;
+        return this;
+    }
+
+    /**
+     * Hiermit wird anhand des Accept-Encoding-Headers der Anfrage bestimmt, ob (und wie) ein gepufferter Body
+     * komprimiert werden darf. Komprimiert wird dann beim Senden, sofern der Body groß genug ist und sich
+     * sein Content-Type dafür eignet.
+     * @param request Die Http-Anfrage.
+     * @return Dieses HttpResponse Objekt, damit method chaining verwendet werden kann.
+     */
+    public HttpResponse negotiateContentEncoding (HttpRequest request) {
+        this.acceptedEncoding = ContentEncoding.negotiate (request.getHeader ("accept-encoding", null), ContentEncoding.GZIP, ContentEncoding.DEFLATE);
+        return this;
+    }
+
     /**
      * Hiermit kann der Antwort ein Header angefügt werden.
+     * Gibt es bereits einen Header mit diesem Namen (Groß-/Kleinschreibung ist egal), wird er ersetzt.
      * @param name Der Name des Headers.
      * @param value Der Wert des Headers.
      * @return Dieses HttpResponse Objekt, damit method chaining verwendet werden kann.
@@ -206,7 +389,23 @@ public class HttpResponse {
             System.out.println ("[WARNING]: headers have been sent already. Calling .addHeader has no effect.");
             return this;
         }
-        this.headers.put (name, value);
+        this.headers.set (name, value);
+        return this;
+    }
+
+    /**
+     * Hiermit kann der Antwort ein weiterer Wert eines Headers angefügt werden, der mehrfach vorkommen darf
+     * (z. B. "Link" oder "Vary"). Bisherige Header mit diesem Namen bleiben erhalten.
+     * @param name Der Name des Headers.
+     * @param value Der Wert des Headers.
+     * @return Dieses HttpResponse Objekt, damit method chaining verwendet werden kann.
+     */
+    public HttpResponse appendHeader (String name, String value) {
+        if (this.headersSent == true) {
+            System.out.println ("[WARNING]: headers have been sent already. Calling .appendHeader has no effect.");
+            return this;
+        }
+        this.headers.add (name, value);
         return this;
     }
 
@@ -243,27 +442,6 @@ public class HttpResponse {
         return this;
     }
 
-    /**
-     * Hiermit wird ein US-ASCII Header (als String) direkt in den Outputstream geschrieben werden.
-     * @param message Der Header (als String), der in den Outputstream geschrieben werden soll.
-     */
-    private void writeHeader (String message) {
-        this.writeHeader (message.getBytes(StandardCharsets.US_ASCII));
-    }
-
-    /**
-     * Hiermit wird ein US-ASCII Header direkt in den Outputstream geschrieben werden.
-     * @param bytes Der Header, der in den Outputstream geschrieben werden soll.
-     */
-    private void writeHeader (byte[] bytes) {
-        try {
-            this.outputStream.write (ByteUtils.concatByteArrays (bytes, CRLF));
-            this.outputStream.flush();
-        } catch (Exception e) {
-            e.printStackTrace();
-        }
-    }
-
     /**
      * Hiermit kann ein UTF-8 String direkt in den Outputstream geschrieben werden.
      * @param message Der String, der in den Outputstream geschrieben werden soll.
@@ -289,13 +467,30 @@ public class HttpResponse {
      * @return Dieses HttpResponse Objekt, damit method chaining verwendet werden kann.
      */
     public HttpResponse write (byte[] bytes) {
+        return this.write (bytes, 0, bytes.length);
+    }
+
+    /**
+     * Hiermit kann ein Ausschnitt roher Bytes in den Outputstream geschrieben werden.
+     * Wird in Chunks gestreamt (siehe "startChunked"), werden die Bytes zunächst gesammelt.
+     * @param bytes Das Array der rohen Bytes.
+     * @param offset Ab welchem Index geschrieben werden soll.
+     * @param length Die Anzahl an Bytes, die geschrieben werden sollen.
+     * @return Dieses HttpResponse Objekt, damit method chaining verwendet werden kann.
+     */
+    public HttpResponse write (byte[] bytes, int offset, int length) {
         if (this.headersSent == false) {
             System.out.println ("[WARNING]: headers have not been sent. Calling .write has no effect.");
             return this;
         }
+        if (this.chunked == true) {
+            this.writeChunked (bytes, offset, length);
+            return this;
+        }
+        // Ein Surflet, das selbst "write" aufruft, streamt. Die Bytes sollen also sofort beim Client ankommen.
         try {
-            this.outputStream.write (bytes);
-            this.outputStream.flush();
+            this.outputStream.write (bytes, offset, length);
+            this.flushNow ();
         } catch (Exception e) {
             e.printStackTrace();
         }
@@ -308,7 +503,8 @@ public class HttpResponse {
      * Außerdem wird hier die Antwort geschloßen.
      */
     public void send () {
-        this.send (ByteUtils.byteArrayFromDynamicBuffer (this.bodyBuffer));
+        // Der interne Buffer wird ohne weitere Kopie direkt geschrieben.
+        this.send (this.bodyBuffer.array(), 0, this.bodyBuffer.size());
     }
 
     /**
@@ -336,11 +532,366 @@ public class HttpResponse {
      * @param bytes Die rohen Bytes, die in den Outputstream geschrieben werden sollen.
      */
     public void send (byte[] bytes) {
+        this.send (bytes, 0, bytes.length);
+    }
+
+    /**
+     * Hiermit kann ein Ausschnitt roher Bytes in den Outputstream geschrieben werden.
+     * Außerdem wird hier die Antwort geschloßen.
+     * @param bytes Das Array der rohen Bytes.
+     * @param offset Ab welchem Index geschrieben werden soll.
+     * @param length Die Anzahl an Bytes, die geschrieben werden sollen.
+     */
+    public void send (byte[] bytes, int offset, int length) {
+
+        // Wird in Chunks gestreamt, sind die Bytes der letzte Teil des Bodys.
+        if (this.chunked == true) {
+            this.write (bytes, offset, length);
+            this.finish ();
+            return;
+        }
+
+        // Wurden die Header bereits gesendet, wird nur noch der Body (gestreamt) geschrieben.
+        if (this.headersSent == true) {
+            this.write (bytes, offset, length);
+            return;
+        }
+
+        // Ist das ETag aktiviert, wird es aus dem Body berechnet.
+        // Kennt der Client diese Version bereits, wird der Body nicht gesendet.
+        if (this.conditionalRequest != null && this.statusCode == 200) {
+            String etag = ETagUtils.fromBody (bytes, offset, length);
+            this.addHeader ("ETag", etag);
+            if (ETagUtils.isNotModified (this.conditionalRequest, etag, -1)) {
+                this.status (304);
+            }
+        }
+
+        // Manche Status dürfen keinen Body (und keine Content-Length) haben.
+        if (this.isBodyless ()) {
+            this.headers.remove ("Content-Length");
+            try {
+                this.writeStatusLineAndHeaders (null, 0, 0);
+                this.outputStream.flush();
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+            return;
+        }
+
+        // Größere Bodys werden (falls erlaubt) komprimiert. Die Antwort hängt damit vom Accept-Encoding ab,
+        // was Caches über den Vary-Header mitgeteilt wird. Hat das Surflet selbst ein Encoding gesetzt,
+        // wird nichts verändert.
+        int threshold = HttpResponse.compressionThreshold;
+        if (threshold > 0 && length >= threshold && ContentEncoding.isCompressible (this.contentType) && this.headers.contains ("Content-Encoding") == false) {
+            this.addHeader ("Vary", "Accept-Encoding");
+            if (this.acceptedEncoding != ContentEncoding.IDENTITY) {
+                byte[] encoded = this.acceptedEncoding.encode (bytes, offset, length);
+                if (encoded.length < length) {
+                    this.addHeader ("Content-Encoding", this.acceptedEncoding.toString());
+                    bytes = encoded;
+                    offset = 0;
+                    length = encoded.length;
+                }
+            }
+        }
+
+        // Andernfalls werden Status-Zeile, Header und Body ohne Zwischen-Flush geschrieben
+        // und erst am Ende der Nachricht einmal geflushed.
+        this.addHeader ("Content-Length", Integer.toString (length));
+        try {
+            if (length <= MAX_COALESCED_BODY_SIZE) {
+                this.writeStatusLineAndHeaders (bytes, offset, length);
+            } else {
+                this.writeStatusLineAndHeaders (null, 0, 0);
+                this.outputStream.write (bytes, offset, length);
+            }
+            this.outputStream.flush();
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Hiermit wird eine Antwort mit dem Status "200 OK" vorab kodiert, sodass sie mit "sendPreEncoded" beliebig oft
+     * gesendet werden kann, ohne dass die Header jedes Mal neu kodiert werden müssen.
+     * @param contentType Der Content-Type des Bodys (wie bei "setContentType", der Charset wird angehängt).
+     * @param body Der Body.
+     * @return Die kodierte Antwort.
+     */
+    public static PreEncoded preEncode (String contentType, byte[] body) {
+        return HttpResponse.preEncode (contentType, Collections.emptyMap(), body);
+    }
+
+    /**
+     * Hiermit wird eine Antwort mit dem Status "200 OK" und weiteren Headern vorab kodiert.
+     * Die weiteren Header gehören zur kodierten Antwort (wie Content-Type und Content-Length) und sollten daher
+     * nur den Body beschreiben (z. B. "Accept-Ranges" oder "Last-Modified").
+     * @param contentType Der Content-Type des Bodys (wie bei "setContentType", der Charset wird angehängt).
+     * @param entityHeaders Die weiteren Header.
+     * @param body Der Body.
+     * @return Die kodierte Antwort.
+     */
+    public static PreEncoded preEncode (String contentType, Map<String, String> entityHeaders, byte[] body) {
+        return HttpResponse.preEncode (contentType, entityHeaders, body, 0, body.length);
+    }
+
+    /**
+     * Hiermit wird eine Antwort mit dem Status "200 OK" und weiteren Headern aus einem Ausschnitt eines Arrays
+     * vorab kodiert (z. B. aus einem Buffer des BufferPools). Die Bytes werden dabei kopiert.
+     * @param contentType Der Content-Type des Bodys (wie bei "setContentType", der Charset wird angehängt).
+     * @param entityHeaders Die weiteren Header.
+     * @param body Das Array mit dem Body.
+     * @param offset Ab welchem Index der Body beginnt.
+     * @param length Die Länge des Bodys.
+     * @return Die kodierte Antwort.
+     */
+    public static PreEncoded preEncode (String contentType, Map<String, String> entityHeaders, byte[] body, int offset, int length) {
+        DynamicByteBuffer buffer = new DynamicByteBuffer (256 + length);
+        buffer.append (DEFAULT_STATUS_LINE).append (CRLF);
+        buffer.appendAscii ("Connection").append (HEADER_SEPARATOR).appendAscii ("keep-alive").append (CRLF);
+        int entityOffset = buffer.size();
+        buffer.appendAscii ("Content-Type").append (HEADER_SEPARATOR).appendAscii (contentType + "; charset=" + StandardCharsets.UTF_8).append (CRLF);
+        buffer.appendAscii ("Content-Length").append (HEADER_SEPARATOR).appendAscii (Integer.toString (length)).append (CRLF);
+        for (Map.Entry<String, String> header : entityHeaders.entrySet()) {
+            buffer.appendAscii (header.getKey()).append (HEADER_SEPARATOR).appendAscii (header.getValue()).append (CRLF);
+        }
+        buffer.append (CRLF);
+        buffer.append (body, offset, length);
+        return new PreEncoded (buffer.toByteArray(), entityOffset, length);
+    }
+
+    /**
+     * Hiermit wird eine vorab kodierte Antwort gesendet und die Antwort geschloßen.
+     * Wurden an dieser Antwort weder Status, Header noch Cookies verändert, werden die kodierten Bytes ohne
+     * jede Kopie mit einem einzigen Schreibaufruf gesendet. Andernfalls werden Status-Zeile, Header und Cookies
+     * dieser Antwort vor die Entity-Header der kodierten Antwort gesetzt (ebenfalls mit einem Schreibaufruf).
+     * @param encoded Die kodierte Antwort.
+     */
+    public void sendPreEncoded (PreEncoded encoded) {
+        if (this.headersSent == true) {
+            System.out.println ("[WARNING]: headers have been sent already. Calling .sendPreEncoded has no effect.");
+            return;
+        }
+
+        try {
+            if (this.hasDefaultStatusLineAndHeaders ()) {
+                this.outputStream.write (encoded.bytes);
+            } else {
+                int entityLength = encoded.bytes.length - encoded.entityOffset;
+                ByteBuffer pooled = BufferPool.getInstance().acquireHeap (512 + entityLength);
+                DynamicByteBuffer head = new DynamicByteBuffer (pooled.array());
+                head.append (this.statusLine).append (CRLF);
+                for (int index = 0; index < this.headers.size(); index += 1) {
+                    String name = this.headers.getName (index);
+                    // Diese beiden Header sind bereits Teil der kodierten Antwort.
+                    if (name.equalsIgnoreCase ("Content-Length") || name.equalsIgnoreCase ("Content-Type")) {
+                        continue;
+                    }
+                    head.appendAscii (name).append (HEADER_SEPARATOR).appendAscii (this.headers.getValue (index)).append (CRLF);
+                }
+                for (Cookie cookie : this.cookies.values()) {
+                    head.append (SET_COOKIE).appendAscii (cookie.toString()).append (CRLF);
+                }
+                head.append (encoded.bytes, encoded.entityOffset, entityLength);
+                try {
+                    head.writeTo (this.outputStream);
+                } finally {
+                    BufferPool.getInstance().release (pooled);
+                }
+            }
+            this.headersSent = true;
+            this.outputStream.flush();
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Hiermit wird geprüft, ob Status-Zeile, Header und Cookies noch dem Zustand nach dem Konstruktor entsprechen.
+     * @return "True", wenn nichts verändert wurde. Andernfalls "False".
+     */
+    private boolean hasDefaultStatusLineAndHeaders () {
+        return this.statusLine == DEFAULT_STATUS_LINE
+                && this.cookies.isEmpty()
+                && this.headers.size() == 2
+                && this.headers.contains ("Content-Length")
+                && "keep-alive".equals (this.headers.get ("Connection"));
+    }
+
+    /**
+     * Hiermit wird geprüft, ob der aktuelle Status eine Antwort ohne Body verlangt (1xx, 204 und 304).
+     * @return "True", wenn kein Body gesendet werden darf. Andernfalls "False".
+     */
+    private boolean isBodyless () {
+        return this.statusCode < 200 || this.statusCode == 204 || this.statusCode == 304;
+    }
+
+    /**
+     * Hiermit kann eine Datei als Body gesendet werden.
+     * Außerdem wird hier die Antwort geschloßen.
+     * @param file Der Pfad der Datei.
+     * @throws IOException Wenn die Datei nicht geöffnet werden kann (es wurde dann noch nichts gesendet).
+     */
+    public void sendFile (Path file) throws IOException {
+        try (FileChannel fileChannel = FileChannel.open (file, StandardOpenOption.READ)) {
+            this.sendFileRegion (fileChannel, 0, fileChannel.size());
+        }
+    }
+
+    /**
+     * Hiermit kann ein Ausschnitt einer Datei als Body gesendet werden.
+     * Außerdem wird hier die Antwort geschloßen.
+     * Kleine Ausschnitte werden zusammen mit den Headern geschrieben. Größere werden, wenn die Antwort einen Channel
+     * hat, mit "FileChannel.transferTo" direkt vom Dateisystem in das Socket übertragen (ohne Kopie in den Heap),
+     * andernfalls blockweise kopiert.
+     * @param file Der Channel der Datei (er wird nicht geschlossen).
+     * @param position Ab welcher Position der Datei gesendet werden soll.
+     * @param count Die Anzahl an Bytes.
+     */
+    public void sendFileRegion (FileChannel file, long position, long count) {
+        if (this.headersSent == true) {
+            System.out.println ("[WARNING]: headers have been sent already. Calling .sendFileRegion has no effect.");
+            return;
+        }
+
+        this.addHeader ("Content-Length", Long.toString (count));
+        try {
+            if (count <= MAX_COALESCED_BODY_SIZE) {
+                ByteBuffer target = BufferPool.getInstance().acquireHeap ((int) count);
+                try {
+                    target.limit ((int) count);
+                    while (target.hasRemaining()) {
+                        if (file.read (target, position + target.position()) < 0) {
+                            throw new IOException ("The file is shorter than expected");
+                        }
+                    }
+                    this.writeStatusLineAndHeaders (target.array(), 0, (int) count);
+                } finally {
+                    BufferPool.getInstance().release (target);
+                }
+            } else {
+                this.writeStatusLineAndHeaders (null, 0, 0);
+                this.outputStream.flush();
+                this.transferFileRegion (file, position, count);
+            }
+            this.outputStream.flush();
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Hiermit kann ein Ausschnitt einer Datei direkt in den Outputstream geschrieben werden (wie "write").
+     * Die Header müssen also bereits gesendet worden sein. So können z. B. mehrere Ausschnitte nacheinander
+     * gesendet werden.
+     * @param file Der Channel der Datei (er wird nicht geschlossen).
+     * @param position Ab welcher Position der Datei geschrieben werden soll.
+     * @param count Die Anzahl an Bytes.
+     * @return Dieses HttpResponse Objekt, damit method chaining verwendet werden kann.
+     */
+    public HttpResponse writeFileRegion (FileChannel file, long position, long count) {
         if (this.headersSent == false) {
-            this.addHeader ("Content-Length", Integer.toString (bytes.length));
-            this.sendStatusLineAndHeaders();
+            System.out.println ("[WARNING]: headers have not been sent. Calling .writeFileRegion has no effect.");
+            return this;
+        }
+        try {
+            this.transferFileRegion (file, position, count);
+            this.outputStream.flush();
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+        return this;
+    }
+
+    /**
+     * Hiermit wird ein Ausschnitt einer Datei (nach den Headern) in das Socket geschrieben.
+     * @param file Der Channel der Datei.
+     * @param position Ab welcher Position der Datei geschrieben werden soll.
+     * @param count Die Anzahl an Bytes.
+     * @throws IOException
+     */
+    private void transferFileRegion (FileChannel file, long position, long count) throws IOException {
+        long end = position + count;
+
+        if (this.channel != null) {
+            // Am Output-Stream vorbei darf erst geschrieben werden, wenn alle Bytes davor gesendet sind.
+            this.flushNow ();
+            while (position < end) {
+                long transferred = file.transferTo (position, end - position, this.channel);
+                if (transferred <= 0 && position >= file.size()) {
+                    throw new IOException ("The file is shorter than expected");
+                }
+                position += transferred;
+            }
+            return;
+        }
+
+        ByteBuffer buffer = BufferPool.getInstance().acquireHeap ((int) Math.min (COPY_CHUNK_SIZE, count));
+        try {
+            while (position < end) {
+                buffer.clear();
+                buffer.limit ((int) Math.min (buffer.capacity(), end - position));
+                int read = file.read (buffer, position);
+                if (read < 0) {
+                    throw new IOException ("The file is shorter than expected");
+                }
+                this.outputStream.write (buffer.array(), 0, read);
+                position += read;
+            }
+        } finally {
+            BufferPool.getInstance().release (buffer);
+        }
+    }
+
+    /**
+     * Hiermit kann der Inhalt eines ByteBuffers (z. B. eines MappedByteBuffers) als Body gesendet werden.
+     * Außerdem wird hier die Antwort geschloßen.
+     * Hat die Antwort einen Channel, wird der Buffer direkt in diesen geschrieben (bei einem MappedByteBuffer also
+     * ohne Kopie in den Heap), andernfalls blockweise kopiert.
+     * @param body Der Buffer. Gesendet werden die Bytes zwischen "position" und "limit"; die Position wird verändert.
+     */
+    public void send (ByteBuffer body) {
+        if (this.headersSent == true) {
+            System.out.println ("[WARNING]: headers have been sent already. Calling .send has no effect.");
+            return;
+        }
+
+        int length = body.remaining();
+        this.addHeader ("Content-Length", Integer.toString (length));
+        try {
+            if (length <= MAX_COALESCED_BODY_SIZE) {
+                ByteBuffer copy = BufferPool.getInstance().acquireHeap (length);
+                try {
+                    body.get (copy.array(), 0, length);
+                    this.writeStatusLineAndHeaders (copy.array(), 0, length);
+                } finally {
+                    BufferPool.getInstance().release (copy);
+                }
+            } else {
+                this.writeStatusLineAndHeaders (null, 0, 0);
+                this.flushNow ();
+                if (this.channel != null) {
+                    while (body.hasRemaining()) {
+                        this.channel.write (body);
+                    }
+                } else {
+                    ByteBuffer chunk = BufferPool.getInstance().acquireHeap (Math.min (COPY_CHUNK_SIZE, length));
+                    try {
+                        while (body.hasRemaining()) {
+                            int part = Math.min (chunk.capacity(), body.remaining());
+                            body.get (chunk.array(), 0, part);
+                            this.outputStream.write (chunk.array(), 0, part);
+                        }
+                    } finally {
+                        BufferPool.getInstance().release (chunk);
+                    }
+                }
+            }
+            this.outputStream.flush();
+        } catch (Exception e) {
+            e.printStackTrace();
         }
-        this.write (bytes);
     }
 
     /**
@@ -368,22 +919,63 @@ public class HttpResponse {
      * @return Dieses HttpResponse Objekt, damit method chaining verwendet werden kann.
      */
     public HttpResponse append (byte[] bytes) {
-        for (int index = 0; index < bytes.length; index += 1) {
-            this.bodyBuffer.add ((Byte) bytes [index]);
-        }
+        this.bodyBuffer.append (bytes);
         return this;
     }
 
     /**
-     * Hiermit werden alle Cookies dieser Antwort in den Stream geschrieben.
+     * Hiermit werden die Status-Zeile, alle Header und alle Set-Cookie-Header in einen Buffer kodiert.
+     * @param target Der Buffer, in den kodiert werden soll.
      */
-    private void writeCookies () {
-        this.cookies
-            .values()
-            .stream()
-            .forEach(cookie -> {
-                HttpResponse.this.writeHeader ("Set-Cookie: " + cookie.toString());
-            });
+    private void encodeStatusLineAndHeaders (DynamicByteBuffer target) {
+
+        // Zunächst die Status-Zeile.
+        target.append (this.statusLine).append (CRLF);
+
+        // Wenn es noch keinen Content-Type header gibt, dann soll dieser Hier gesetzt werden.
+        if (this.headers.contains ("Content-Type") == false) {
+            this.headers.add ("Content-Type", this.resolveContentTypeAndCharset ());
+        }
+
+        // Dann jeder Header (in der Reihenfolge, in der sie gesetzt wurden):
+        for (int index = 0; index < this.headers.size(); index += 1) {
+            target.appendAscii (this.headers.getName (index)).append (HEADER_SEPARATOR).appendAscii (this.headers.getValue (index)).append (CRLF);
+        }
+
+        // Dann die Set-Cookie-Header:
+        for (Cookie cookie : this.cookies.values()) {
+            target.append (SET_COOKIE).appendAscii (cookie.toString()).append (CRLF);
+        }
+
+        // Schließe den Header-Block mit einer leeren Zeile ab.
+        target.append (CRLF);
+    }
+
+    /**
+     * Hiermit werden Status-Zeile, Header und (optional) der Body mit einem einzigen Schreibaufruf (ohne Flush)
+     * in den Stream geschrieben.
+     * Hier wird der Wert von "headerSent" auf true gesetzt,
+     * um alle weiteren Schreib versuche eines Headers/Cookies zu unterbinden.
+     * @param body Der Body, der direkt hinter die Header kopiert werden soll, oder "null".
+     * @param offset Ab welchem Index der Body kopiert werden soll.
+     * @param length Die Anzahl an Bytes des Bodys.
+     * @throws java.io.IOException
+     */
+    private void writeStatusLineAndHeaders (byte[] body, int offset, int length) throws java.io.IOException {
+        // Der Kopf wird in einem Buffer aus dem Pool kodiert. Er wird nach dem Schreiben sofort zurückgegeben,
+        // da jeder Output-Stream (auch der des NIO-Transports) die Bytes bis zum Ende von "write" verarbeitet hat.
+        ByteBuffer pooled = BufferPool.getInstance().acquireHeap (512 + length);
+        try {
+            DynamicByteBuffer head = new DynamicByteBuffer (pooled.array());
+            this.encodeStatusLineAndHeaders (head);
+            if (body != null) {
+                head.append (body, offset, length);
+            }
+            head.writeTo (this.outputStream);
+        } finally {
+            BufferPool.getInstance().release (pooled);
+        }
+        this.headersSent = true;
     }
 
     /**
@@ -406,37 +998,178 @@ public class HttpResponse {
             return this;
         }
 
-        // Schriebe zunächst die Status-Zeile.
-        this.writeHeader (this.statusLine);
+        // Ein Surflet, das die Header selbst sendet, streamt (z. B. Server-Sent-Events).
+        // Deshalb wird hier (im Gegensatz zu "send") sofort geflushed.
+        try {
+            this.writeStatusLineAndHeaders (null, 0, 0);
+            this.flushNow ();
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
 
-        // Wenn es noch keinen Content-Type header gibt, dann soll dieser Hier gesetzt werden.
-        if (this.headers.containsKey("Content-Type") == false) {
-            this.headers.put("Content-Type", this.resolveContentTypeAndCharset ());
+        return this;
+    }
+
+    /**
+     * Hiermit wird die Antwort in den Streaming-Modus (Transfer-Encoding: chunked) versetzt und Status-Zeile und
+     * Header werden gesendet.
+     * Danach kann der Body (mit unbekannter Länge) mit "write" geschrieben werden. Die Bytes werden in einem
+     * begrenzten Buffer gesammelt und als Chunk gesendet, sobald er voll ist oder "flush" aufgerufen wird.
+     * Der Body wird mit "finish" (bzw. "send") beendet. Die Verbindung bleibt dabei (im Gegensatz zu einem Body ohne
+     * Content-Length) für weitere Anfragen offen.
+     * @return Dieses HttpResponse Objekt, damit method chaining verwendet werden kann.
+     */
+    public HttpResponse startChunked () {
+        if (this.headersSent == true) {
+            System.out.println ("[WARNING]: headers have been sent already. Calling .startChunked has no effect.");
+            return this;
         }
 
-        // Schreibe jeden Header:
-        this.headers.keySet().forEach(key -> {
-            String value = HttpResponse.this.headers.get (key);
-            HttpResponse.this.writeHeader (key + ": " + value);
-        });
+        this.headers.remove ("Content-Length");
+        this.addHeader ("Transfer-Encoding", "chunked");
+        this.chunked = true;
+        // Der Buffer kommt aus dem Pool und wird mit "finish" (bzw. "dispose") zurückgegeben.
+        this.pooledChunkBuffer = BufferPool.getInstance().acquireHeap (CHUNK_SIZE_PLACEHOLDER.length + CHUNK_BUFFER_SIZE + CRLF.length);
+        this.chunkBuffer = new DynamicByteBuffer (this.pooledChunkBuffer.array());
+        this.chunkBuffer.append (CHUNK_SIZE_PLACEHOLDER);
 
-        // Schreibe auch die Set-Cookie-Header:
-        this.writeCookies ();
+        // Die Header werden noch nicht geflushed. Sie gehen mit dem ersten Chunk (oder "flush") an den Client.
+        try {
+            this.writeStatusLineAndHeaders (null, 0, 0);
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+        return this;
+    }
 
-        // Schließe den Header-Block mit einer leeren Zeile ab.
-        this.writeHeader ("");
+    /**
+     * Hiermit werden beim Streamen in Chunks die bisher gesammelten Bytes sofort gesendet
+     * (z. B. nach jedem Event eines Server-Sent-Event-Streams).
+     * @return Dieses HttpResponse Objekt, damit method chaining verwendet werden kann.
+     */
+    public HttpResponse flush () {
+        if (this.chunked == false || this.finished == true) {
+            return this;
+        }
+        try {
+            this.writeBufferedChunk ();
+            this.flushNow ();
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+        return this;
+    }
+
+    /**
+     * Hiermit werden alle Bytes sofort gesendet, auch wenn die Verbindung die Antworten gerade sammelt
+     * (Pipelining, siehe PipelinedOutputStream). Dies ist nötig, wenn gestreamt wird oder am Output-Stream vorbei direkt
+     * in den Channel geschrieben wird.
+     * @throws IOException
+     */
+    private void flushNow () throws IOException {
+        if (this.outputStream instanceof PipelinedOutputStream) {
+            ((PipelinedOutputStream) this.outputStream).flushNow ();
+        } else {
+            this.outputStream.flush();
+        }
+    }
 
-        // Versuche die Bytes zu flushen.
-        // Hier wird der Wert von "headerSent" auf true gesetzt,
-        // um alle weiteren Schreib versuche eines Headers/Cookies zu unterbinden.
+    /**
+     * Hiermit wird das Streamen in Chunks beendet: Die restlichen Bytes und der abschließende Chunk der Länge 0
+     * werden gesendet. Wird die Antwort nicht in Chunks gestreamt (oder ist bereits beendet), passiert nichts.
+     */
+    public void finish () {
+        if (this.chunked == false || this.finished == true) {
+            return;
+        }
+        this.finished = true;
         try {
+            this.writeBufferedChunk ();
+            this.outputStream.write (LAST_CHUNK);
             this.outputStream.flush();
-            this.headersSent = true;
         } catch (Exception e) {
             e.printStackTrace();
         }
+        this.releaseChunkBuffer ();
+    }
+
+    /**
+     * Hiermit werden alle Buffer aus dem Pool zurückgegeben, die noch von der Antwort verwendet werden.
+     * Dies wird nach der Bearbeitung der Anfrage aufgerufen (siehe SurfletDispatcher), auch wenn das Surflet einen
+     * Fehler geworfen hat. Eine noch nicht beendete Antwort in Chunks kann danach nicht mehr geschrieben werden.
+     */
+    public void dispose () {
+        if (this.chunkBuffer != null) {
+            this.finished = true;
+            this.releaseChunkBuffer ();
+        }
+    }
 
-        return this;
+    private void releaseChunkBuffer () {
+        this.chunkBuffer = null;
+        BufferPool.getInstance().release (this.pooledChunkBuffer);
+        this.pooledChunkBuffer = null;
+    }
+
+    /**
+     * Hiermit werden Bytes beim Streamen in Chunks geschrieben.
+     * Passen sie noch in den Buffer, werden sie nur gesammelt. Andernfalls wird der Buffer als Chunk gesendet.
+     * Bytes, die alleine schon größer als der Buffer sind, werden ohne Kopie als eigener Chunk gesendet.
+     * @param bytes Das Array der rohen Bytes.
+     * @param offset Ab welchem Index geschrieben werden soll.
+     * @param length Die Anzahl an Bytes, die geschrieben werden sollen.
+     */
+    private void writeChunked (byte[] bytes, int offset, int length) {
+        if (this.finished == true) {
+            System.out.println ("[WARNING]: the chunked response has been finished already. Calling .write has no effect.");
+            return;
+        }
+        // Ein leerer Chunk würde den Body beenden.
+        if (length == 0) {
+            return;
+        }
+
+        try {
+            int buffered = this.chunkBuffer.size() - CHUNK_SIZE_PLACEHOLDER.length;
+            if (buffered + length > CHUNK_BUFFER_SIZE) {
+                this.writeBufferedChunk ();
+                this.outputStream.flush();
+            }
+
+            if (length > CHUNK_BUFFER_SIZE) {
+                this.outputStream.write ((Integer.toHexString (length) + "\r\n").getBytes (StandardCharsets.US_ASCII));
+                this.outputStream.write (bytes, offset, length);
+                this.outputStream.write (CRLF);
+                this.outputStream.flush();
+                return;
+            }
+
+            this.chunkBuffer.append (bytes, offset, length);
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Hiermit werden die gesammelten Bytes (falls vorhanden) als ein Chunk geschrieben (ohne Flush).
+     * Die Größen-Zeile wird dafür direkt vor die Bytes in den freigehaltenen Platz geschrieben.
+     * @throws IOException
+     */
+    private void writeBufferedChunk () throws IOException {
+        int buffered = this.chunkBuffer.size() - CHUNK_SIZE_PLACEHOLDER.length;
+        if (buffered == 0) {
+            return;
+        }
+
+        byte[] sizeLine = (Integer.toHexString (buffered) + "\r\n").getBytes (StandardCharsets.US_ASCII);
+        int start = CHUNK_SIZE_PLACEHOLDER.length - sizeLine.length;
+        this.chunkBuffer.append (CRLF);
+        byte[] array = this.chunkBuffer.array();
+        System.arraycopy (sizeLine, 0, array, start, sizeLine.length);
+        this.outputStream.write (array, start, this.chunkBuffer.size() - start);
+
+        this.chunkBuffer.clear();
+        this.chunkBuffer.append (CHUNK_SIZE_PLACEHOLDER);
     }
 
     /**
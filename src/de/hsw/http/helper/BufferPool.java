@@ -0,0 +1,372 @@
+package de.hsw.http.helper;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Ein Pool für ByteBuffer, die nur für kurze Zeit (z. B. zum Lesen, Kodieren oder Kopieren) benötigt werden.
+ * Statt für jede Anfrage neue Arrays zu erstellen, werden die Buffer nach der Verwendung mit "release" zurückgegeben
+ * und beim nächsten "acquire" wiederverwendet.
+ * Die Buffer sind in Größenklassen (Zweierpotenzen von MIN_BUFFER_SIZE bis MAX_BUFFER_SIZE) eingeteilt. Jeder Thread
+ * hat zunächst einen kleinen eigenen Cache, sodass die meisten Zugriffe ohne Synchronisation auskommen. Erst wenn
+ * dieser leer bzw. voll ist, wird der gemeinsame Pool verwendet.
+ * Es gibt zwei Arten von Buffern: Direkte Buffer ("acquire") für das Schreiben in Channels (die JVM muss sie nicht
+ * vorher kopieren) und Heap-Buffer ("acquireHeap") für Code, der mit dem Array arbeitet (Parser, Streams).
+ * ! Wichtig: Ein Buffer darf nach "release" nicht mehr verwendet und nicht zweimal zurückgegeben werden.
+ */
+public class BufferPool {
+
+    public static final int MIN_BUFFER_SIZE = 4 * 1024;
+    public static final int MAX_BUFFER_SIZE = 64 * 1024;
+    public static final long DEFAULT_MAX_POOLED_BYTES = 32 * 1024 * 1024;
+
+    // MIN_BUFFER_SIZE = 2^12, es gibt also die Klassen 4, 8, 16, 32 und 64 KB.
+    private static final int MIN_SHIFT = 12;
+    private static final int SIZE_CLASSES = 5;
+
+    // So viele Buffer jeder Klasse (und Art) behält ein Thread für sich.
+    private static final int THREAD_CACHE_SIZE = 4;
+
+    private static final int HEAP = 0;
+    private static final int DIRECT = 1;
+
+    // Der Pool ist ein Singleton, da sich alle Verbindungen (und Threads) die Buffer teilen.
+    private static class Holder {
+        private static final BufferPool INSTANCE = new BufferPool();
+    }
+    public static BufferPool getInstance () {
+        return Holder.INSTANCE;
+    }
+
+    // Der gemeinsame Pool: pro Art und Klasse eine Warteschlange.
+    private final Queue<ByteBuffer>[][] shared;
+    private final AtomicLong pooledBytes = new AtomicLong (0);
+    private volatile long maxPooledBytes = DEFAULT_MAX_POOLED_BYTES;
+
+    // Der Cache pro Thread. Er lohnt sich nur bei langlebigen Threads (siehe "setThreadCaching").
+    private final ThreadLocal<ThreadCache> threadCache = ThreadLocal.withInitial (ThreadCache::new);
+    private volatile boolean threadCaching = true;
+
+    // Die Metriken:
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final AtomicLong outstandingBytes = new AtomicLong (0);
+    private final LongAdder leaks = new LongAdder();
+
+    // Die Leak-Erkennung: Zu jedem ausgegebenen Buffer wird gemerkt, wo er angefordert wurde. Wird ein Buffer vom
+    // Garbage-Collector eingesammelt, ohne zurückgegeben worden zu sein, landet seine Referenz in der Queue.
+    private volatile boolean leakDetection = false;
+    private final ReferenceQueue<ByteBuffer> leakQueue = new ReferenceQueue<>();
+    private final Map<Integer, List<LeakTracker>> trackers = new HashMap<>();
+
+    @SuppressWarnings ("unchecked")
+    private BufferPool () {
+        this.shared = (Queue<ByteBuffer>[][]) new Queue<?> [2][SIZE_CLASSES];
+        for (int kind = 0; kind < 2; kind += 1) {
+            for (int sizeClass = 0; sizeClass < SIZE_CLASSES; sizeClass += 1) {
+                this.shared [kind][sizeClass] = new ConcurrentLinkedQueue<>();
+            }
+        }
+    }
+
+    /**
+     * Hiermit kann eingestellt werden, wie viele Bytes der gemeinsame Pool höchstens zurückbehält.
+     * Werden mehr Buffer zurückgegeben, werden sie dem Garbage-Collector überlassen.
+     * @param maxPooledBytes Die maximale Anzahl an Bytes (0 = es wird nur in den Caches der Threads gepoolt).
+     */
+    public void setMaxPooledBytes (long maxPooledBytes) {
+        this.maxPooledBytes = maxPooledBytes;
+    }
+
+    /**
+     * Hiermit kann der Cache pro Thread (de-)aktiviert werden.
+     * Er sollte nur mit einem festen Pool an Threads aktiviert werden: Wird für jede Verbindung (bzw. Anfrage) ein
+     * neuer Thread gestartet, gehen die Buffer im Cache mit dem Ende des Threads verloren.
+     * @param threadCaching "True", wenn jeder Thread einen eigenen Cache haben soll.
+     */
+    public void setThreadCaching (boolean threadCaching) {
+        this.threadCaching = threadCaching;
+    }
+
+    /**
+     * Hiermit kann die Leak-Erkennung (de-)aktiviert werden. Sie sollte nur beim Testen aktiviert werden, da für jeden
+     * Buffer der Stack-Trace der Anforderung gespeichert wird.
+     * Ein Buffer, der nie zurückgegeben wurde, wird gemeldet, sobald der Garbage-Collector ihn eingesammelt hat.
+     * Ebenso wird ein Buffer gemeldet, der zweimal (oder ohne ihn angefordert zu haben) zurückgegeben wird.
+     * @param leakDetection "True", wenn Leaks erkannt werden sollen.
+     */
+    public void setLeakDetection (boolean leakDetection) {
+        this.leakDetection = leakDetection;
+    }
+
+    /**
+     * Hiermit wird ein direkter Buffer angefordert (z. B. für das Schreiben in einen Channel).
+     * Buffer, die größer als MAX_BUFFER_SIZE sind, werden nicht gepoolt. Sie werden (damit sie keinen Direct Memory
+     * bis zur nächsten Garbage-Collection belegen) auf dem Heap erstellt.
+     * @param capacity Die minimale Größe des Buffers.
+     * @return Ein geleerter Buffer mit mindestens "capacity" Bytes.
+     */
+    public ByteBuffer acquire (int capacity) {
+        return this.acquire (DIRECT, capacity);
+    }
+
+    /**
+     * Hiermit wird ein Heap-Buffer angefordert. Mit "array" kann direkt auf sein Array zugegriffen werden.
+     * Buffer, die größer als MAX_BUFFER_SIZE sind, werden nicht gepoolt.
+     * @param capacity Die minimale Größe des Buffers.
+     * @return Ein geleerter Buffer mit mindestens "capacity" Bytes.
+     */
+    public ByteBuffer acquireHeap (int capacity) {
+        return this.acquire (HEAP, capacity);
+    }
+
+    private ByteBuffer acquire (int kind, int capacity) {
+        if (this.leakDetection) {
+            this.reportLeaks ();
+        }
+
+        int sizeClass = BufferPool.sizeClassOf (capacity);
+        ByteBuffer buffer = null;
+        if (sizeClass >= 0) {
+            if (this.threadCaching) {
+                buffer = this.threadCache.get().poll (kind, sizeClass);
+            }
+            if (buffer == null) {
+                buffer = this.shared [kind][sizeClass].poll();
+                if (buffer != null) {
+                    this.pooledBytes.addAndGet (-buffer.capacity());
+                }
+            }
+        }
+
+        if (buffer != null) {
+            this.hits.increment();
+        } else {
+            this.misses.increment();
+            if (sizeClass < 0) {
+                buffer = ByteBuffer.allocate (capacity);
+            } else {
+                int size = MIN_BUFFER_SIZE << sizeClass;
+                buffer = kind == DIRECT ? ByteBuffer.allocateDirect (size) : ByteBuffer.allocate (size);
+            }
+        }
+
+        this.outstandingBytes.addAndGet (buffer.capacity());
+        if (this.leakDetection) {
+            this.track (buffer);
+        }
+        return buffer;
+    }
+
+    /**
+     * Hiermit wird ein Buffer an den Pool zurückgegeben.
+     * @param buffer Der Buffer (er muss mit "acquire" bzw. "acquireHeap" angefordert worden sein, "null" wird ignoriert).
+     */
+    public void release (ByteBuffer buffer) {
+        if (buffer == null) {
+            return;
+        }
+        if (this.leakDetection && this.untrack (buffer) == false) {
+            System.out.println ("[WARNING]: a buffer was released twice or was not acquired from the pool.");
+            new Throwable ("Buffer released here").printStackTrace();
+            return;
+        }
+        this.outstandingBytes.addAndGet (-buffer.capacity());
+
+        // Nur Buffer mit der exakten Größe einer Klasse stammen aus dem Pool. Größere werden nicht zurückbehalten.
+        int sizeClass = BufferPool.sizeClassOf (buffer.capacity());
+        if (sizeClass < 0 || (MIN_BUFFER_SIZE << sizeClass) != buffer.capacity()) {
+            return;
+        }
+        int kind = buffer.isDirect() ? DIRECT : HEAP;
+        buffer.clear();
+
+        if (this.threadCaching && this.threadCache.get().offer (kind, sizeClass, buffer)) {
+            return;
+        }
+        if (this.pooledBytes.addAndGet (buffer.capacity()) <= this.maxPooledBytes) {
+            this.shared [kind][sizeClass].offer (buffer);
+        } else {
+            this.pooledBytes.addAndGet (-buffer.capacity());
+        }
+    }
+
+    /**
+     * Hiermit wird die Größenklasse zu einer Größe bestimmt.
+     * @param capacity Die Größe in Bytes.
+     * @return Die Klasse (0 = MIN_BUFFER_SIZE) oder -1, wenn die Größe nicht gepoolt wird.
+     */
+    private static int sizeClassOf (int capacity) {
+        if (capacity <= MIN_BUFFER_SIZE) {
+            return 0;
+        }
+        if (capacity > MAX_BUFFER_SIZE) {
+            return -1;
+        }
+        // Die nächste Zweierpotenz (aufgerundet), relativ zu MIN_BUFFER_SIZE.
+        return (32 - Integer.numberOfLeadingZeros (capacity - 1)) - MIN_SHIFT;
+    }
+
+    private void track (ByteBuffer buffer) {
+        LeakTracker tracker = new LeakTracker (buffer, this.leakQueue);
+        synchronized (this.trackers) {
+            this.trackers.computeIfAbsent (tracker.identity, key -> new ArrayList<>(1)).add (tracker);
+        }
+    }
+
+    private boolean untrack (ByteBuffer buffer) {
+        int identity = System.identityHashCode (buffer);
+        synchronized (this.trackers) {
+            List<LeakTracker> candidates = this.trackers.get (identity);
+            if (candidates == null) {
+                return false;
+            }
+            Iterator<LeakTracker> iterator = candidates.iterator();
+            while (iterator.hasNext()) {
+                LeakTracker tracker = iterator.next();
+                if (tracker.get() == buffer) {
+                    iterator.remove();
+                    tracker.clear();
+                    if (candidates.isEmpty()) {
+                        this.trackers.remove (identity);
+                    }
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Hiermit werden alle Buffer gemeldet, die der Garbage-Collector eingesammelt hat, ohne dass sie zurückgegeben
+     * wurden. Dies geschieht (mit aktivierter Leak-Erkennung) automatisch bei jedem "acquire".
+     * @return Die Anzahl der gefundenen Leaks.
+     */
+    public int reportLeaks () {
+        int found = 0;
+        Reference<? extends ByteBuffer> reference;
+        while ((reference = this.leakQueue.poll()) != null) {
+            LeakTracker tracker = (LeakTracker) reference;
+            synchronized (this.trackers) {
+                List<LeakTracker> candidates = this.trackers.get (tracker.identity);
+                if (candidates == null || candidates.remove (tracker) == false) {
+                    continue;
+                }
+                if (candidates.isEmpty()) {
+                    this.trackers.remove (tracker.identity);
+                }
+            }
+            found += 1;
+            this.leaks.increment();
+            this.outstandingBytes.addAndGet (-tracker.capacity);
+            System.out.println ("[WARNING]: a pooled buffer (" + tracker.capacity + " bytes) was never released.");
+            tracker.acquiredAt.printStackTrace();
+        }
+        return found;
+    }
+
+    /**
+     * Hiermit kann abgefragt werden, wie oft ein Buffer aus dem Pool wiederverwendet wurde.
+     * @return Die Anzahl an Treffern.
+     */
+    public long getHits () {
+        return this.hits.sum();
+    }
+
+    /**
+     * Hiermit kann abgefragt werden, wie oft ein neuer Buffer erstellt werden musste.
+     * @return Die Anzahl an Fehlschlägen.
+     */
+    public long getMisses () {
+        return this.misses.sum();
+    }
+
+    /**
+     * Hiermit kann abgefragt werden, wie viele Bytes gerade ausgegeben (und noch nicht zurückgegeben) sind.
+     * @return Die Anzahl an Bytes.
+     */
+    public long getOutstandingBytes () {
+        return this.outstandingBytes.get();
+    }
+
+    /**
+     * Hiermit kann abgefragt werden, wie viele Bytes im gemeinsamen Pool liegen (ohne die Caches der Threads).
+     * @return Die Anzahl an Bytes.
+     */
+    public long getPooledBytes () {
+        return this.pooledBytes.get();
+    }
+
+    /**
+     * Hiermit kann abgefragt werden, wie viele Leaks (mit aktivierter Leak-Erkennung) gefunden wurden.
+     * @return Die Anzahl an Leaks.
+     */
+    public long getLeaks () {
+        return this.leaks.sum();
+    }
+
+    @Override
+    public String toString () {
+        return "BufferPool {hits=" + this.getHits() + ";misses=" + this.getMisses() + ";outstandingBytes=" + this.getOutstandingBytes() + ";pooledBytes=" + this.getPooledBytes() + ";leaks=" + this.getLeaks() + "}";
+    }
+
+    /**
+     * Der Cache eines Threads: Pro Art und Klasse ein kleiner Stack an Buffern.
+     */
+    private static class ThreadCache {
+
+        private final ByteBuffer[][][] buffers = new ByteBuffer [2][SIZE_CLASSES][THREAD_CACHE_SIZE];
+        private final int[][] counts = new int [2][SIZE_CLASSES];
+
+        private ByteBuffer poll (int kind, int sizeClass) {
+            int count = this.counts [kind][sizeClass];
+            if (count == 0) {
+                return null;
+            }
+            count -= 1;
+            ByteBuffer buffer = this.buffers [kind][sizeClass][count];
+            this.buffers [kind][sizeClass][count] = null;
+            this.counts [kind][sizeClass] = count;
+            return buffer;
+        }
+
+        private boolean offer (int kind, int sizeClass, ByteBuffer buffer) {
+            int count = this.counts [kind][sizeClass];
+            if (count == THREAD_CACHE_SIZE) {
+                return false;
+            }
+            this.buffers [kind][sizeClass][count] = buffer;
+            this.counts [kind][sizeClass] = count + 1;
+            return true;
+        }
+    }
+
+    /**
+     * Eine schwache Referenz auf einen ausgegebenen Buffer. Sie hält den Buffer nicht am Leben und kann so
+     * feststellen, dass er ohne "release" eingesammelt wurde.
+     */
+    private static class LeakTracker extends WeakReference<ByteBuffer> {
+
+        private final int identity;
+        private final int capacity;
+        private final Throwable acquiredAt;
+
+        private LeakTracker (ByteBuffer buffer, ReferenceQueue<ByteBuffer> queue) {
+            super (buffer, queue);
+            this.identity = System.identityHashCode (buffer);
+            this.capacity = buffer.capacity();
+            this.acquiredAt = new Throwable ("Buffer acquired here");
+        }
+    }
+}
@@ -0,0 +1,143 @@
+package de.hsw.http.helper;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Ein Bereich eines Bodys, wie er mit dem Range-Header (RFC 7233) angefragt werden kann.
+ * Anfang und Ende sind dabei (wie im Header) inklusive.
+ */
+public class ByteRange {
+
+    // Mehr Bereiche werden nicht bedient (der Header wird dann ignoriert und der gesamte Body gesendet),
+    // damit ein Client nicht mit vielen kleinen Bereichen eine riesige Multipart-Antwort erzeugen kann.
+    // Überlappende Bereiche werden zusammengefasst (siehe "coalesce"), jedes Byte wird also höchstens einmal gesendet.
+    public static final int MAX_RANGES = 16;
+
+    private final long start;
+    private final long end;
+
+    public ByteRange (long start, long end) {
+        this.start = start;
+        this.end = end;
+    }
+
+    public long getStart () {
+        return this.start;
+    }
+    public long getEnd () {
+        return this.end;
+    }
+    public long getLength () {
+        return this.end - this.start + 1;
+    }
+
+    /**
+     * Hiermit wird der Wert für den Content-Range-Header dieses Bereiches erstellt.
+     * @param size Die Größe des gesamten Bodys.
+     * @return Der Wert, z. B. "bytes 0-99/1000".
+     */
+    public String toContentRange (long size) {
+        return "bytes " + this.start + "-" + this.end + "/" + size;
+    }
+
+    /**
+     * Hiermit kann ein Range-Header geparsed werden.
+     * Bereiche, die außerhalb des Bodys beginnen, werden verworfen. Bereiche, die über das Ende hinausgehen,
+     * werden gekürzt. Überlappende oder aneinandergrenzende Bereiche werden zusammengefasst (RFC 7233 Sec. 4.1 und 6.1).
+     * @param header Der Wert des Range-Headers, z. B. "bytes=0-99,200-" oder "bytes=-500".
+     * @param size Die Größe des Bodys.
+     * @return Die erfüllbaren Bereiche (leer, wenn keiner erfüllbar ist: 416) oder "null", wenn der Header ungültig
+     *         ist bzw. ignoriert werden soll (dann wird der gesamte Body gesendet).
+     */
+    public static List<ByteRange> parse (String header, long size) {
+        if (header == null) {
+            return null;
+        }
+        header = header.trim();
+        if (header.regionMatches (true, 0, "bytes=", 0, 6) == false) {
+            return null;
+        }
+
+        String[] specs = header.substring (6).split (",");
+        if (specs.length > MAX_RANGES) {
+            return null;
+        }
+
+        List<ByteRange> ranges = new ArrayList<>(specs.length);
+        for (String spec : specs) {
+            spec = spec.trim();
+            int dashIndex = spec.indexOf ('-');
+            if (dashIndex < 0) {
+                return null;
+            }
+
+            String first = spec.substring (0, dashIndex).trim();
+            String last = spec.substring (dashIndex + 1).trim();
+            long start;
+            long end;
+            try {
+                if (first.isEmpty()) {
+                    // "-500": die letzten 500 Bytes.
+                    long suffixLength = Long.parseLong (last);
+                    if (suffixLength < 0) {
+                        return null;
+                    }
+                    if (suffixLength == 0 || size == 0) {
+                        continue;
+                    }
+                    start = Math.max (0, size - suffixLength);
+                    end = size - 1;
+                } else {
+                    // "500-" bzw. "500-999":
+                    start = Long.parseLong (first);
+                    end = last.isEmpty() ? Long.MAX_VALUE : Long.parseLong (last);
+                    if (start < 0 || end < start) {
+                        return null;
+                    }
+                    if (start >= size) {
+                        continue;
+                    }
+                    end = Math.min (end, size - 1);
+                }
+            } catch (NumberFormatException e) {
+                return null;
+            }
+            ranges.add (new ByteRange (start, end));
+        }
+        return ByteRange.coalesce (ranges);
+    }
+
+    /**
+     * Hiermit werden überlappende bzw. aneinandergrenzende Bereiche zu einem zusammengefasst. Sonst könnte ein Client
+     * (z. B. mit "bytes=0-,0-,0-") dieselben Bytes mehrfach anfordern und so ein Vielfaches der Datei erhalten.
+     * Gibt es keine Überlappung, bleibt die angefragte Reihenfolge erhalten. Andernfalls sind die Bereiche danach
+     * nach ihrem Anfang sortiert.
+     * @param ranges Die Bereiche.
+     * @return Die zusammengefassten Bereiche.
+     */
+    private static List<ByteRange> coalesce (List<ByteRange> ranges) {
+        if (ranges.size() < 2) {
+            return ranges;
+        }
+
+        List<ByteRange> sorted = new ArrayList<>(ranges);
+        sorted.sort (Comparator.comparingLong (ByteRange::getStart));
+
+        List<ByteRange> merged = new ArrayList<>(sorted.size());
+        ByteRange current = sorted.get (0);
+        for (int index = 1; index < sorted.size(); index += 1) {
+            ByteRange next = sorted.get (index);
+            if (next.start <= current.end + 1) {
+                current = new ByteRange (current.start, Math.max (current.end, next.end));
+            } else {
+                merged.add (current);
+                current = next;
+            }
+        }
+        merged.add (current);
+
+        return merged.size() == ranges.size() ? ranges : merged;
+    }
+}
@@ -5,11 +5,22 @@ import java.util.List;
 
 public class ByteUtils {
 
+    /**
+     * Hiermit kann aus einem dynamischen Byte-Buffer ein Byte-Array erstellt werden.
+     * @param buffer Der dynamische Byte-Buffer.
+     * @return Das entsprechende Byte-Array.
+     */
+    public static byte[] byteArrayFromDynamicBuffer (DynamicByteBuffer buffer) {
+        return buffer.toByteArray();
+    }
+
     /**
      * Hiermit kann aus einer Dynamischen Byte-Liste, ein Byte-Array erstellt werden.
+     * ! Veraltet: Eine List<Byte> verpackt jedes Byte in ein eigenes Objekt. Stattdessen DynamicByteBuffer verwenden.
      * @param buffer Der dynamische Byte-Buffer.
      * @return Das entsprechende Byte-Array.
      */
+    @Deprecated
     public static byte[] byteArrayFromDynamicBuffer (List<Byte> buffer) {
         int bufferSize = buffer.size();
         Iterator<Byte> iterator = buffer.iterator();
@@ -35,10 +46,8 @@ public class ByteUtils {
 
         for (int index = 0; index < arrays.length; index += 1) {
             byte[] oneArray = arrays [index];
-            for (int arrayIndex = 0; arrayIndex < oneArray.length; arrayIndex += 1) {
-                result [pos] = oneArray [arrayIndex];
-                pos += 1;
-            }
+            System.arraycopy (oneArray, 0, result, pos, oneArray.length);
+            pos += oneArray.length;
         }
 
         return result;
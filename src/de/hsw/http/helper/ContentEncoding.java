@@ -0,0 +1,154 @@
+package de.hsw.http.helper;
+
+import java.util.Arrays;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * In dieser Enum sind alle Content-Encodings aufgelistet, mit denen der Server einen Body komprimieren kann.
+ */
+public enum ContentEncoding {
+
+    GZIP ("gzip"),
+    DEFLATE ("deflate"),
+    IDENTITY ("identity");
+
+    // Der feste Header eines gzip-Members (RFC 1952): Magic, Methode "deflate", keine Flags, keine Zeit, Unix.
+    private static final byte[] GZIP_HEADER = new byte[] {0x1f, (byte) 0x8b, 0x08, 0, 0, 0, 0, 0, 0, 0x03};
+    private static final int CHUNK_SIZE = 8 * 1024;
+
+    private final String stringValue;
+    ContentEncoding (String stringValue) {
+        this.stringValue = stringValue;
+    }
+    @Override public String toString () {
+        return this.stringValue;
+    }
+
+    /**
+     * Hiermit wird anhand des Accept-Encoding-Headers das beste unterstützte Encoding ausgewählt.
+     * Gewinnt das Encoding mit dem höchsten q-Wert, bei Gleichstand das zuerst übergebene.
+     * Ein q-Wert von 0 schließt ein Encoding aus, "*" steht für alle nicht genannten Encodings.
+     * @param acceptEncoding Der Wert des Headers, z. B. "gzip, deflate;q=0.5" (darf "null" sein).
+     * @param supported Die Encodings, die in Frage kommen (in der bevorzugten Reihenfolge).
+     * @return Das ausgewählte Encoding oder IDENTITY, wenn keines akzeptiert wird.
+     */
+    public static ContentEncoding negotiate (String acceptEncoding, ContentEncoding... supported) {
+        if (acceptEncoding == null || acceptEncoding.isEmpty()) {
+            return IDENTITY;
+        }
+
+        ContentEncoding best = IDENTITY;
+        float bestQuality = 0;
+        for (ContentEncoding encoding : supported) {
+            float quality = ContentEncoding.getQuality (acceptEncoding, encoding.stringValue);
+            if (quality > bestQuality) {
+                best = encoding;
+                bestQuality = quality;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Hiermit wird der q-Wert eines Encodings im Accept-Encoding-Header bestimmt.
+     * @param acceptEncoding Der Wert des Headers.
+     * @param name Der Name des Encodings.
+     * @return Der q-Wert (0 = nicht akzeptiert).
+     */
+    private static float getQuality (String acceptEncoding, String name) {
+        float wildcardQuality = 0;
+        for (String part : acceptEncoding.split (",")) {
+            int semicolonIndex = part.indexOf (';');
+            String coding = (semicolonIndex < 0 ? part : part.substring (0, semicolonIndex)).trim();
+            float quality = 1;
+            if (semicolonIndex >= 0) {
+                String parameter = part.substring (semicolonIndex + 1).trim();
+                if (parameter.regionMatches (true, 0, "q=", 0, 2)) {
+                    try {
+                        quality = Float.parseFloat (parameter.substring (2).trim());
+                    } catch (NumberFormatException e) {
+                        quality = 0;
+                    }
+                }
+            }
+
+            if (coding.equalsIgnoreCase (name)) {
+                return quality;
+            }
+            if (coding.equals ("*")) {
+                wildcardQuality = quality;
+            }
+        }
+        return wildcardQuality;
+    }
+
+    /**
+     * Hiermit wird geprüft, ob sich ein Content-Type für die Komprimierung eignet.
+     * Bilder, Videos, Archive usw. sind bereits komprimiert und würden nur CPU-Zeit kosten.
+     * @param contentType Der Content-Type (ohne Charset), z. B. "application/json".
+     * @return "True", wenn der Body komprimiert werden sollte. Andernfalls "False".
+     */
+    public static boolean isCompressible (String contentType) {
+        if (contentType == null) {
+            return false;
+        }
+        return contentType.startsWith ("text/")
+                || contentType.equals ("application/json")
+                || contentType.equals ("application/javascript")
+                || contentType.equals ("application/xml")
+                || contentType.equals ("image/svg+xml")
+                || contentType.endsWith ("+json")
+                || contentType.endsWith ("+xml");
+    }
+
+    /**
+     * Hiermit wird ein Body mit diesem Encoding komprimiert. Der Deflater kommt dabei aus dem DeflaterPool.
+     * @param bytes Das Array des Bodys.
+     * @param offset Ab welchem Index der Body beginnt.
+     * @param length Die Länge des Bodys.
+     * @return Der komprimierte Body (bei IDENTITY eine Kopie).
+     */
+    public byte[] encode (byte[] bytes, int offset, int length) {
+        if (this == IDENTITY) {
+            return Arrays.copyOfRange (bytes, offset, offset + length);
+        }
+
+        boolean gzip = this == GZIP;
+        DeflaterPool pool = DeflaterPool.getInstance();
+        Deflater deflater = pool.acquire (gzip);
+        try {
+            // Text lässt sich meist auf weniger als ein Viertel komprimieren.
+            DynamicByteBuffer buffer = new DynamicByteBuffer (Math.max (64, length / 4));
+            if (gzip) {
+                buffer.append (GZIP_HEADER);
+            }
+
+            deflater.setInput (bytes, offset, length);
+            deflater.finish();
+            byte[] chunk = new byte [CHUNK_SIZE];
+            while (deflater.finished() == false) {
+                int count = deflater.deflate (chunk);
+                buffer.append (chunk, 0, count);
+            }
+
+            // Der gzip-Trailer: CRC32 und Länge der unkomprimierten Daten (jeweils little-endian).
+            if (gzip) {
+                CRC32 crc = new CRC32();
+                crc.update (bytes, offset, length);
+                ContentEncoding.appendIntLittleEndian (buffer, (int) crc.getValue());
+                ContentEncoding.appendIntLittleEndian (buffer, length);
+            }
+            return buffer.toByteArray();
+        } finally {
+            pool.release (deflater, gzip);
+        }
+    }
+
+    private static void appendIntLittleEndian (DynamicByteBuffer buffer, int value) {
+        buffer.append ((byte) value);
+        buffer.append ((byte) (value >>> 8));
+        buffer.append ((byte) (value >>> 16));
+        buffer.append ((byte) (value >>> 24));
+    }
+}
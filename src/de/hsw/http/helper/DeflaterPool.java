@@ -0,0 +1,57 @@
+package de.hsw.http.helper;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.zip.Deflater;
+
+/**
+ * Ein Pool an Deflater-Instanzen.
+ * Ein Deflater belegt (außerhalb des Heaps) mehrere hundert Kilobyte an nativem Speicher, der erst mit "end" bzw.
+ * vom Garbage-Collector freigegeben wird. Einen Deflater pro Antwort zu erstellen ist daher teuer.
+ * Stattdessen werden sie nach der Verwendung zurückgesetzt und wiederverwendet.
+ * Es gibt getrennte Pools für rohe Deflate-Daten (für gzip, das eigene Header hat) und Daten im zlib-Format
+ * (für "Content-Encoding: deflate").
+ */
+public class DeflaterPool {
+
+    // So viele Deflater werden pro Format höchstens aufbewahrt. Weitere werden nach der Verwendung beendet.
+    private static final int MAX_POOLED = 64;
+
+    private static class Holder {
+        private static final DeflaterPool INSTANCE = new DeflaterPool();
+    }
+    public static DeflaterPool getInstance () {
+        return Holder.INSTANCE;
+    }
+
+    private final BlockingQueue<Deflater> rawDeflaters = new ArrayBlockingQueue<> (MAX_POOLED);
+    private final BlockingQueue<Deflater> zlibDeflaters = new ArrayBlockingQueue<> (MAX_POOLED);
+
+    private DeflaterPool () {}
+
+    /**
+     * Hiermit kann ein Deflater aus dem Pool geholt werden. Ist der Pool leer, wird ein neuer erstellt.
+     * @param nowrap "True" für rohe Deflate-Daten (ohne zlib-Header und -Prüfsumme), andernfalls "False".
+     * @return Der Deflater. Er muss nach der Verwendung mit "release" (mit demselben "nowrap") zurückgegeben werden.
+     */
+    public Deflater acquire (boolean nowrap) {
+        Deflater deflater = (nowrap ? this.rawDeflaters : this.zlibDeflaters).poll();
+        if (deflater == null) {
+            deflater = new Deflater (Deflater.DEFAULT_COMPRESSION, nowrap);
+        }
+        return deflater;
+    }
+
+    /**
+     * Hiermit wird ein Deflater zurückgesetzt und in den Pool zurückgegeben.
+     * Ist der Pool voll, wird der Deflater beendet und sein nativer Speicher sofort freigegeben.
+     * @param deflater Der Deflater.
+     * @param nowrap Wie beim Holen des Deflaters.
+     */
+    public void release (Deflater deflater, boolean nowrap) {
+        deflater.reset();
+        if ((nowrap ? this.rawDeflaters : this.zlibDeflaters).offer (deflater) == false) {
+            deflater.end();
+        }
+    }
+}
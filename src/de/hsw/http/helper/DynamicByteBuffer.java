@@ -0,0 +1,171 @@
+package de.hsw.http.helper;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+/**
+ * Ein dynamisch wachsender Buffer für primitive Bytes.
+ * Im Gegensatz zu einer List<Byte> wird hier nicht jedes Byte in ein eigenes Objekt verpackt.
+ * Gültig sind immer nur die ersten "size ()" Bytes des internen Arrays.
+ */
+public class DynamicByteBuffer {
+
+    private static final int DEFAULT_CAPACITY = 256;
+
+    private byte[] data;
+    private int size = 0;
+
+    public DynamicByteBuffer () {
+        this (DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Hiermit wird ein Buffer mit einer initialen Kapazität erstellt.
+     * @param initialCapacity Die Anzahl an Bytes, die ohne Vergrößerung in den Buffer passen.
+     */
+    public DynamicByteBuffer (int initialCapacity) {
+        this.data = new byte [Math.max (initialCapacity, 16)];
+    }
+
+    /**
+     * Hiermit wird ein (leerer) Buffer über ein vorhandenes Array erstellt, z. B. über einen Buffer aus dem BufferPool.
+     * Muss der Buffer wachsen, wird das Array kopiert und nicht weiter verändert.
+     * @param data Das Array, das als Speicher verwendet wird.
+     */
+    public DynamicByteBuffer (byte[] data) {
+        this.data = data;
+    }
+
+    /**
+     * Hiermit wird sichergestellt, dass noch mindestens "additional" Bytes in den Buffer passen.
+     * Falls nicht, wird der Buffer (mindestens) auf die doppelte Größe vergrößert.
+     * @param additional Die Anzahl an Bytes, die zusätzlich hineinpassen müssen.
+     */
+    public void ensureCapacity (int additional) {
+        int required = this.size + additional;
+        if (required < 0) {
+            throw new OutOfMemoryError ("Buffer too large");
+        }
+        if (required <= this.data.length) {
+            return;
+        }
+        int newCapacity = Math.max (required, this.data.length * 2);
+        if (newCapacity < 0) {
+            newCapacity = required;
+        }
+        this.data = Arrays.copyOf (this.data, newCapacity);
+    }
+
+    /**
+     * Hiermit kann ein einzelnes Byte angehängt werden.
+     * @param b Das Byte.
+     * @return Dieser Buffer, damit method chaining verwendet werden kann.
+     */
+    public DynamicByteBuffer append (byte b) {
+        this.ensureCapacity (1);
+        this.data [this.size] = b;
+        this.size += 1;
+        return this;
+    }
+
+    /**
+     * Hiermit kann ein Byte-Array angehängt werden.
+     * @param bytes Die Bytes.
+     * @return Dieser Buffer, damit method chaining verwendet werden kann.
+     */
+    public DynamicByteBuffer append (byte[] bytes) {
+        return this.append (bytes, 0, bytes.length);
+    }
+
+    /**
+     * Hiermit kann ein Ausschnitt eines Byte-Arrays angehängt werden.
+     * @param bytes Die Bytes.
+     * @param offset Ab welchem Index kopiert werden soll.
+     * @param length Die Anzahl an Bytes.
+     * @return Dieser Buffer, damit method chaining verwendet werden kann.
+     */
+    public DynamicByteBuffer append (byte[] bytes, int offset, int length) {
+        this.ensureCapacity (length);
+        System.arraycopy (bytes, offset, this.data, this.size, length);
+        this.size += length;
+        return this;
+    }
+
+    /**
+     * Hiermit kann ein String angehängt werden.
+     * @param value Der String.
+     * @param charset Das Encoding des Strings.
+     * @return Dieser Buffer, damit method chaining verwendet werden kann.
+     */
+    public DynamicByteBuffer append (String value, Charset charset) {
+        return this.append (value.getBytes (charset));
+    }
+
+    /**
+     * Hiermit kann ein US-ASCII String (z. B. ein Header) angehängt werden, ohne dass vorher ein eigenes
+     * Byte-Array für den String erstellt wird. Zeichen außerhalb von US-ASCII werden durch "?" ersetzt.
+     * @param value Der String.
+     * @return Dieser Buffer, damit method chaining verwendet werden kann.
+     */
+    public DynamicByteBuffer appendAscii (String value) {
+        int length = value.length();
+        this.ensureCapacity (length);
+        for (int index = 0; index < length; index += 1) {
+            char c = value.charAt (index);
+            this.data [this.size + index] = c < 0x80 ? (byte) c : (byte) '?';
+        }
+        this.size += length;
+        return this;
+    }
+
+    /**
+     * Hiermit kann die Anzahl an gültigen Bytes abgefragt werden.
+     * @return Die Anzahl an gültigen Bytes.
+     */
+    public int size () {
+        return this.size;
+    }
+
+    /**
+     * Hiermit kann geprüft werden, ob der Buffer leer ist.
+     * @return "True", wenn der Buffer leer ist. Andernfalls "False".
+     */
+    public boolean isEmpty () {
+        return this.size == 0;
+    }
+
+    /**
+     * Hiermit wird der Buffer geleert. Das interne Array bleibt erhalten und kann wiederverwendet werden.
+     */
+    public void clear () {
+        this.size = 0;
+    }
+
+    /**
+     * Hiermit kann direkt auf das interne Array zugegriffen werden (ohne Kopie).
+     * Gültig sind nur die ersten "size ()" Bytes.
+     * @return Das interne Array.
+     */
+    public byte[] array () {
+        return this.data;
+    }
+
+    /**
+     * Hiermit wird eine Kopie der gültigen Bytes erstellt.
+     * @return Die gültigen Bytes als eigenes Array.
+     */
+    public byte[] toByteArray () {
+        return Arrays.copyOf (this.data, this.size);
+    }
+
+    /**
+     * Hiermit werden die gültigen Bytes (ohne Kopie) in einen Stream geschrieben.
+     * @param outputStream Der Stream.
+     * @throws IOException
+     */
+    public void writeTo (OutputStream outputStream) throws IOException {
+        outputStream.write (this.data, 0, this.size);
+    }
+}
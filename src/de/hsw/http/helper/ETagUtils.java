@@ -0,0 +1,84 @@
+package de.hsw.http.helper;
+
+import de.hsw.http.HttpRequest;
+
+import java.util.zip.CRC32C;
+
+public class ETagUtils {
+
+    /**
+     * Hiermit wird ein schwaches ETag aus der Größe und dem Änderungszeitpunkt einer Datei erstellt.
+     * Die Datei muss dafür nicht gelesen werden.
+     * @param size Die Größe der Datei.
+     * @param lastModified Der Änderungszeitpunkt der Datei in Millisekunden seit 1970.
+     * @return Das ETag, z. B. W/"66c-17c5e1a3f20".
+     */
+    public static String fromFileAttributes (long size, long lastModified) {
+        return "W/\"" + Long.toHexString (size) + "-" + Long.toHexString (lastModified) + "\"";
+    }
+
+    /**
+     * Hiermit wird ein schwaches ETag aus einem Body erstellt.
+     * Als Hash wird CRC32C verwendet, da die JVM ihn mit speziellen CPU-Instruktionen berechnet.
+     * Zusammen mit der Länge ist er für die Erkennung unveränderter Antworten ausreichend.
+     * @param bytes Das Array des Bodys.
+     * @param offset Ab welchem Index der Body beginnt.
+     * @param length Die Länge des Bodys.
+     * @return Das ETag, z. B. W/"1a4-9f3e2c71".
+     */
+    public static String fromBody (byte[] bytes, int offset, int length) {
+        CRC32C crc = new CRC32C();
+        crc.update (bytes, offset, length);
+        return "W/\"" + Integer.toHexString (length) + "-" + Long.toHexString (crc.getValue()) + "\"";
+    }
+
+    /**
+     * Hiermit wird geprüft, ob ein ETag in dem Wert eines If-None-Match-Headers enthalten ist.
+     * Verglichen wird (wie für If-None-Match vorgeschrieben) schwach, das "W/" wird also ignoriert.
+     * @param ifNoneMatch Der Wert des Headers, z. B. "*" oder W/"a", "b".
+     * @param etag Das ETag der aktuellen Antwort.
+     * @return "True", wenn das ETag enthalten ist. Andernfalls "False".
+     */
+    public static boolean matchesAny (String ifNoneMatch, String etag) {
+        if (ifNoneMatch == null || etag == null) {
+            return false;
+        }
+        if (ifNoneMatch.trim().equals ("*")) {
+            return true;
+        }
+
+        String opaqueTag = ETagUtils.stripWeakness (etag);
+        for (String candidate : ifNoneMatch.split (",")) {
+            if (ETagUtils.stripWeakness (candidate.trim()).equals (opaqueTag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Hiermit wird geprüft, ob der Client die aktuelle Version bereits hat und ein "304 Not Modified" reicht.
+     * Gibt es einen If-None-Match-Header, entscheidet nur dieser. Andernfalls wird If-Modified-Since geprüft.
+     * @param request Die Http-Anfrage.
+     * @param etag Das ETag der aktuellen Version oder "null".
+     * @param lastModified Der Änderungszeitpunkt der aktuellen Version oder -1.
+     * @return "True", wenn die Version unverändert ist. Andernfalls "False".
+     */
+    public static boolean isNotModified (HttpRequest request, String etag, long lastModified) {
+        if (request.getMethod() != HttpRequest.RequestMethod.GET) {
+            return false;
+        }
+        if (request.hasHeader ("if-none-match")) {
+            return ETagUtils.matchesAny (request.getHeader ("if-none-match"), etag);
+        }
+        if (request.hasHeader ("if-modified-since") && lastModified >= 0) {
+            long since = HttpDateUtils.parse (request.getHeader ("if-modified-since"));
+            return since >= 0 && HttpDateUtils.truncateToSeconds (lastModified) <= since;
+        }
+        return false;
+    }
+
+    private static String stripWeakness (String etag) {
+        return etag.startsWith ("W/") ? etag.substring (2) : etag;
+    }
+}
@@ -0,0 +1,337 @@
+package de.hsw.http.helper;
+
+import de.hsw.errors.ConnectionClosedException;
+import de.hsw.errors.InvalidHttpRequestException;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Ein Stream über den Body einer Http-Anfrage.
+ * Er liest direkt aus dem Reader der Verbindung, aber nie über das Ende des Bodys hinaus.
+ * Die Bytes der nächsten Anfrage (Keep-Alive/Pipelining) bleiben so unberührt.
+ * Das Ende ergibt sich entweder aus dem Content-Length Header oder (bei "Transfer-Encoding: chunked") aus dem
+ * letzten Chunk. Chunks werden dabei erst dekodiert, wenn sie gelesen werden.
+ * Das Schließen des Streams schließt nicht die Verbindung.
+ */
+public class HttpBodyInputStream extends InputStream {
+
+    private static final int SKIP_BUFFER_SIZE = 8 * 1024;
+
+    // Eine Chunk-Größe hat höchstens so viele Hex-Ziffern (mehr passen nicht in einen "long").
+    private static final int MAX_CHUNK_SIZE_DIGITS = 16;
+
+    // So viele Trailer-Header (bzw. Bytes inklusive CRLF) dürfen nach dem letzten Chunk folgen.
+    public static final int MAX_TRAILER_LINES = 100;
+    public static final int MAX_TRAILER_SIZE = 64 * 1024;
+    private static final byte[] CONTINUE = "HTTP/1.1 100 Continue\r\n\r\n".getBytes (StandardCharsets.US_ASCII);
+
+    private final UnsafeHttpInputStreamReader reader;
+    private boolean chunked;
+    private long maxSize;
+
+    // Ohne Chunks: die restlichen Bytes des Bodys. Mit Chunks: die restlichen Bytes des aktuellen Chunks.
+    private long remaining;
+    private long consumed = 0;
+    private boolean finished;
+
+    // "True", wenn der Body nicht vollständig gelesen werden konnte (Verbindung geschlossen, ungültig, zu groß).
+    private boolean truncated = false;
+
+    // Ist hier ein Stream hinterlegt, wartet der Client auf ein "100 Continue", bevor er den Body sendet.
+    private OutputStream continueStream = null;
+
+    /**
+     * Hiermit wird ein Stream über einen Body erstellt.
+     * @param reader Der Reader der Verbindung.
+     * @param length Die Länge des Bodys laut Content-Length Header (wird bei "chunked" ignoriert).
+     * @param chunked "True", wenn der Body mit "Transfer-Encoding: chunked" gesendet wird.
+     * @param maxSize Wie groß ein Body mit Chunks höchstens werden darf (0 = unbegrenzt).
+     */
+    public HttpBodyInputStream (UnsafeHttpInputStreamReader reader, long length, boolean chunked, long maxSize) {
+        this.reader = reader;
+        this.reset (length, chunked, maxSize);
+    }
+
+    /**
+     * Hiermit wird der Stream für den Body der nächsten Anfrage derselben Verbindung zurückgesetzt.
+     * @param length Die Länge des Bodys laut Content-Length Header (wird bei "chunked" ignoriert).
+     * @param chunked "True", wenn der Body mit "Transfer-Encoding: chunked" gesendet wird.
+     * @param maxSize Wie groß ein Body mit Chunks höchstens werden darf (0 = unbegrenzt).
+     */
+    public void reset (long length, boolean chunked, long maxSize) {
+        this.chunked = chunked;
+        this.maxSize = maxSize;
+        this.remaining = chunked ? 0 : length;
+        this.consumed = 0;
+        this.finished = chunked == false && length <= 0;
+        this.truncated = false;
+        this.continueStream = null;
+    }
+
+    /**
+     * Hiermit kann geprüft werden, ob der Stream aus dem Reader liest (also zur selben Verbindung gehört).
+     * @param reader Der Reader einer Verbindung.
+     * @return "True", wenn es derselbe Reader ist. Andernfalls "False".
+     */
+    public boolean isAttachedTo (UnsafeHttpInputStreamReader reader) {
+        return this.reader == reader;
+    }
+
+    /**
+     * Hiermit wird festgelegt, dass der Client (Expect: 100-continue) erst ein "100 Continue" erwartet, bevor er
+     * den Body sendet. Es wird erst gesendet, wenn der Body tatsächlich gelesen wird. Lehnt das Surflet die Anfrage
+     * vorher ab, muss der Client den Body also gar nicht erst senden.
+     * @param outputStream Der Output-Stream der Verbindung.
+     */
+    public void expectContinue (OutputStream outputStream) {
+        if (this.finished == false) {
+            this.continueStream = outputStream;
+        }
+    }
+
+    @Override
+    public int read () throws IOException {
+        byte[] single = new byte [1];
+        int read = this.read (single, 0, 1);
+        return read < 0 ? -1 : (single [0] & 0xFF);
+    }
+
+    @Override
+    public int read (byte[] target, int offset, int length) throws IOException {
+        if (length == 0) {
+            return 0;
+        }
+        if (this.finished) {
+            return -1;
+        }
+        this.sendContinue ();
+
+        if (this.chunked && this.remaining == 0 && this.readChunkHeader () == false) {
+            return -1;
+        }
+
+        int read;
+        try {
+            read = this.reader.read (target, offset, (int) Math.min (length, this.remaining));
+        } catch (ConnectionClosedException e) {
+            read = -1;
+        }
+
+        // Die Verbindung wurde vor dem Ende des Bodys geschlossen.
+        if (read < 0) {
+            this.truncated = true;
+            this.finished = true;
+            return -1;
+        }
+
+        this.remaining -= read;
+        this.consumed += read;
+        if (this.remaining == 0) {
+            if (this.chunked) {
+                // Hinter den Daten eines Chunks folgt ein CRLF.
+                this.expectEmptyLine ();
+            } else {
+                this.finished = true;
+            }
+        }
+        return read;
+    }
+
+    /**
+     * Hiermit wird die Größen-Zeile des nächsten Chunks gelesen (z. B. "1a4;name=wert").
+     * Beim letzten Chunk (Größe 0) werden auch die (ignorierten) Trailer-Header gelesen.
+     * @return "True", wenn ein weiterer Chunk mit Daten folgt. "False", wenn der Body zu Ende ist.
+     * @throws IOException Wenn der Chunk ungültig ist oder der Body zu groß wird.
+     */
+    private boolean readChunkHeader () throws IOException {
+        long size = HttpBodyInputStream.parseChunkSize (this.readLine ());
+        if (size < 0) {
+            this.fail ();
+            throw new IOException ("Invalid chunk size");
+        }
+
+        if (size == 0) {
+            // Trailer-Header werden nicht ausgewertet, aber begrenzt.
+            int lines = 0;
+            long trailerSize = 0;
+            String trailer;
+            while ((trailer = this.readLine ()).isEmpty() == false) {
+                lines += 1;
+                trailerSize += trailer.length() + 2;
+                if (lines > MAX_TRAILER_LINES || trailerSize > MAX_TRAILER_SIZE) {
+                    this.fail ();
+                    throw new IOException ("Trailer too large");
+                }
+            }
+            this.finished = true;
+            return false;
+        }
+
+        if (this.maxSize > 0 && size > this.maxSize - this.consumed) {
+            this.fail ();
+            throw new IOException ("Request body too large");
+        }
+        this.remaining = size;
+        return true;
+    }
+
+    /**
+     * Hiermit wird die Größe aus der Größen-Zeile eines Chunks gelesen (RFC 7230 Sec. 4.1). Dies wird auch vom
+     * NIO-Transport beim Framing verwendet, damit beide das Ende des Bodys gleich bestimmen.
+     * Erlaubt sind nur Hex-Ziffern (kein Vorzeichen, kein "0x", höchstens MAX_CHUNK_SIZE_DIGITS), danach optional
+     * Leerzeichen und Chunk-Erweiterungen ab einem ";".
+     * @param line Die Zeile ohne CRLF.
+     * @return Die Größe oder -1, wenn die Zeile ungültig ist.
+     */
+    public static long parseChunkSize (String line) {
+        int end = line.indexOf (';');
+        if (end < 0) {
+            end = line.length();
+        }
+        while (end > 0 && (line.charAt (end - 1) == ' ' || line.charAt (end - 1) == '\t')) {
+            end -= 1;
+        }
+        if (end == 0 || end > MAX_CHUNK_SIZE_DIGITS) {
+            return -1;
+        }
+
+        long size = 0;
+        for (int index = 0; index < end; index += 1) {
+            char value = line.charAt (index);
+            int digit;
+            if (value >= '0' && value <= '9') {
+                digit = value - '0';
+            } else if (value >= 'a' && value <= 'f') {
+                digit = value - 'a' + 10;
+            } else if (value >= 'A' && value <= 'F') {
+                digit = value - 'A' + 10;
+            } else {
+                return -1;
+            }
+            size = (size << 4) | digit;
+        }
+        // Mit 16 Ziffern kann das oberste Bit gesetzt sein: Die Größe passt dann nicht in einen "long".
+        return size < 0 ? -1 : size;
+    }
+
+    private void expectEmptyLine () throws IOException {
+        if (this.readLine ().isEmpty() == false) {
+            this.fail ();
+            throw new IOException ("Missing CRLF after chunk");
+        }
+    }
+
+    private String readLine () throws IOException {
+        try {
+            return this.reader.readLineAsUSASCII ();
+        } catch (ConnectionClosedException | InvalidHttpRequestException e) {
+            this.fail ();
+            throw new IOException ("Invalid chunked body", e);
+        }
+    }
+
+    private void fail () {
+        this.truncated = true;
+        this.finished = true;
+    }
+
+    /**
+     * Hiermit wird (falls der Client darauf wartet) das "100 Continue" gesendet.
+     * @throws IOException
+     */
+    private void sendContinue () throws IOException {
+        if (this.continueStream == null) {
+            return;
+        }
+        OutputStream outputStream = this.continueStream;
+        this.continueStream = null;
+        outputStream.write (CONTINUE);
+        outputStream.flush();
+    }
+
+    @Override
+    public int available () {
+        if (this.finished) {
+            return 0;
+        }
+        return (int) Math.min (this.reader.available(), this.remaining);
+    }
+
+    @Override
+    public long skip (long count) throws IOException {
+        ByteBuffer skipBuffer = BufferPool.getInstance().acquireHeap ((int) Math.max (1, Math.min (SKIP_BUFFER_SIZE, count)));
+        long skipped = 0;
+        try {
+            while (skipped < count) {
+                int read = this.read (skipBuffer.array(), 0, (int) Math.min (skipBuffer.capacity(), count - skipped));
+                if (read < 0) {
+                    break;
+                }
+                skipped += read;
+            }
+        } finally {
+            BufferPool.getInstance().release (skipBuffer);
+        }
+        return skipped;
+    }
+
+    /**
+     * Hiermit kann abgefragt werden, wie viele Bytes des Bodys noch nicht gelesen wurden.
+     * @return Die Anzahl an Bytes oder -1, wenn dies (bei Chunks) nicht bekannt ist.
+     */
+    public long getRemaining () {
+        if (this.finished) {
+            return 0;
+        }
+        return this.chunked ? -1 : this.remaining;
+    }
+
+    /**
+     * Hiermit wird der restliche Body übersprungen, damit die nächste Anfrage der Verbindung gelesen werden kann.
+     * Ist der Rest größer als "maxBytes", wird abgebrochen: Die Verbindung sollte dann geschlossen werden,
+     * statt (z. B. bei einem abgelehnten Upload) hunderte Megabyte nur zu verwerfen.
+     * Wartet der Client noch auf ein "100 Continue", hat er den Body nie gesendet. Auch dann muss die Verbindung
+     * geschlossen werden, da unklar ist, ob er ihn nicht doch noch sendet.
+     * @param maxBytes Wie viele Bytes höchstens übersprungen werden.
+     * @return "True", wenn der Body vollständig gelesen ist und die Verbindung weiter verwendet werden kann.
+     */
+    public boolean drain (long maxBytes) {
+        if (this.finished) {
+            return this.truncated == false;
+        }
+        if (this.continueStream != null) {
+            return false;
+        }
+        if (this.chunked == false && this.remaining > maxBytes) {
+            return false;
+        }
+
+        try {
+            this.skip (maxBytes);
+            // Bei Chunks steht das Ende erst fest, wenn auch die nächste Größen-Zeile gelesen wurde.
+            if (this.finished == false && this.read () >= 0) {
+                return false;
+            }
+        } catch (IOException e) {
+            return false;
+        }
+        return this.finished && this.truncated == false;
+    }
+
+    /**
+     * Hiermit kann geprüft werden, ob der Body nicht vollständig gelesen werden konnte.
+     * @return "True", wenn der Body unvollständig ist. Andernfalls "False".
+     */
+    public boolean isTruncated () {
+        return this.truncated;
+    }
+
+    @Override
+    public void close () {
+        // Der Stream gehört zur Verbindung und wird daher nicht geschlossen.
+    }
+}
@@ -0,0 +1,47 @@
+package de.hsw.http.helper;
+
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+
+public class HttpDateUtils {
+
+    // Das Format, in dem Http Zeitpunkte überträgt, z. B. "Sun, 06 Nov 1994 08:49:37 GMT" (RFC 7231, Sec. 7.1.1.1).
+    // Im Gegensatz zum SimpleDateFormat ist der DateTimeFormatter thread-safe und kann geteilt werden.
+    private static final DateTimeFormatter FORMATTER = DateTimeFormatter.RFC_1123_DATE_TIME.withZone (ZoneOffset.UTC);
+
+    /**
+     * Hiermit wird ein Zeitpunkt in das Http-Format gebracht.
+     * @param millis Der Zeitpunkt in Millisekunden seit 1970.
+     * @return Der Zeitpunkt im Http-Format (auf Sekunden abgerundet).
+     */
+    public static String format (long millis) {
+        return FORMATTER.format (Instant.ofEpochMilli (millis));
+    }
+
+    /**
+     * Hiermit wird ein Zeitpunkt im Http-Format gelesen.
+     * @param value Der Zeitpunkt im Http-Format.
+     * @return Der Zeitpunkt in Millisekunden seit 1970 oder -1, wenn er nicht gelesen werden konnte.
+     */
+    public static long parse (String value) {
+        if (value == null) {
+            return -1;
+        }
+        try {
+            return Instant.from (FORMATTER.parse (value.trim())).toEpochMilli();
+        } catch (DateTimeParseException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Hiermit wird ein Zeitpunkt auf ganze Sekunden abgerundet, da Http keine genaueren Zeitpunkte überträgt.
+     * @param millis Der Zeitpunkt in Millisekunden seit 1970.
+     * @return Der abgerundete Zeitpunkt.
+     */
+    public static long truncateToSeconds (long millis) {
+        return millis - Math.floorMod (millis, 1000L);
+    }
+}
@@ -0,0 +1,100 @@
+package de.hsw.http.helper;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Eine Tabelle der häufigsten Header-Namen (klein geschrieben).
+ * Beim Parsen einer Anfrage wird der Name eines Headers hier direkt aus den Bytes nachgeschlagen. Für bekannte Header
+ * entsteht so kein neuer String (und kein "toLowerCase"), sondern es wird immer dieselbe Instanz verwendet.
+ * Die Tabelle ist ein perfekter Hash: Die Hash-Funktion wird beim Laden der Klasse so gewählt, dass jeder bekannte Name
+ * einen eigenen Platz bekommt. Ein Nachschlagen ist also ein Hash und höchstens ein Vergleich.
+ */
+public class HttpHeaderNames {
+
+    // Die bekannten Header: Alles, was Browser typischerweise senden und was der Server selbst auswertet.
+    private static final String[] KNOWN_NAMES = new String[] {
+        "host", "connection", "keep-alive", "user-agent", "accept", "accept-encoding", "accept-language",
+        "accept-charset", "cache-control", "pragma", "cookie", "referer", "origin", "content-type", "content-length",
+        "content-encoding", "transfer-encoding", "te", "expect", "range", "if-range", "if-match", "if-none-match",
+        "if-modified-since", "if-unmodified-since", "authorization", "upgrade", "upgrade-insecure-requests", "dnt",
+        "priority", "via", "forwarded", "x-forwarded-for", "x-forwarded-proto", "x-forwarded-host", "x-requested-with",
+        "sec-fetch-site", "sec-fetch-mode", "sec-fetch-user", "sec-fetch-dest", "sec-ch-ua", "sec-ch-ua-mobile",
+        "sec-ch-ua-platform", "sec-gpc", "sec-websocket-key", "sec-websocket-version", "sec-websocket-extensions",
+        "sec-websocket-protocol", "last-event-id"
+    };
+
+    private static final int TABLE_SIZE = 256;
+    private static final int MASK = TABLE_SIZE - 1;
+
+    private static final String[] TABLE_NAMES = new String [TABLE_SIZE];
+    private static final byte[][] TABLE_BYTES = new byte [TABLE_SIZE][];
+    private static final int SEED;
+
+    static {
+        // Suche den ersten Seed, bei dem es keine Kollision gibt.
+        int seed = 0;
+        while (HttpHeaderNames.fill (seed) == false) {
+            seed += 1;
+        }
+        SEED = seed;
+    }
+
+    private static boolean fill (int seed) {
+        Arrays.fill (TABLE_NAMES, null);
+        Arrays.fill (TABLE_BYTES, null);
+        for (String name : KNOWN_NAMES) {
+            byte[] bytes = name.getBytes (StandardCharsets.US_ASCII);
+            int slot = HttpHeaderNames.hash (seed, bytes, 0, bytes.length);
+            if (TABLE_NAMES [slot] != null) {
+                return false;
+            }
+            TABLE_NAMES [slot] = name.intern();
+            TABLE_BYTES [slot] = bytes;
+        }
+        return true;
+    }
+
+    private static int hash (int seed, byte[] bytes, int offset, int length) {
+        int hash = seed;
+        for (int index = offset; index < offset + length; index += 1) {
+            hash = hash * 31 + HttpHeaderNames.toLowerCase (bytes [index]);
+        }
+        hash ^= hash >>> 15;
+        hash *= 0x2c1b3c6d;
+        hash ^= hash >>> 12;
+        return hash & MASK;
+    }
+
+    private static byte toLowerCase (byte value) {
+        return (value >= 'A' && value <= 'Z') ? (byte) (value + ('a' - 'A')) : value;
+    }
+
+    /**
+     * Hiermit wird der (klein geschriebene) Name eines Headers aus den Bytes einer Anfrage bestimmt.
+     * @param bytes Das Array mit dem Namen.
+     * @param offset Ab welchem Index der Name beginnt.
+     * @param length Die Länge des Namens.
+     * @return Bei bekannten Headern die immer gleiche String-Instanz, andernfalls ein neuer String.
+     */
+    public static String lookup (byte[] bytes, int offset, int length) {
+        int slot = HttpHeaderNames.hash (SEED, bytes, offset, length);
+        byte[] candidate = TABLE_BYTES [slot];
+        if (candidate != null && candidate.length == length) {
+            int index = 0;
+            while (index < length && HttpHeaderNames.toLowerCase (bytes [offset + index]) == candidate [index]) {
+                index += 1;
+            }
+            if (index == length) {
+                return TABLE_NAMES [slot];
+            }
+        }
+
+        // Ein unbekannter Header: Nur hier wird ein neuer String erstellt.
+        byte[] lowerCase = new byte [length];
+        for (int index = 0; index < length; index += 1) {
+            lowerCase [index] = HttpHeaderNames.toLowerCase (bytes [offset + index]);
+        }
+        return new String (lowerCase, StandardCharsets.US_ASCII);
+    }
+}
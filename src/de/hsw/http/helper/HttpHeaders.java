@@ -0,0 +1,366 @@
+package de.hsw.http.helper;
+
+import de.hsw.errors.InvalidHttpRequestException;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Die Header einer Http-Anfrage bzw. -Antwort.
+ * Statt einer Map werden die Header flach in parallelen Arrays gehalten: Eine Nachricht hat selten mehr als 20 Header,
+ * eine lineare Suche ist damit schneller als das Hashen und es entstehen keine Einträge und keine Tabelle.
+ * Die Namen werden ohne Beachtung der Groß-/Kleinschreibung verglichen (RFC 7230 Sec. 3.2), ein Header kann mehrfach
+ * vorkommen (z. B. mehrere "Cookie"- oder "Accept"-Zeilen).
+ * Beim Parsen einer Anfrage sind die Namen klein geschrieben und bei bekannten Headern immer dieselbe Instanz
+ * (siehe HttpHeaderNames). Die Werte werden erst zu Strings, wenn sie tatsächlich gelesen werden: Bis dahin
+ * sind sie nur Positionen in den Bytes des Header-Blocks.
+ * Mit "clear" können die Arrays für die nächste Nachricht (Keep-Alive) wiederverwendet werden.
+ */
+public class HttpHeaders {
+
+    private static final int DEFAULT_CAPACITY = 16;
+
+    // Die Bytes des Header-Blocks, auf die sich die Positionen der Werte beziehen.
+    private byte[] source = null;
+
+    private String[] names = new String [DEFAULT_CAPACITY];
+
+    // Ein Hash jedes Namens (ohne Beachtung der Groß-/Kleinschreibung). Beim Suchen wird nur dieses Array durchlaufen,
+    // die Namen selbst werden erst bei gleichem Hash verglichen.
+    private int[] nameHashes = new int [DEFAULT_CAPACITY];
+    private String[] values = new String [DEFAULT_CAPACITY];
+    private int[] valueOffsets = new int [DEFAULT_CAPACITY];
+    private int[] valueLengths = new int [DEFAULT_CAPACITY];
+    private int count = 0;
+
+    /**
+     * Hiermit werden die Header aus den Bytes eines Header-Blocks gelesen.
+     * @param block Die Bytes (werden nicht kopiert und dürfen danach nicht mehr verändert werden).
+     * @param offset Ab welchem Index die erste Header-Zeile beginnt.
+     * @param end Bis zu welchem Index (exklusive) gelesen wird.
+     * @return Die Header.
+     * @throws InvalidHttpRequestException Wenn ein Header-Name ungültig ist (siehe "parseFrom").
+     */
+    public static HttpHeaders parse (byte[] block, int offset, int end) throws InvalidHttpRequestException {
+        HttpHeaders headers = new HttpHeaders ();
+        headers.parseFrom (block, offset, end);
+        return headers;
+    }
+
+    /**
+     * Hiermit werden alle Header entfernt und neu aus den Bytes eines Header-Blocks gelesen.
+     * Jede Zeile hat die Form "<Name>: <Wert>" und endet mit CRLF, der Block endet mit einer leeren Zeile.
+     * Zeilen ohne Doppelpunkt werden verworfen. Leerzeichen vor dem Doppelpunkt und Header über mehrere Zeilen
+     * (eine Zeile beginnt mit einem Leerzeichen) sind nicht erlaubt (RFC 7230 Sec. 3.2.4): Andere Server könnten sie
+     * anders lesen (z. B. "Transfer-Encoding : chunked" ignorieren), die Anfrage wird daher abgelehnt.
+     * @param block Die Bytes (werden nicht kopiert und dürfen danach nicht mehr verändert werden).
+     * @param offset Ab welchem Index die erste Header-Zeile beginnt.
+     * @param end Bis zu welchem Index (exklusive) gelesen wird.
+     * @throws InvalidHttpRequestException Wenn ein Header-Name leer ist, vor dem Doppelpunkt ein Leerzeichen steht
+     * oder eine Zeile mit einem Leerzeichen beginnt.
+     */
+    public void parseFrom (byte[] block, int offset, int end) throws InvalidHttpRequestException {
+        this.clear ();
+        this.source = block;
+
+        int lineStart = offset;
+        while (lineStart < end) {
+            int lineEnd = HttpHeaders.indexOfCRLF (block, lineStart, end);
+            if (lineEnd < 0) {
+                lineEnd = end;
+            }
+            if (lineEnd == lineStart) {
+                break;
+            }
+            this.parseLine (block, lineStart, lineEnd);
+            lineStart = lineEnd + 2;
+        }
+    }
+
+    private static int indexOfCRLF (byte[] block, int from, int end) {
+        for (int index = from; index + 1 < end; index += 1) {
+            if (block [index] == '\r' && block [index + 1] == '\n') {
+                return index;
+            }
+        }
+        return -1;
+    }
+
+    private static boolean isWhitespace (byte value) {
+        return value == ' ' || value == '\t';
+    }
+
+    private void parseLine (byte[] block, int start, int end) throws InvalidHttpRequestException {
+        // Eine Zeile, die mit einem Leerzeichen beginnt, würde den Wert des vorherigen Headers fortsetzen.
+        if (HttpHeaders.isWhitespace (block [start])) {
+            throw new InvalidHttpRequestException ("Folded header line");
+        }
+
+        int colonIndex = start;
+        while (colonIndex < end && block [colonIndex] != ':') {
+            colonIndex += 1;
+        }
+        if (colonIndex == end) {
+            System.out.println("[ERROR]: The Header Line \"" + new String (block, start, end - start, StandardCharsets.US_ASCII) + "\" is malformatted and is discarded");
+            return;
+        }
+
+        // Der Name muss direkt vor dem Doppelpunkt enden. Nur Leerzeichen um den Wert werden entfernt.
+        int nameStart = start;
+        int nameEnd = colonIndex;
+        if (nameStart == nameEnd || HttpHeaders.isWhitespace (block [nameEnd - 1])) {
+            throw new InvalidHttpRequestException ("Invalid header name");
+        }
+        int valueStart = colonIndex + 1;
+        int valueEnd = end;
+        while (valueStart < valueEnd && HttpHeaders.isWhitespace (block [valueStart])) {
+            valueStart += 1;
+        }
+        while (valueEnd > valueStart && HttpHeaders.isWhitespace (block [valueEnd - 1])) {
+            valueEnd -= 1;
+        }
+
+        this.ensureCapacity ();
+        this.names [this.count] = HttpHeaderNames.lookup (block, nameStart, nameEnd - nameStart);
+        this.nameHashes [this.count] = HttpHeaders.hashIgnoreCase (this.names [this.count]);
+        this.values [this.count] = null;
+        this.valueOffsets [this.count] = valueStart;
+        this.valueLengths [this.count] = valueEnd - valueStart;
+        this.count += 1;
+    }
+
+    private void ensureCapacity () {
+        if (this.count < this.names.length) {
+            return;
+        }
+        int capacity = this.names.length * 2;
+        this.names = Arrays.copyOf (this.names, capacity);
+        this.nameHashes = Arrays.copyOf (this.nameHashes, capacity);
+        this.values = Arrays.copyOf (this.values, capacity);
+        this.valueOffsets = Arrays.copyOf (this.valueOffsets, capacity);
+        this.valueLengths = Arrays.copyOf (this.valueLengths, capacity);
+    }
+
+    /**
+     * Hiermit werden alle Header entfernt. Die Arrays bleiben erhalten und werden für die nächsten Header verwendet.
+     */
+    public void clear () {
+        Arrays.fill (this.names, 0, this.count, null);
+        Arrays.fill (this.values, 0, this.count, null);
+        this.source = null;
+        this.count = 0;
+    }
+
+    /**
+     * Hiermit wird ein Header hinzugefügt. Gibt es bereits Header mit diesem Namen, bleiben sie erhalten.
+     * @param name Der Name des Headers (wird so gespeichert, wie er übergeben wird).
+     * @param value Der Wert des Headers.
+     * @return Diese Header, damit method chaining verwendet werden kann.
+     */
+    public HttpHeaders add (String name, String value) {
+        this.ensureCapacity ();
+        this.names [this.count] = name;
+        this.nameHashes [this.count] = HttpHeaders.hashIgnoreCase (name);
+        this.values [this.count] = String.valueOf (value);
+        this.count += 1;
+        return this;
+    }
+
+    /**
+     * Hiermit wird ein Header gesetzt. Alle bisherigen Header mit diesem Namen werden ersetzt.
+     * @param name Der Name des Headers.
+     * @param value Der Wert des Headers.
+     * @return Diese Header, damit method chaining verwendet werden kann.
+     */
+    public HttpHeaders set (String name, String value) {
+        int hash = HttpHeaders.hashIgnoreCase (name);
+        int index = this.indexOf (name, hash, 0);
+        if (index < 0) {
+            return this.add (name, value);
+        }
+
+        // Der erste Header behält seine Position (und damit die Reihenfolge beim Senden), alle weiteren werden entfernt.
+        this.names [index] = name;
+        this.values [index] = String.valueOf (value);
+        int next;
+        while ((next = this.indexOf (name, hash, index + 1)) >= 0) {
+            this.removeAt (next);
+        }
+        return this;
+    }
+
+    /**
+     * Hiermit werden alle Header mit dem Namen entfernt.
+     * @param name Der Name des Headers.
+     * @return "True", wenn mindestens ein Header entfernt wurde. Andernfalls "False".
+     */
+    public boolean remove (String name) {
+        int hash = HttpHeaders.hashIgnoreCase (name);
+        boolean removed = false;
+        int index;
+        while ((index = this.indexOf (name, hash, 0)) >= 0) {
+            this.removeAt (index);
+            removed = true;
+        }
+        return removed;
+    }
+
+    private void removeAt (int index) {
+        int moved = this.count - index - 1;
+        System.arraycopy (this.names, index + 1, this.names, index, moved);
+        System.arraycopy (this.nameHashes, index + 1, this.nameHashes, index, moved);
+        System.arraycopy (this.values, index + 1, this.values, index, moved);
+        System.arraycopy (this.valueOffsets, index + 1, this.valueOffsets, index, moved);
+        System.arraycopy (this.valueLengths, index + 1, this.valueLengths, index, moved);
+        this.count -= 1;
+        this.names [this.count] = null;
+        this.values [this.count] = null;
+    }
+
+    /**
+     * Hiermit wird der Index des ersten Headers mit dem Namen (ab "from") gesucht.
+     * @param name Der Name des Headers (Groß-/Kleinschreibung ist egal).
+     * @param hash Der Hash des Namens (siehe "hashIgnoreCase").
+     * @param from Ab welchem Index gesucht wird.
+     * @return Der Index oder -1.
+     */
+    private int indexOf (String name, int hash, int from) {
+        for (int index = from; index < this.count; index += 1) {
+            if (this.nameHashes [index] != hash) {
+                continue;
+            }
+            // Bei bekannten Headern ist der gesuchte Name meist ein String-Literal, also dieselbe Instanz.
+            String candidate = this.names [index];
+            if (candidate == name || HttpHeaders.equalsIgnoreCaseAscii (candidate, name)) {
+                return index;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Hiermit wird ein Hash über einen Namen berechnet, der die Groß-/Kleinschreibung nicht beachtet.
+     * Damit das Hinzufügen und Suchen nicht jedes Mal den gesamten Namen durchläuft, gehen nur die Länge, das erste und
+     * die letzten beiden Zeichen ein. Das unterscheidet die üblichen Header fast immer, bei gleichem Hash werden die
+     * Namen ohnehin noch verglichen.
+     * @param name Der Name.
+     * @return Der Hash.
+     */
+    private static int hashIgnoreCase (String name) {
+        int length = name.length();
+        if (length == 0) {
+            return 0;
+        }
+        // "| 0x20" macht aus A-Z a-z. Andere Zeichen können sich dabei gleichen, was nur eine Kollision ist.
+        return (length << 24)
+                ^ ((name.charAt (0) | 0x20) << 16)
+                ^ ((name.charAt (length - 1) | 0x20) << 8)
+                ^ (name.charAt (Math.max (0, length - 2)) | 0x20);
+    }
+
+    /**
+     * Hiermit werden zwei Header-Namen ohne Beachtung der Groß-/Kleinschreibung verglichen.
+     * Header-Namen bestehen nur aus ASCII-Zeichen, daher reicht (anders als bei "String.equalsIgnoreCase")
+     * der Vergleich von a-z und A-Z.
+     */
+    private static boolean equalsIgnoreCaseAscii (String first, String second) {
+        int length = first.length();
+        if (length != second.length()) {
+            return false;
+        }
+        for (int index = 0; index < length; index += 1) {
+            char a = first.charAt (index);
+            char b = second.charAt (index);
+            if (a != b) {
+                if (a >= 'A' && a <= 'Z') {
+                    a += 'a' - 'A';
+                }
+                if (b >= 'A' && b <= 'Z') {
+                    b += 'a' - 'A';
+                }
+                if (a != b) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Hier kann geprüft werden, ob es einen Header mit dem Namen gibt.
+     * @param name Der Name des Headers.
+     * @return "True", wenn es den Header gibt. Andernfalls "False".
+     */
+    public boolean contains (String name) {
+        return this.indexOf (name, HttpHeaders.hashIgnoreCase (name), 0) >= 0;
+    }
+
+    /**
+     * Hiermit kann der Wert eines Headers gelesen werden. Erst hier wird aus den Bytes ein String.
+     * Gibt es den Header mehrfach, werden die Werte (wie in RFC 7230 Sec. 3.2.2) mit ", " verbunden,
+     * bei "Cookie" (wie in RFC 6265 Sec. 5.4) mit "; ".
+     * @param name Der Name des Headers.
+     * @return Der Wert oder "null", wenn es den Header nicht gibt.
+     */
+    public String get (String name) {
+        int hash = HttpHeaders.hashIgnoreCase (name);
+        int index = this.indexOf (name, hash, 0);
+        if (index < 0) {
+            return null;
+        }
+        int next = this.indexOf (name, hash, index + 1);
+        if (next < 0) {
+            return this.getValue (index);
+        }
+
+        String separator = HttpHeaders.equalsIgnoreCaseAscii (name, "cookie") ? "; " : ", ";
+        StringBuilder combined = new StringBuilder (this.getValue (index));
+        while (next >= 0) {
+            combined.append (separator).append (this.getValue (next));
+            next = this.indexOf (name, hash, next + 1);
+        }
+        return combined.toString();
+    }
+    public String getOrDefault (String name, String defaultValue) {
+        String value = this.get (name);
+        return value == null ? defaultValue : value;
+    }
+
+    /**
+     * Hiermit können alle Werte eines Headers gelesen werden (einer pro Zeile, in der gesendeten Reihenfolge).
+     * @param name Der Name des Headers.
+     * @return Die Werte (leer, wenn es den Header nicht gibt).
+     */
+    public List<String> getAll (String name) {
+        int hash = HttpHeaders.hashIgnoreCase (name);
+        int index = this.indexOf (name, hash, 0);
+        if (index < 0) {
+            return Collections.emptyList();
+        }
+        List<String> result = new ArrayList<> (2);
+        while (index >= 0) {
+            result.add (this.getValue (index));
+            index = this.indexOf (name, hash, index + 1);
+        }
+        return result;
+    }
+
+    public int size () {
+        return this.count;
+    }
+    public boolean isEmpty () {
+        return this.count == 0;
+    }
+    public String getName (int index) {
+        return this.names [index];
+    }
+    public String getValue (int index) {
+        if (this.values [index] == null) {
+            this.values [index] = new String (this.source, this.valueOffsets [index], this.valueLengths [index], StandardCharsets.US_ASCII);
+        }
+        return this.values [index];
+    }
+}
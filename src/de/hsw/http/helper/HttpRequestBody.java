@@ -2,44 +2,195 @@ package de.hsw.http.helper;
 
 import com.google.gson.Gson;
 import com.google.gson.JsonElement;
-import de.hsw.errors.ConnectionClosedException;
-
+import de.hsw.errors.InvalidHttpRequestException;
+
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.util.Map;
 
 public class HttpRequestBody {
 
     public static final String STR_EMPTY = "";
 
+    // Wie groß ein Body höchstens sein darf (in Bytes, 0 = unbegrenzt).
+    // Größere Anfragen werden mit "413 Payload Too Large" abgelehnt, ohne das Surflet aufzurufen.
+    private static volatile long maxSize = 0;
+
+    /**
+     * Hiermit kann eingestellt werden, wie groß ein Anfrage-Body höchstens sein darf.
+     * @param maxSize Die maximale Größe in Bytes (0 = unbegrenzt).
+     */
+    public static void setMaxSize (long maxSize) {
+        if (maxSize < 0) {
+            throw new IllegalArgumentException ("The maximum body size must not be negative");
+        }
+        HttpRequestBody.maxSize = maxSize;
+    }
+    public static long getMaxSize () {
+        return HttpRequestBody.maxSize;
+    }
+
+    // Bodys bis zu dieser Größe (in Bytes) werden von "asMappedBuffer" im Speicher gehalten, größere werden in eine
+    // temporäre Datei geschrieben. So belegen viele gleichzeitige Uploads nicht den gesamten Heap.
+    // Aus demselben Grund können größere Bodys nicht mit "raw" (bzw. "asText", "asJson", ...) gelesen werden.
+    public static final long DEFAULT_SPOOL_THRESHOLD = 1024 * 1024;
+    private static final int SPOOL_CHUNK_SIZE = 64 * 1024;
+    private static volatile long spoolThreshold = DEFAULT_SPOOL_THRESHOLD;
+
+    /**
+     * Hiermit kann eingestellt werden, ab welcher Größe ein Body in eine temporäre Datei geschrieben wird.
+     * Größere Bodys werden auch von "raw" (bzw. "asText", "asJson", ...) nicht mehr in den Speicher geladen.
+     * @param spoolThreshold Die Größe in Bytes (0 = jeder Body wird in eine Datei geschrieben).
+     */
+    public static void setSpoolThreshold (long spoolThreshold) {
+        if (spoolThreshold < 0) {
+            throw new IllegalArgumentException ("The spool threshold must not be negative");
+        }
+        HttpRequestBody.spoolThreshold = spoolThreshold;
+    }
+    public static long getSpoolThreshold () {
+        return HttpRequestBody.spoolThreshold;
+    }
+
     /**
      * Hiermit kann der Anfragen-Body initialisiert werden.
      * Hierfür werden die Header einer Anfrage gelesen, um die Länge des Inhalts und ggf. seinen Typ zu erfahren.
      * @param headers Die Header der Http-Anfrage.
      * @return Gibt einen Wrapper für den eigentlichen HTTP-Anfragen-Body zurück.
+     * @throws InvalidHttpRequestException Wenn das Transfer-Encoding nicht unterstützt wird (siehe "isChunked").
      */
-    public static HttpRequestBody init (Map<String, String> headers) {
+    public static HttpRequestBody init (HttpHeaders headers) throws InvalidHttpRequestException {
+        HttpRequestBody result = new HttpRequestBody (0);
+        result.reset (headers);
+        return result;
+    }
 
-        int size = 0;
-        HttpRequestBody result;
+    /**
+     * Hiermit wird der Body für die nächste Anfrage einer Verbindung zurückgesetzt und mit ihren Headern initialisiert.
+     * So kann dasselbe Objekt (und sein Stream) für alle Anfragen einer Keep-Alive-Verbindung verwendet werden.
+     * @param headers Die Header der neuen Http-Anfrage.
+     * @throws InvalidHttpRequestException Wenn die Länge des Bodys nicht eindeutig ist (siehe "parseBodyLength").
+     */
+    public void reset (HttpHeaders headers) throws InvalidHttpRequestException {
 
-        if (headers.containsKey ("content-length")) {
-            try {
-                size = Integer.parseInt (headers.get ("content-length"));
-            } catch (RuntimeException e) {
-                System.out.println("[ERROR]: es ist ein Fehler dabei aufgetreten den Content-Length Header zu parsen.");
-            }
+        // Eine noch vorhandene temporäre Datei der letzten Anfrage wird gelöscht.
+        this.dispose ();
+        this.data = null;
+        this.streamed = false;
+        this.released = false;
+        this.stringRepresentation = null;
+        this.contentType = ContentType.TEXT_PLAIN;
+        this.contentCharset = StandardCharsets.ISO_8859_1;
+        this.boundary = null;
+
+        // Wird der Body in Chunks gesendet, ist seine Länge unbekannt (-1).
+        long size = HttpRequestBody.parseBodyLength (headers);
+
+        this.size = size;
+        this.chunked = size < 0;
+        this.expectsContinue = "100-continue".equalsIgnoreCase (headers.getOrDefault ("expect", STR_EMPTY).trim());
+
+        if (headers.contains ("content-type")) {
+            this.parseContentTypeAndCharset (headers.get ("content-type"));
         }
+    }
 
-        result = new HttpRequestBody (size);
+    /**
+     * Hiermit wird die Länge des Bodys aus den Headern bestimmt. Dies wird auch vom NIO-Transport beim Framing
+     * verwendet (mit denselben, über HttpHeaders geparsten Headern), damit beide das Ende des Bodys gleich bestimmen.
+     * Eine Anfrage mit Transfer-Encoding und Content-Length wird abgelehnt (RFC 7230 Sec. 3.3.3), da ein anderer
+     * Server auf dem Weg die Länge aus dem Content-Length Header nehmen könnte.
+     * @param headers Die Header der Http-Anfrage.
+     * @return Die Länge in Bytes (0 ohne Body) oder -1, wenn der Body in Chunks gesendet wird.
+     * @throws InvalidHttpRequestException Wenn die Länge nicht eindeutig ist oder das Transfer-Encoding nicht
+     * unterstützt wird.
+     */
+    public static long parseBodyLength (HttpHeaders headers) throws InvalidHttpRequestException {
+        long contentLength = HttpRequestBody.parseContentLength (headers);
+        if (HttpRequestBody.isChunked (headers.getOrDefault ("transfer-encoding", null))) {
+            if (contentLength >= 0) {
+                throw new InvalidHttpRequestException ("Both Transfer-Encoding and Content-Length");
+            }
+            return -1;
+        }
+        return Math.max (contentLength, 0);
+    }
 
-        if (headers.containsKey("content-type")) {
-            result.parseContentTypeAndCharset (headers.get ("content-type"));
+    /**
+     * Hiermit kann die Länge des Bodys aus den Content-Length Headern gelesen werden.
+     * Der Header darf mehrfach (bzw. als Liste) vorkommen, aber nur mit immer demselben Wert (RFC 7230 Sec. 3.3.2).
+     * Ist ein Wert ungültig oder unterscheiden sich die Werte, ist unklar, wo die nächste Anfrage beginnt: Statt einer
+     * geratenen Länge wird die Anfrage abgelehnt, sonst könnte eine zweite Anfrage im Body versteckt werden.
+     * @param headers Die Header der Http-Anfrage.
+     * @return Die Länge in Bytes oder -1, wenn es keinen Content-Length Header gibt.
+     * @throws InvalidHttpRequestException Wenn ein Wert keine gültige Zahl ist oder sich die Werte unterscheiden.
+     */
+    private static long parseContentLength (HttpHeaders headers) throws InvalidHttpRequestException {
+        long contentLength = -1;
+        for (String value : headers.getAll ("content-length")) {
+            for (String element : value.split (",", -1)) {
+                long length = HttpRequestBody.parseDigits (element.trim());
+                if (length < 0 || (contentLength >= 0 && length != contentLength)) {
+                    throw new InvalidHttpRequestException ("Invalid Content-Length");
+                }
+                contentLength = length;
+            }
         }
+        return contentLength;
+    }
 
+    /**
+     * Hiermit wird eine Zahl aus Dezimalziffern gelesen (ohne Vorzeichen und ohne Leerzeichen).
+     * @param value Die Ziffern.
+     * @return Die Zahl oder -1, wenn der Wert ungültig oder zu groß ist.
+     */
+    private static long parseDigits (String value) {
+        if (value.isEmpty() || value.length() > 18) {
+            return -1;
+        }
+        long result = 0;
+        for (int index = 0; index < value.length(); index += 1) {
+            char digit = value.charAt (index);
+            if (digit < '0' || digit > '9') {
+                return -1;
+            }
+            result = result * 10 + (digit - '0');
+        }
         return result;
     }
 
+    /**
+     * Hiermit kann geprüft werden, ob ein Body laut Transfer-Encoding Header in Chunks gesendet wird.
+     * Es zählt dabei nur das letzte Transfer-Encoding, alle anderen werden nicht unterstützt. Ist das letzte nicht
+     * "chunked", kann die Länge des Bodys nicht bestimmt werden (RFC 7230 Sec. 3.3.3): Die Anfrage ist ungültig.
+     * @param transferEncoding Der Wert des Transfer-Encoding Headers oder "null", wenn es keinen gibt.
+     * @return "True", wenn der Body in Chunks gesendet wird. "False", wenn es keinen Header gibt.
+     * @throws InvalidHttpRequestException Wenn das letzte Transfer-Encoding nicht "chunked" ist.
+     */
+    public static boolean isChunked (String transferEncoding) throws InvalidHttpRequestException {
+        if (transferEncoding == null) {
+            return false;
+        }
+        String[] codings = transferEncoding.split (",");
+        if (codings.length == 0 || codings [codings.length - 1].trim().equalsIgnoreCase ("chunked") == false) {
+            throw new InvalidHttpRequestException ("Unsupported Transfer-Encoding");
+        }
+        return true;
+    }
+
     /**
      * In dieser Enum sind alle vom Server Unterstützten Content-Types vorhanden.
      */
@@ -49,7 +200,8 @@ public class HttpRequestBody {
         TEXT_PLAIN ("text/plain"),
         TEXT_HTML ("text/html"),
         APPLICATION_JSON ("application/json"),
-        APPLICATION_X_WWW_FORM_URLENCODED ("application/x-www-form-urlencoded");
+        APPLICATION_X_WWW_FORM_URLENCODED ("application/x-www-form-urlencoded"),
+        MULTIPART_FORM_DATA ("multipart/form-data");
 
         private final String toStringValue;
         ContentType (String toStringValue) {
@@ -60,19 +212,35 @@ public class HttpRequestBody {
         }
     }
 
-    private int size;
+    private long size;
     private byte[] data = null;
+
+    // Der Body wird erst gelesen, wenn er benötigt wird: entweder als Stream ("getInputStream")
+    // oder vollständig (z. B. "asText"). Beides zusammen geht nicht, da der Stream nur einmal gelesen werden kann.
+    private HttpBodyInputStream stream = null;
+    private boolean streamed = false;
+    private boolean chunked = false;
+    private boolean expectsContinue = false;
+
+    // "True", wenn die Anfrage bereits bearbeitet wurde und der Body nicht mehr gelesen werden darf (siehe "release").
+    private boolean released = false;
+
+    // Die temporäre Datei, in die der Body geschrieben wurde (siehe "asPath"). Sie wird mit "dispose" gelöscht.
+    private Path spoolFile = null;
     private ContentType contentType = ContentType.TEXT_PLAIN;
     private Charset contentCharset = StandardCharsets.ISO_8859_1;
     private String stringRepresentation = null;
 
+    // Die Grenze zwischen den Teilen eines "multipart/form-data" Bodys (Groß-/Kleinschreibung ist relevant).
+    private String boundary = null;
+
     /**
      * Hiermit kann der Request-Body mit einer gewissen größe erstellt werden.
      * Dieser Konstruktor ist jeodch private, da das Parsing des Bodys durch die Header einer Http-Anfrage initialisiert
      * werden muss.
-     * @param size Die Anzahl an Bytes, die der Anfragen-Body haben sollte (laut Content-Length Header)
+     * @param size Die Anzahl an Bytes, die der Anfragen-Body haben sollte (laut Content-Length Header, -1 = unbekannt)
      */
-    private HttpRequestBody (int size) {
+    private HttpRequestBody (long size) {
         this.size = size;
     }
 
@@ -87,6 +255,7 @@ public class HttpRequestBody {
             case "application/x-www-form-urlencoded": return ContentType.APPLICATION_X_WWW_FORM_URLENCODED;
             case "text/plain": return ContentType.TEXT_PLAIN;
             case "text/html": return ContentType.TEXT_HTML;
+            case "multipart/form-data": return ContentType.MULTIPART_FORM_DATA;
             default: return ContentType.UNSUPPORTED;
         }
     }
@@ -147,31 +316,129 @@ public class HttpRequestBody {
             paramter = mediaType [PARAMETER].trim().toLowerCase();
             this.contentCharset = this.parseContentCharset (paramter);
         }
+
+        // Die Grenze darf (laut RFC 2046) höchstens 70 Zeichen lang sein.
+        if (this.contentType == ContentType.MULTIPART_FORM_DATA) {
+            String boundary = MultipartPart.getParameter (contentTypeHeaderValue, "boundary");
+            if (boundary != null && boundary.isEmpty() == false && boundary.length() <= 70) {
+                this.boundary = boundary;
+            }
+        }
     }
 
     /**
-     * Diese Funktion ist dafür verantwortlich, die eigentlichen Bytes aus dem Stream zu lesen.
-     * @param reader
-     * @throws ConnectionClosedException
+     * Hiermit wird der Body mit dem Reader der Verbindung verbunden. Es wird dabei noch nichts gelesen.
+     * Die Bytes werden erst gelesen, wenn das Surflet den Body verwendet.
+     * @param reader Der Reader der Verbindung.
      */
-    public void fill (UnsafeHttpInputStreamReader reader) throws ConnectionClosedException {
-        this.data = reader.readBytes (this.size);
+    public void attach (UnsafeHttpInputStreamReader reader) {
+        // Bei der nächsten Anfrage derselben Verbindung wird der Stream wiederverwendet.
+        if (this.stream != null && this.stream.isAttachedTo (reader)) {
+            this.stream.reset (this.size, this.chunked, HttpRequestBody.maxSize);
+        } else {
+            this.stream = new HttpBodyInputStream (reader, this.size, this.chunked, HttpRequestBody.maxSize);
+        }
+        this.data = null;
+        this.streamed = false;
         this.stringRepresentation = null;
     }
 
+    /**
+     * Hiermit wird der Output-Stream der Verbindung hinterlegt, über den (falls der Client mit "Expect: 100-continue"
+     * darauf wartet) beim ersten Lesen des Bodys ein "100 Continue" gesendet wird.
+     * @param outputStream Der Output-Stream der Verbindung.
+     */
+    public void enableContinue (OutputStream outputStream) {
+        if (this.expectsContinue && this.stream != null) {
+            this.stream.expectContinue (outputStream);
+        }
+    }
+
+    /**
+     * Hiermit kann geprüft werden, ob der Body laut Content-Length Header größer als erlaubt ist.
+     * (Bei Chunks wird die Größe erst beim Lesen geprüft.)
+     * @return "True", wenn der Body zu groß ist. Andernfalls "False".
+     */
+    public boolean isTooLarge () {
+        long limit = HttpRequestBody.maxSize;
+        return limit > 0 && this.size > limit;
+    }
+
+    /**
+     * Hiermit kann der Body als Stream gelesen werden, ohne ihn vollständig in den Speicher zu laden
+     * (z. B. um einen großen Upload direkt in eine Datei zu schreiben).
+     * Der Stream endet nach der im Content-Length Header angegebenen Anzahl an Bytes.
+     * ! Wichtig: Wurde der Stream verwendet, können "asText", "asJson", "asFormData" und "raw" nicht mehr verwendet
+     * werden.
+     * @return Der Stream über den Body.
+     */
+    public InputStream getInputStream () {
+        this.ensureNotReleased ();
+        if (this.data != null) {
+            return new ByteArrayInputStream (this.data);
+        }
+        if (this.spoolFile != null) {
+            try {
+                return Files.newInputStream (this.spoolFile);
+            } catch (IOException e) {
+                throw new UncheckedIOException (e);
+            }
+        }
+        if (this.stream == null) {
+            return InputStream.nullInputStream();
+        }
+        this.streamed = true;
+        return this.stream;
+    }
+
+    /**
+     * Hiermit kann der Body als Channel gelesen werden (siehe "getInputStream").
+     * @return Der Channel über den Body.
+     */
+    public ReadableByteChannel getChannel () {
+        return Channels.newChannel (this.getInputStream ());
+    }
+
+    /**
+     * Hiermit wird der (noch nicht gelesene) Rest des Bodys übersprungen,
+     * damit die nächste Anfrage der Verbindung gelesen werden kann.
+     * @param maxBytes Wie viele Bytes höchstens übersprungen werden.
+     * @return "True", wenn der Body vollständig gelesen ist. "False", wenn der Rest zu groß war oder der Client die
+     *         Verbindung geschlossen hat: Die Verbindung darf dann nicht weiter verwendet werden.
+     */
+    public boolean skipRemaining (long maxBytes) {
+        // Ein zu großer Body wird nie gelesen, die Verbindung muss also geschlossen werden.
+        if (this.isTooLarge ()) {
+            return false;
+        }
+        return this.stream == null || this.stream.drain (maxBytes);
+    }
+
     /**
      * Hiermit kann geschaut werden, ob der Http-Anfragen-Body leer ist.
      * @return "True", wenn der Http-Anfragen-Body leer ist. Andernfalls "False".
      */
     public boolean isEmpty () {
-        return (this.size == 0 || this.data == null || this.data.length == 0);
+        return (this.size == 0 || (this.data != null && this.data.length == 0));
     }
 
     /**
      * Hier wird die Länge, also die Anzahl an Bytes, des Http-Anfragen-Bodys zurückgegeben.
-     * @return Die Länge des Http-Anfragen-Bodys.
+     * Bei Chunks ist sie erst bekannt, wenn der Body gelesen wurde (vorher 0).
+     * @return Die Länge des Http-Anfragen-Bodys (höchstens Integer.MAX_VALUE).
      */
     public int size () {
+        if (this.data != null) {
+            return this.data.length;
+        }
+        return (int) Math.max (0, Math.min (this.size, Integer.MAX_VALUE));
+    }
+
+    /**
+     * Hier wird die Länge des Http-Anfragen-Bodys laut Content-Length Header zurückgegeben.
+     * @return Die Länge des Http-Anfragen-Bodys oder -1, wenn er in Chunks (mit unbekannter Länge) gesendet wird.
+     */
+    public long getContentLength () {
         return this.size;
     }
 
@@ -198,10 +465,11 @@ public class HttpRequestBody {
         }
 
         // Hier Angekommen wird das Byte-Array unter Berücksichtigung des Charsets zu einem String umgewandelt.
-        if (this.isEmpty()) {
+        byte[] bytes = this.raw ();
+        if (bytes == null || bytes.length == 0) {
             this.stringRepresentation = STR_EMPTY;
         } else {
-            this.stringRepresentation = new String(this.data, this.contentCharset);
+            this.stringRepresentation = new String(bytes, this.contentCharset);
         }
 
         return this.stringRepresentation;
@@ -226,11 +494,255 @@ public class HttpRequestBody {
         return new Gson().fromJson(this.asText(), JsonElement.class);
     }
 
+    /**
+     * Hiermit kann der Inhalt des Http-Anfragen-Bodys als "multipart/form-data" (z. B. ein Datei-Upload) gelesen werden.
+     * Die Teile werden nacheinander aus dem Stream des Bodys gelesen, der Body liegt also nie vollständig im Speicher.
+     * Dateien können so mit "MultipartPart.transferTo" direkt auf die Festplatte geschrieben werden.
+     * ! Wichtig: Wie bei "getInputStream" können "asText", "asJson", "asFormData" und "raw" danach nicht mehr
+     * verwendet werden.
+     * @return Der Reader über die Teile oder "null", wenn der Body kein (gültiger) multipart-Body ist.
+     */
+    public MultipartReader asMultipart () {
+        if (this.contentType != ContentType.MULTIPART_FORM_DATA || this.boundary == null) {
+            return null;
+        }
+        return new MultipartReader (this.getInputStream (), this.boundary);
+    }
+
     /**
      * Hiermit kann der Inhalt des Http-Anfragen-Bodys im Raw-Format, also die gelesenen Bytes, angefordert werden.
+     * Beim ersten Aufruf wird der Body vollständig gelesen.
+     * Kann er nicht vollständig gelesen werden (z. B. weil der Client die Verbindung vorher schließt oder ein Chunk
+     * ungültig ist), wird nichts zwischengespeichert: Ein abgeschnittener Body soll nie wie ein vollständiger aussehen.
+     * Bodys über der eingestellten Größe (siehe "setSpoolThreshold") werden nicht in den Speicher geladen, da sonst
+     * wenige große Anfragen den gesamten Heap belegen könnten. Sie müssen mit "getInputStream" oder "asPath" gelesen
+     * werden. Ein Body in Chunks wird dafür beim Überschreiten der Grenze in eine temporäre Datei geschrieben.
      * @return Die gelesenen Bytes.
+     * @throws UncheckedIOException Wenn der Body nicht vollständig gelesen werden kann.
+     * @throws IllegalStateException Wenn der Body größer als die eingestellte Größe ist.
      */
     public byte[] raw () {
+        this.ensureNotReleased ();
+        if (this.data != null || this.stream == null) {
+            return this.data;
+        }
+        if (this.streamed == true) {
+            throw new IllegalStateException ("The body has already been consumed as a stream");
+        }
+        long limit = Math.min (HttpRequestBody.spoolThreshold, Integer.MAX_VALUE - 8);
+        if (this.spoolFile != null) {
+            try {
+                if (Files.size (this.spoolFile) > limit) {
+                    throw HttpRequestBody.tooLargeForMemory ();
+                }
+                this.data = Files.readAllBytes (this.spoolFile);
+            } catch (IOException e) {
+                throw new UncheckedIOException ("The spooled request body could not be read", e);
+            }
+            return this.data;
+        }
+        if (this.size > limit) {
+            throw HttpRequestBody.tooLargeForMemory ();
+        }
+
+        // Bei Chunks ist die Länge unbekannt. Es wird also höchstens bis zur Grenze in einen wachsenden Buffer gelesen.
+        if (this.chunked) {
+            boolean buffered;
+            try {
+                buffered = this.bufferOrSpoolChunks (limit);
+            } catch (IOException e) {
+                throw new UncheckedIOException ("The request body could not be read completely", e);
+            }
+            if (buffered == false) {
+                throw HttpRequestBody.tooLargeForMemory ();
+            }
+            return this.data;
+        }
+
+        byte[] result = new byte [(int) this.size];
+        int readBytes = 0;
+        try {
+            while (readBytes < result.length) {
+                int read = this.stream.read (result, readBytes, result.length - readBytes);
+                if (read < 0) {
+                    break;
+                }
+                readBytes += read;
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException ("The request body could not be read completely", e);
+        }
+        if (readBytes < result.length) {
+            throw new UncheckedIOException (new EOFException ("The request body could not be read completely"));
+        }
+
+        this.data = result;
         return this.data;
     }
+
+    private static IllegalStateException tooLargeForMemory () {
+        return new IllegalStateException ("The body is larger than the spool threshold and is not loaded into memory, use getInputStream or asPath instead");
+    }
+
+    /**
+     * Hiermit kann der Body als Datei angefordert werden (z. B. um einen Upload ohne Kopie im Heap zu speichern).
+     * Beim ersten Aufruf wird der Body über einen FileChannel in eine temporäre Datei geschrieben.
+     * ! Wichtig: Die Datei wird gelöscht, sobald das Surflet die Anfrage bearbeitet hat. Soll sie erhalten bleiben,
+     * muss sie vorher verschoben werden (Files.move).
+     * @return Der Pfad der Datei.
+     * @throws IOException Wenn die Datei nicht geschrieben werden kann.
+     */
+    public Path asPath () throws IOException {
+        this.ensureNotReleased ();
+        if (this.spoolFile != null) {
+            return this.spoolFile;
+        }
+        if (this.data != null || this.stream == null) {
+            byte[] bytes = this.data == null ? new byte [0] : this.data;
+            this.spool (bytes, bytes.length, false);
+        } else {
+            this.ensureNotStreamed ();
+            this.spool (new byte [0], 0, true);
+        }
+        return this.spoolFile;
+    }
+
+    /**
+     * Hiermit kann der Body als (nur lesbarer) ByteBuffer angefordert werden.
+     * Bodys bis zur eingestellten Größe (siehe "setSpoolThreshold") werden dafür in den Speicher gelesen.
+     * Größere Bodys werden in eine temporäre Datei geschrieben und gemappt, belegen also keinen Heap.
+     * @return Der Body.
+     * @throws IOException Wenn die Datei nicht geschrieben werden kann.
+     */
+    public ByteBuffer asMappedBuffer () throws IOException {
+        this.ensureNotReleased ();
+        if (this.data == null && this.spoolFile == null && this.stream != null) {
+            this.ensureNotStreamed ();
+            long threshold = HttpRequestBody.spoolThreshold;
+
+            if (this.chunked) {
+                this.bufferOrSpoolChunks (threshold);
+            } else if (this.size <= threshold) {
+                this.raw ();
+            } else {
+                this.spool (new byte [0], 0, true);
+            }
+        }
+
+        if (this.spoolFile == null) {
+            return ByteBuffer.wrap (this.data == null ? new byte [0] : this.data).asReadOnlyBuffer();
+        }
+        try (FileChannel channel = FileChannel.open (this.spoolFile, StandardOpenOption.READ)) {
+            return channel.map (FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+    }
+
+    /**
+     * Hiermit kann geprüft werden, ob der Body in eine temporäre Datei geschrieben wurde.
+     * @return "True", wenn es eine Datei gibt. Andernfalls "False".
+     */
+    public boolean isSpooled () {
+        return this.spoolFile != null;
+    }
+
+    /**
+     * Hiermit werden die Ressourcen des Bodys freigegeben, also die temporäre Datei (falls vorhanden) gelöscht.
+     * Dies wird nach der Bearbeitung jeder Anfrage aufgerufen.
+     */
+    public void dispose () {
+        if (this.spoolFile == null) {
+            return;
+        }
+        try {
+            Files.deleteIfExists (this.spoolFile);
+        } catch (IOException e) {
+            System.out.println("[WARNING]: the temporary file " + this.spoolFile + " could not be deleted.");
+        }
+        this.spoolFile = null;
+    }
+
+    /**
+     * Hiermit wird ein Body in Chunks (mit unbekannter Länge) höchstens bis zur Grenze in den Speicher gelesen.
+     * Ist er dann noch nicht zu Ende, werden das Gelesene und der Rest in eine temporäre Datei geschrieben.
+     * @param threshold Wie viele Bytes höchstens in den Speicher gelesen werden.
+     * @return "True", wenn der Body im Speicher liegt. "False", wenn er in die Datei geschrieben wurde.
+     * @throws IOException Wenn der Body nicht vollständig gelesen oder die Datei nicht geschrieben werden kann.
+     */
+    private boolean bufferOrSpoolChunks (long threshold) throws IOException {
+        byte[] head = new byte [(int) Math.min (threshold + 1, SPOOL_CHUNK_SIZE)];
+        DynamicByteBuffer buffer = new DynamicByteBuffer (head.length);
+        int read;
+        while (buffer.size() <= threshold && (read = this.stream.read (head, 0, (int) Math.min (head.length, threshold + 1 - buffer.size()))) >= 0) {
+            buffer.append (head, 0, read);
+        }
+        if (buffer.size() > threshold) {
+            this.spool (buffer.array(), buffer.size(), true);
+            return false;
+        }
+        if (this.stream.isTruncated ()) {
+            throw new EOFException ("The request body could not be read completely");
+        }
+        this.data = buffer.toByteArray();
+        return true;
+    }
+
+    /**
+     * Hiermit wird der Body in eine temporäre Datei geschrieben: zuerst die übergebenen Bytes,
+     * dann (optional) der Rest des Streams. Gelesen wird in Blöcken, sodass nie der gesamte Body im Heap liegt.
+     * @param head Bytes, die bereits gelesen wurden.
+     * @param headLength Die Anzahl dieser Bytes.
+     * @param readStream "True", wenn danach der Rest des Streams geschrieben werden soll.
+     * @throws IOException Wenn die Datei nicht geschrieben werden kann.
+     */
+    private void spool (byte[] head, int headLength, boolean readStream) throws IOException {
+        Path file = Files.createTempFile ("surflet-body-", ".tmp");
+        try (FileChannel channel = FileChannel.open (file, StandardOpenOption.WRITE)) {
+            ByteBuffer buffer = ByteBuffer.wrap (head, 0, headLength);
+            while (buffer.hasRemaining()) {
+                channel.write (buffer);
+            }
+
+            if (readStream) {
+                ByteBuffer chunk = BufferPool.getInstance().acquireHeap (SPOOL_CHUNK_SIZE);
+                try {
+                    int read;
+                    while ((read = this.stream.read (chunk.array(), 0, chunk.capacity())) >= 0) {
+                        chunk.clear().limit (read);
+                        while (chunk.hasRemaining()) {
+                            channel.write (chunk);
+                        }
+                    }
+                } finally {
+                    BufferPool.getInstance().release (chunk);
+                }
+                if (this.stream.isTruncated ()) {
+                    throw new EOFException ("The request body could not be read completely");
+                }
+            }
+        } catch (IOException e) {
+            Files.deleteIfExists (file);
+            throw e;
+        }
+        this.spoolFile = file;
+    }
+
+    /**
+     * Hiermit wird der Body als bearbeitet markiert. Jeder weitere Versuch ihn zu lesen wirft eine Exception,
+     * da der Stream der Verbindung dann bereits zur nächsten Anfrage gehört (siehe RequestRecycler).
+     */
+    public void release () {
+        this.released = true;
+    }
+
+    private void ensureNotReleased () {
+        if (this.released) {
+            throw new IllegalStateException ("The request body has been used after handleRequest returned");
+        }
+    }
+
+    private void ensureNotStreamed () {
+        if (this.streamed == true) {
+            throw new IllegalStateException ("The body has already been consumed as a stream");
+        }
+    }
 }
@@ -0,0 +1,157 @@
+package de.hsw.http.helper;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * Ein Teil eines "multipart/form-data" Bodys, also ein Formularfeld oder eine hochgeladene Datei.
+ * Die Bytes werden erst beim Lesen des Streams aus dem Body gelesen (siehe MultipartReader).
+ */
+public class MultipartPart {
+
+    private final HttpHeaders headers;
+    private final InputStream inputStream;
+
+    MultipartPart (HttpHeaders headers, InputStream inputStream) {
+        this.headers = headers;
+        this.inputStream = inputStream;
+    }
+
+    /**
+     * Hiermit können die Header des Teils angefordert werden.
+     * @return Die Header.
+     */
+    public HttpHeaders getHeaders () {
+        return this.headers;
+    }
+    public String getHeader (String name) {
+        return this.headers.get (name);
+    }
+
+    /**
+     * Hiermit kann der Name des Formularfeldes angefordert werden.
+     * @return Der Name aus dem Content-Disposition Header oder "null".
+     */
+    public String getName () {
+        return this.getDispositionParameter ("name");
+    }
+
+    /**
+     * Hiermit kann der Dateiname einer hochgeladenen Datei angefordert werden.
+     * ! Wichtig: Der Name kommt vom Client und darf nicht ungeprüft als Pfad verwendet werden.
+     * @return Der Dateiname oder "null", wenn der Teil keine Datei ist.
+     */
+    public String getFileName () {
+        return this.getDispositionParameter ("filename");
+    }
+
+    /**
+     * Hiermit kann geschaut werden, ob der Teil eine hochgeladene Datei ist.
+     * @return "True", wenn ein Dateiname angegeben ist. Andernfalls "False".
+     */
+    public boolean isFile () {
+        return this.getFileName () != null;
+    }
+
+    /**
+     * Hiermit kann der Content-Type des Teils angefordert werden.
+     * @return Der Content-Type oder "text/plain", wenn keiner angegeben ist (siehe RFC 7578).
+     */
+    public String getContentType () {
+        return this.headers.getOrDefault ("content-type", "text/plain");
+    }
+
+    /**
+     * Hiermit kann der Inhalt des Teils als Stream gelesen werden.
+     * @return Der Stream. Er endet mit dem Teil.
+     */
+    public InputStream getInputStream () {
+        return this.inputStream;
+    }
+
+    /**
+     * Hiermit kann der Inhalt des Teils als String angefordert werden (z. B. für normale Formularfelder).
+     * Ohne Charset im Content-Type wird UTF-8 verwendet.
+     * @return Der Inhalt.
+     * @throws IOException Wenn der Body nicht gelesen werden kann.
+     */
+    public String asText () throws IOException {
+        Charset charset = StandardCharsets.UTF_8;
+        String charsetName = MultipartPart.getParameter (this.getContentType (), "charset");
+        if (charsetName != null && Charset.isSupported (charsetName)) {
+            charset = Charset.forName (charsetName);
+        }
+        return new String (this.inputStream.readAllBytes(), charset);
+    }
+
+    /**
+     * Hiermit wird der Inhalt des Teils direkt in eine Datei geschrieben, ohne ihn vollständig in den Speicher zu laden.
+     * Eine vorhandene Datei wird dabei überschrieben.
+     * @param target Der Pfad der Datei.
+     * @return Die Anzahl der geschriebenen Bytes.
+     * @throws IOException Wenn der Body nicht gelesen oder die Datei nicht geschrieben werden kann.
+     */
+    public long transferTo (Path target) throws IOException {
+        return Files.copy (this.inputStream, target, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    private String getDispositionParameter (String name) {
+        return MultipartPart.getParameter (this.headers.get ("content-disposition"), name);
+    }
+
+    /**
+     * Hiermit wird ein Parameter aus einem Header-Wert gelesen, z. B. "name" aus: form-data; name="feld".
+     * @param headerValue Der Wert des Headers (darf "null" sein).
+     * @param name Der Name des Parameters.
+     * @return Der Wert des Parameters (ohne Anführungszeichen) oder "null".
+     */
+    static String getParameter (String headerValue, String name) {
+        if (headerValue == null) {
+            return null;
+        }
+
+        int index = headerValue.indexOf (';');
+        while (index >= 0 && index < headerValue.length()) {
+            int start = index + 1;
+            while (start < headerValue.length() && headerValue.charAt (start) == ' ') {
+                start += 1;
+            }
+            int equalIndex = headerValue.indexOf ('=', start);
+            if (equalIndex < 0) {
+                return null;
+            }
+            String parameterName = headerValue.substring (start, equalIndex).trim();
+
+            // Der Wert kann in Anführungszeichen stehen (und dann auch ";" enthalten).
+            String value;
+            int end;
+            if (equalIndex + 1 < headerValue.length() && headerValue.charAt (equalIndex + 1) == '"') {
+                StringBuilder builder = new StringBuilder();
+                end = equalIndex + 2;
+                while (end < headerValue.length() && headerValue.charAt (end) != '"') {
+                    if (headerValue.charAt (end) == '\\' && end + 1 < headerValue.length()) {
+                        end += 1;
+                    }
+                    builder.append (headerValue.charAt (end));
+                    end += 1;
+                }
+                value = builder.toString();
+                end = headerValue.indexOf (';', end);
+            } else {
+                end = headerValue.indexOf (';', equalIndex);
+                value = (end < 0 ? headerValue.substring (equalIndex + 1) : headerValue.substring (equalIndex + 1, end)).trim();
+            }
+
+            if (parameterName.equalsIgnoreCase (name)) {
+                return value;
+            }
+            index = end;
+        }
+        return null;
+    }
+}
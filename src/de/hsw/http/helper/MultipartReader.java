@@ -0,0 +1,268 @@
+package de.hsw.http.helper;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Ein Reader für Bodys im Format "multipart/form-data" (RFC 7578).
+ * Der Body wird dabei nicht vollständig in den Speicher gelesen: Die einzelnen Teile werden nacheinander mit "next"
+ * geholt und können als Stream gelesen (bzw. direkt in eine Datei geschrieben) werden.
+ * Die Grenzen ("--<boundary>") werden mit dem Boyer-Moore-Horspool-Algorithmus gesucht, sodass die meisten Bytes
+ * eines Teils nur einmal angeschaut werden müssen.
+ * ! Wichtig: Wird "next" aufgerufen, ist der Stream des vorherigen Teils nicht mehr lesbar (der Rest wird übersprungen).
+ */
+public class MultipartReader {
+
+    private static final int BUFFER_SIZE = 16 * 1024;
+    private static final int MAX_HEADER_SIZE = 16 * 1024;
+
+    private final InputStream inputStream;
+
+    // Der Delimiter "\r\n--<boundary>" und die Sprungtabelle für die Suche.
+    private final byte[] delimiter;
+    private final int[] shiftTable;
+
+    // Die gelesenen, aber noch nicht verarbeiteten Bytes liegen zwischen "position" und "limit".
+    private final byte[] buffer;
+    private int position = 0;
+    private int limit = 0;
+    private boolean endOfStream = false;
+
+    private MultipartPart currentPart = null;
+    private boolean finished = false;
+
+    /**
+     * Hiermit wird ein Reader über einen multipart-Body erstellt.
+     * @param inputStream Der Stream über den Body.
+     * @param boundary Die Grenze aus dem Content-Type Header (ohne die führenden "--").
+     */
+    public MultipartReader (InputStream inputStream, String boundary) {
+        if (boundary == null || boundary.isEmpty() || boundary.length() > 70) {
+            throw new IllegalArgumentException ("Invalid multipart boundary");
+        }
+        this.inputStream = inputStream;
+        this.delimiter = ("\r\n--" + boundary).getBytes (StandardCharsets.US_ASCII);
+        this.shiftTable = MultipartReader.createShiftTable (this.delimiter);
+        this.buffer = new byte [Math.max (BUFFER_SIZE, this.delimiter.length * 2)];
+
+        // Vor der ersten Grenze steht kein CRLF. Damit sie trotzdem wie alle anderen gefunden wird,
+        // wird es hier vorangestellt.
+        this.buffer [0] = '\r';
+        this.buffer [1] = '\n';
+        this.limit = 2;
+    }
+
+    /**
+     * Hiermit wird die Sprungtabelle für den Boyer-Moore-Horspool-Algorithmus erstellt.
+     * Sie gibt für jedes Byte an, wie weit das Muster verschoben werden kann, wenn dieses Byte unter dem letzten
+     * Zeichen des Musters steht.
+     * @param pattern Das gesuchte Muster.
+     * @return Die Tabelle (256 Einträge).
+     */
+    private static int[] createShiftTable (byte[] pattern) {
+        int[] table = new int [256];
+        for (int index = 0; index < table.length; index += 1) {
+            table [index] = pattern.length;
+        }
+        for (int index = 0; index < pattern.length - 1; index += 1) {
+            table [pattern [index] & 0xFF] = pattern.length - 1 - index;
+        }
+        return table;
+    }
+
+    /**
+     * Hiermit wird der Delimiter im Buffer zwischen "from" und "limit" gesucht.
+     * @param from Ab welchem Index gesucht wird.
+     * @return Der Index des Delimiters oder -1, wenn er (vollständig) nicht enthalten ist.
+     */
+    private int indexOfDelimiter (int from) {
+        int last = this.delimiter.length - 1;
+        int index = from;
+        while (index + last < this.limit) {
+            int offset = last;
+            while (offset >= 0 && this.buffer [index + offset] == this.delimiter [offset]) {
+                offset -= 1;
+            }
+            if (offset < 0) {
+                return index;
+            }
+            index += this.shiftTable [this.buffer [index + last] & 0xFF];
+        }
+        return -1;
+    }
+
+    /**
+     * Hiermit wird der Buffer (nach dem Verschieben der unverarbeiteten Bytes an den Anfang) weiter gefüllt.
+     * @return "False", wenn der Stream zu Ende ist und nichts gelesen wurde.
+     * @throws IOException Wenn der Stream nicht gelesen werden kann.
+     */
+    private boolean fill () throws IOException {
+        if (this.endOfStream) {
+            return false;
+        }
+        if (this.position > 0) {
+            System.arraycopy (this.buffer, this.position, this.buffer, 0, this.limit - this.position);
+            this.limit -= this.position;
+            this.position = 0;
+        }
+        if (this.limit == this.buffer.length) {
+            return false;
+        }
+        int read = this.inputStream.read (this.buffer, this.limit, this.buffer.length - this.limit);
+        if (read < 0) {
+            this.endOfStream = true;
+            return false;
+        }
+        this.limit += read;
+        return true;
+    }
+
+    /**
+     * Hiermit wird der nächste Teil des Bodys geholt.
+     * @return Der Teil oder "null", wenn es keine weiteren Teile gibt.
+     * @throws IOException Wenn der Body nicht gelesen werden kann oder kein gültiger multipart-Body ist.
+     */
+    public MultipartPart next () throws IOException {
+        if (this.finished) {
+            return null;
+        }
+
+        // Der Rest des aktuellen Teils (bzw. vor dem ersten Teil die Präambel) wird übersprungen.
+        if (this.currentPart != null) {
+            this.currentPart.getInputStream().close();
+        } else {
+            byte[] skipBuffer = new byte [1024];
+            while (this.readPart (skipBuffer, 0, skipBuffer.length) >= 0) {
+                // Die Präambel wird ignoriert.
+            }
+        }
+
+        // Hinter der Grenze folgt entweder "--" (das Ende des Bodys) oder ein CRLF und die Header des nächsten Teils.
+        this.position += this.delimiter.length;
+        while (this.limit - this.position < 2) {
+            if (this.fill () == false) {
+                throw new IOException ("Unexpected end of multipart body");
+            }
+        }
+        if (this.buffer [this.position] == '-' && this.buffer [this.position + 1] == '-') {
+            this.finished = true;
+            this.currentPart = null;
+            return null;
+        }
+        this.readLine ();
+
+        HttpHeaders headers = new HttpHeaders ();
+        String line;
+        int headerSize = 0;
+        while ((line = this.readLine ()).isEmpty() == false) {
+            headerSize += line.length();
+            if (headerSize > MAX_HEADER_SIZE) {
+                throw new IOException ("Multipart headers too large");
+            }
+            int colonIndex = line.indexOf (':');
+            if (colonIndex <= 0) {
+                throw new IOException ("Invalid multipart header");
+            }
+            headers.add (line.substring (0, colonIndex).trim(), line.substring (colonIndex + 1).trim());
+        }
+
+        this.currentPart = new MultipartPart (headers, new PartInputStream ());
+        return this.currentPart;
+    }
+
+    /**
+     * Hiermit wird eine Zeile (bis zum CRLF) aus dem Buffer gelesen. Sie muss vollständig in den Buffer passen.
+     * @return Die Zeile ohne CRLF (als UTF-8 interpretiert, da Browser Dateinamen so senden).
+     * @throws IOException Wenn der Body vorher endet oder die Zeile zu lang ist.
+     */
+    private String readLine () throws IOException {
+        // Wie viele Bytes (ab "position") bereits durchsucht wurden. Der Wert bleibt beim Füllen gültig.
+        int scanned = 0;
+        while (true) {
+            for (int index = this.position + scanned; index + 1 < this.limit; index += 1) {
+                if (this.buffer [index] == '\r' && this.buffer [index + 1] == '\n') {
+                    String line = new String (this.buffer, this.position, index - this.position, StandardCharsets.UTF_8);
+                    this.position = index + 2;
+                    return line;
+                }
+            }
+            scanned = Math.max (0, this.limit - this.position - 1);
+            if (this.fill () == false) {
+                throw new IOException ("Unexpected end of multipart body or line too long");
+            }
+        }
+    }
+
+    /**
+     * Hiermit werden die Bytes des aktuellen Teils gelesen, also alles bis zum nächsten Delimiter.
+     * Bytes, die der Anfang eines Delimiters sein könnten, bleiben im Buffer, bis mehr gelesen wurde.
+     * @return Die Anzahl der gelesenen Bytes oder -1, wenn der Delimiter erreicht ist (er steht dann bei "position").
+     * @throws IOException Wenn der Body vor dem Delimiter endet.
+     */
+    private int readPart (byte[] target, int offset, int length) throws IOException {
+        while (true) {
+            int delimiterIndex = this.indexOfDelimiter (this.position);
+            int available;
+            if (delimiterIndex >= 0) {
+                available = delimiterIndex - this.position;
+                if (available == 0) {
+                    return -1;
+                }
+            } else {
+                available = this.limit - this.position - (this.delimiter.length - 1);
+            }
+
+            if (available > 0) {
+                int count = Math.min (available, length);
+                System.arraycopy (this.buffer, this.position, target, offset, count);
+                this.position += count;
+                return count;
+            }
+            if (this.fill () == false) {
+                throw new IOException ("Unexpected end of multipart body");
+            }
+        }
+    }
+
+    /**
+     * Der Stream über einen Teil. Er liest direkt aus dem Buffer des Readers und endet vor dem nächsten Delimiter.
+     */
+    private class PartInputStream extends InputStream {
+
+        private boolean closed = false;
+
+        @Override
+        public int read () throws IOException {
+            byte[] single = new byte [1];
+            int read = this.read (single, 0, 1);
+            return read < 0 ? -1 : (single [0] & 0xFF);
+        }
+
+        @Override
+        public int read (byte[] target, int offset, int length) throws IOException {
+            if (this.closed || MultipartReader.this.currentPart == null) {
+                return -1;
+            }
+            if (length == 0) {
+                return 0;
+            }
+            return MultipartReader.this.readPart (target, offset, length);
+        }
+
+        /**
+         * Hiermit wird der Rest des Teils übersprungen.
+         */
+        @Override
+        public void close () throws IOException {
+            if (this.closed) {
+                return;
+            }
+            byte[] skipBuffer = new byte [1024];
+            while (this.read (skipBuffer, 0, skipBuffer.length) >= 0) {
+                // Der Rest wird verworfen.
+            }
+            this.closed = true;
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package de.hsw.http.helper;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Der Output-Stream einer Verbindung, der beim Pipelining die Antworten mehrerer Anfragen sammeln kann.
+ * Hat der Client bereits die nächste Anfrage gesendet, wird mit "setDeferFlush" festgelegt, dass ein "flush" (z. B. am
+ * Ende von "send") noch nichts sendet. Die Antworten landen so in einem Buffer aus dem BufferPool und werden mit
+ * "flushNow" (nach der letzten bereits gesendeten Anfrage) mit möglichst wenigen Schreibaufrufen gesendet.
+ * Ohne Pipelining werden die Bytes (wie bisher) direkt in den Stream des Sockets geschrieben.
+ * Ist der Buffer voll, wird er auch während des Sammelns geschrieben.
+ */
+public class PipelinedOutputStream extends OutputStream {
+
+    private final OutputStream outputStream;
+
+    // Der Buffer wird nur beim Sammeln aus dem Pool geholt und mit "flushNow" (bzw. "drain") zurückgegeben.
+    private ByteBuffer buffer = null;
+    private boolean deferFlush = false;
+
+    /**
+     * Hiermit wird der Stream über den Output-Stream eines Sockets erstellt.
+     * @param outputStream Der Output-Stream des Sockets.
+     */
+    public PipelinedOutputStream (OutputStream outputStream) {
+        this.outputStream = outputStream;
+    }
+
+    /**
+     * Hiermit wird festgelegt, ob "flush" verzögert wird (weil bereits eine weitere Anfrage wartet).
+     * @param deferFlush "True", wenn die Antworten gesammelt werden sollen.
+     */
+    public void setDeferFlush (boolean deferFlush) {
+        this.deferFlush = deferFlush;
+    }
+
+    @Override
+    public void write (int b) throws IOException {
+        this.write (new byte[] {(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write (byte[] bytes, int offset, int length) throws IOException {
+        // Ohne gesammelte Bytes muss nichts kopiert werden.
+        if (this.deferFlush == false && this.buffer == null) {
+            this.outputStream.write (bytes, offset, length);
+            return;
+        }
+
+        if (this.buffer == null) {
+            this.buffer = BufferPool.getInstance().acquireHeap (BufferPool.MAX_BUFFER_SIZE);
+        }
+        if (length > this.buffer.remaining()) {
+            this.writeBuffered ();
+        }
+        if (length > this.buffer.remaining()) {
+            this.outputStream.write (bytes, offset, length);
+        } else {
+            this.buffer.put (bytes, offset, length);
+        }
+    }
+
+    /**
+     * Hiermit wird geflushed, außer die Antworten werden gerade gesammelt (siehe "setDeferFlush").
+     * @throws IOException
+     */
+    @Override
+    public void flush () throws IOException {
+        if (this.deferFlush) {
+            return;
+        }
+        this.flushNow ();
+    }
+
+    /**
+     * Hiermit werden alle gesammelten Bytes sofort gesendet (z. B. bevor eine Datei direkt in den Channel des Sockets
+     * geschrieben wird oder bevor auf die nächste Anfrage gewartet wird).
+     * @throws IOException
+     */
+    public void flushNow () throws IOException {
+        this.drain ();
+        this.outputStream.flush();
+    }
+
+    /**
+     * Hiermit werden die gesammelten Bytes in den darunterliegenden Stream geschrieben, ohne ihn zu flushen.
+     * Der Buffer geht dabei an den Pool zurück.
+     * @throws IOException
+     */
+    public void drain () throws IOException {
+        if (this.buffer == null) {
+            return;
+        }
+        try {
+            this.writeBuffered ();
+        } finally {
+            BufferPool.getInstance().release (this.buffer);
+            this.buffer = null;
+        }
+    }
+
+    private void writeBuffered () throws IOException {
+        if (this.buffer.position() > 0) {
+            this.outputStream.write (this.buffer.array(), 0, this.buffer.position());
+            this.buffer.clear();
+        }
+    }
+
+    /**
+     * Hiermit wird der Buffer (ohne zu senden) an den Pool zurückgegeben. Dies wird aufgerufen, wenn die Verbindung
+     * geschlossen wird. Der Stream des Sockets wird dabei nicht geschlossen.
+     */
+    @Override
+    public void close () {
+        BufferPool.getInstance().release (this.buffer);
+        this.buffer = null;
+    }
+}
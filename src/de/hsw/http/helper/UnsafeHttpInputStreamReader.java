@@ -1,13 +1,13 @@
 package de.hsw.http.helper;
 
 import de.hsw.errors.ConnectionClosedException;
+import de.hsw.errors.InvalidHttpRequestException;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
-import java.util.ArrayList;
-import java.util.Iterator;
-import java.util.List;
+import java.util.Arrays;
 
 public class UnsafeHttpInputStreamReader {
 
@@ -15,8 +15,20 @@ public class UnsafeHttpInputStreamReader {
     public static final byte CHAR_CR = 0x0D;
     public static final byte CHAR_LF = 0x0A;
 
-    // Der Interne-Buffer als Array-Liste, damit er dynamisch erweitert werden kann.
-    private List<Byte> buffer = new ArrayList<>(512);
+    // Die Größe des internen Buffers und die maximale Länge einer Zeile (Request-Line bzw. Header-Line).
+    private static final int DEFAULT_BUFFER_SIZE = 8 * 1024;
+    private static final int MAX_LINE_LENGTH = 64 * 1024;
+    private static final int MAX_HEADER_SIZE = 64 * 1024;
+
+    // Der Interne-Buffer. Es wird immer in großen Blöcken aus dem Stream gelesen.
+    // Gültig sind nur die Bytes zwischen "position" (das nächste zu lesende Byte) und "limit".
+    // Bytes, die nach einer Anfrage übrig bleiben (Keep-Alive/Pipelining), bleiben für die nächste Anfrage erhalten.
+    // Deshalb muss pro Verbindung genau ein Reader verwendet werden.
+    // Das Array gehört zu einem Buffer aus dem BufferPool und wird mit "release" zurückgegeben.
+    private ByteBuffer pooledBuffer = BufferPool.getInstance().acquireHeap (DEFAULT_BUFFER_SIZE);
+    private byte[] buffer = this.pooledBuffer.array();
+    private int position = 0;
+    private int limit = 0;
 
     // Der Stream, der zum Lesen verwendet wrid.
     private InputStream inputStream;
@@ -25,13 +37,99 @@ public class UnsafeHttpInputStreamReader {
         this.inputStream = inputStream;
     }
 
+    /**
+     * Hiermit wird der Reader auf einen neuen Stream umgestellt. Noch gepufferte Bytes werden verworfen,
+     * der Buffer selbst wird aber wiederverwendet.
+     * @param inputStream Der neue Stream.
+     */
+    public void reset (InputStream inputStream) {
+        this.inputStream = inputStream;
+        this.position = 0;
+        this.limit = 0;
+    }
+
+    /**
+     * Hiermit kann geprüft werden, ob (hinter den nächsten "offset" Bytes) bereits der vollständige Kopf einer weiteren
+     * Anfrage im Buffer liegt. Dies ist der Fall, wenn der Client mehrere Anfragen auf einmal sendet (Pipelining).
+     * Führende Leerzeilen werden (wie in "readHeaderBlock") übersprungen.
+     * @param offset Wie viele Bytes vorher übersprungen werden (z. B. der noch nicht gelesene Body), -1 = unbekannt.
+     * @return "True", wenn eine weitere Anfrage ohne Warten gelesen werden kann. Andernfalls "False".
+     */
+    public boolean hasBufferedRequest (long offset) {
+        if (offset < 0 || offset > this.limit - this.position) {
+            return false;
+        }
+        int start = this.position + (int) offset;
+        while (this.limit - start >= 2 && this.buffer [start] == CHAR_CR && this.buffer [start + 1] == CHAR_LF) {
+            start += 2;
+        }
+        for (int index = start; index + 3 < this.limit; index += 1) {
+            if (this.buffer [index] == CHAR_CR && this.buffer [index + 1] == CHAR_LF && this.buffer [index + 2] == CHAR_CR && this.buffer [index + 3] == CHAR_LF) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Hiermit wird der Buffer an den BufferPool zurückgegeben. Danach darf der Reader nicht mehr verwendet werden.
+     * Dies wird aufgerufen, wenn die Verbindung geschlossen wird.
+     */
+    public void release () {
+        if (this.pooledBuffer == null) {
+            return;
+        }
+        BufferPool.getInstance().release (this.pooledBuffer);
+        this.pooledBuffer = null;
+        this.buffer = new byte [0];
+        this.position = 0;
+        this.limit = 0;
+    }
+
+    /**
+     * Hiermit wird versucht, weitere Bytes aus dem Stream in den Buffer zu lesen.
+     * Bereits gelesene Bytes werden vorher an den Anfang des Buffers geschoben.
+     * Ist der Buffer danach noch immer voll, wird er vergrößert.
+     * @return Die Anzahl an gelesenen Bytes oder -1, wenn der Stream geschlossen wurde.
+     * @throws ConnectionClosedException
+     */
+    private int fill () throws ConnectionClosedException {
+
+        // Schiebe die noch nicht gelesenen Bytes an den Anfang des Buffers:
+        if (this.position > 0) {
+            System.arraycopy (this.buffer, this.position, this.buffer, 0, this.limit - this.position);
+            this.limit -= this.position;
+            this.position = 0;
+        }
+
+        // Ist der Buffer voll, muss er vergrößert werden:
+        if (this.limit == this.buffer.length) {
+            ByteBuffer grown = BufferPool.getInstance().acquireHeap (Math.max (DEFAULT_BUFFER_SIZE, this.buffer.length * 2));
+            System.arraycopy (this.buffer, 0, grown.array(), 0, this.limit);
+            BufferPool.getInstance().release (this.pooledBuffer);
+            this.pooledBuffer = grown;
+            this.buffer = grown.array();
+        }
+
+        try {
+            int read = this.inputStream.read (this.buffer, this.limit, this.buffer.length - this.limit);
+            if (read > 0) {
+                this.limit += read;
+            }
+            return read;
+        } catch (IOException e) {
+            throw new ConnectionClosedException ();
+        }
+    }
+
     /**
      * Hiermit wird eine Line im US-ASCII aus dem Stream gelesen.
      * Das US-ASCII Format wird vor allem in der Request-Line und den Header-Lines verwendet.
      * @return Die Line als US-ASCII String.
      * @throws ConnectionClosedException
+     * @throws InvalidHttpRequestException
      */
-    public String readLineAsUSASCII () throws ConnectionClosedException {
+    public String readLineAsUSASCII () throws ConnectionClosedException, InvalidHttpRequestException {
         byte[] requestLineAsByteArray = this.readUntilCRLF ();
         return new String (requestLineAsByteArray, StandardCharsets.US_ASCII);
     }
@@ -39,101 +137,178 @@ public class UnsafeHttpInputStreamReader {
     /**
      * Hiermit kann eine, nach dem RFC-2616 kodierte Zeile eines HTTP-Requests gelesen werden.
      * Da der PrintReader lediglich bis LF ließt, könnte es "false" positives geben.
-     * Wir benötigen jedoch ein CRLF, dementsprechend lesen wir hier die Bytes einzeln bis CRLF
+     * Wir benötigen jedoch ein CRLF, dementsprechend wird hier im Buffer nach CRLF gesucht.
+     * Ein alleinstehendes "\r" bleibt dabei Teil der Zeile.
      * @return Die gelesenen Bytes.
      * @throws ConnectionClosedException
+     * @throws InvalidHttpRequestException Wenn die Zeile länger als erlaubt ist.
      */
-    public byte[] readUntilCRLF () throws ConnectionClosedException {
+    public byte[] readUntilCRLF () throws ConnectionClosedException, InvalidHttpRequestException {
 
-        boolean foundCR = false;
-        int character;
-        byte characterAsByte;
-
-        // zum Lesen muss zunächst der Buffer gelöscht werden:
-        this.buffer.clear();
+        // Ab dieser Stelle (relativ zu "position") muss noch gesucht werden.
+        int scanned = 0;
 
         // Es soll so lange gelesen werden, bis "\r\n" gefunden wird.
         while (true) {
 
-            // Hole das Byte aus dem Stream:
-            try {
-                character = this.inputStream.read();
-            } catch (IOException e) {
-                throw new ConnectionClosedException ();
+            for (int index = this.position + scanned; index + 1 < this.limit; index += 1) {
+                if (this.buffer [index] == CHAR_CR && this.buffer [index + 1] == CHAR_LF) {
+                    byte[] line = Arrays.copyOfRange (this.buffer, this.position, index);
+                    this.position = index + 2;
+                    return line;
+                }
+            }
+
+            // Das letzte Byte könnte ein "\r" sein, dessen "\n" noch nicht gelesen wurde.
+            // Es muss also beim nächsten Durchlauf erneut geprüft werden.
+            scanned = Math.max (0, this.limit - this.position - 1);
+
+            if (this.limit - this.position >= MAX_LINE_LENGTH) {
+                throw new InvalidHttpRequestException ("Line too long");
             }
 
-            // Ist der Character -1, ist dies wie .readLine () == null.
+            // Ist der Stream geschlossen, ist dies wie .readLine () == null.
             // Der InputStream wurde also vom Client geschlossen.
-            if (character == -1) {
+            if (this.fill () < 0) {
                 throw new ConnectionClosedException ();
             }
+        }
+    }
 
-            characterAsByte = (byte) character;
-
-            // Wenn foundCR an dieser Stelle den boolschen Wert "true" hat,
-            // dann war das letzte Zeichen ein "\r".
-            // Es kann sein, dass das "\r" alleine stehen sollte, oder nun ein "\n" folgt.
-            // Dafür muss nun geprüft werden ob ein "\n" vorliegt.
-            // Andernfalls soll "\r" zum Buffer hinzugefügt werden.
-            if (foundCR == true) {
-                // Wenn das jetzige Zeichen "\n" ist, wurde ein "\r\n", also CRLF, gefunden.
-                // Das Lesen kann nun also abgebrochen werden.
-                if (characterAsByte == CHAR_LF) {
-                    break;
-                }
+    /**
+     * Hiermit wird der gesamte Kopf einer Anfrage (Request-Line und Header bis einschließlich der leeren Zeile) gelesen.
+     * Die Bytes werden dafür nur einmal kopiert, alles Weitere (Strings für Pfad und Header) entsteht erst beim Parsen.
+     * Leere Zeilen vor der Request-Line werden übersprungen (RFC 7230 Sec. 3.5).
+     * @return Die Bytes des Kopfes (endet mit CRLF CRLF).
+     * @throws ConnectionClosedException
+     * @throws InvalidHttpRequestException Wenn der Kopf größer als erlaubt ist.
+     */
+    public byte[] readHeaderBlock () throws ConnectionClosedException, InvalidHttpRequestException {
 
-                // Hier angekommen wurde kein CRLF gefunden.
-                // Es soll "\r" also zum Buffer hinzugefügt, und weitergesucht werden.
-                foundCR = false;
-                this.buffer.add(CHAR_CR);
+        // Ab dieser Stelle (relativ zu "position") muss noch gesucht werden.
+        int scanned = 0;
+
+        while (true) {
+
+            // Überspringe leere Zeilen vor der Request-Line.
+            while (this.limit - this.position >= 2 && this.buffer [this.position] == CHAR_CR && this.buffer [this.position + 1] == CHAR_LF) {
+                this.position += 2;
+                scanned = 0;
             }
 
-            // Wenn "\r" gefunden wird, dann soll dies für das nächste Zeichen vorgemerkt werden.
-            if (characterAsByte == CHAR_CR) {
-                foundCR = true;
-                continue;
+            for (int index = this.position + scanned; index + 3 < this.limit; index += 1) {
+                if (this.buffer [index + 3] == CHAR_LF && this.buffer [index + 2] == CHAR_CR
+                        && this.buffer [index + 1] == CHAR_LF && this.buffer [index] == CHAR_CR) {
+                    byte[] block = Arrays.copyOfRange (this.buffer, this.position, index + 4);
+                    this.position = index + 4;
+                    return block;
+                }
             }
 
-            // Hier angekommen handelt es sich bei dem Zeichen nicht um ein "\r",
-            // also soll es zum Buffer hinzugefügt werden.
-            this.buffer.add(characterAsByte);
+            // Die letzten drei Bytes könnten der Anfang von CRLF CRLF sein.
+            scanned = Math.max (0, this.limit - this.position - 3);
 
+            if (this.limit - this.position >= MAX_HEADER_SIZE) {
+                throw new InvalidHttpRequestException ("Header too large");
+            }
+            if (this.fill () < 0) {
+                throw new ConnectionClosedException ();
+            }
+        }
+    }
+
+    /**
+     * Hiermit können (wie bei "InputStream.read") bis zu "length" Bytes gelesen werden.
+     * Liegen noch Bytes im Buffer, werden nur diese genommen. Andernfalls wird (ohne Umweg über den Buffer)
+     * direkt aus dem Stream gelesen.
+     * @param target Das Array, in das gelesen wird.
+     * @param offset Ab welchem Index in das Array geschrieben wird.
+     * @param length Wie viele Bytes höchstens gelesen werden.
+     * @return Die Anzahl an gelesenen Bytes oder -1, wenn der Stream geschlossen wurde.
+     * @throws ConnectionClosedException
+     */
+    public int read (byte[] target, int offset, int length) throws ConnectionClosedException {
+        if (length == 0) {
+            return 0;
+        }
+
+        int buffered = this.limit - this.position;
+        if (buffered > 0) {
+            int count = Math.min (length, buffered);
+            System.arraycopy (this.buffer, this.position, target, offset, count);
+            this.position += count;
+            return count;
+        }
+
+        try {
+            return this.inputStream.read (target, offset, length);
+        } catch (IOException e) {
+            throw new ConnectionClosedException ();
+        }
+    }
+
+    /**
+     * Hiermit werden die Bytes, die bereits im Buffer liegen, aber noch nicht gelesen wurden, herausgenommen
+     * (z. B. damit die nächste Anfrage an anderer Stelle gelesen werden kann). Aus dem Stream wird dabei nicht gelesen.
+     * @return Die Bytes (ggf. ein leeres Array).
+     */
+    public byte[] takeBuffered () {
+        byte[] result = Arrays.copyOfRange (this.buffer, this.position, this.limit);
+        this.position = this.limit;
+        return result;
+    }
+
+    /**
+     * Hiermit kann abgefragt werden, wie viele Bytes ohne Blockieren gelesen werden können.
+     * @return Die Anzahl an Bytes im Buffer (bzw. die des Streams, wenn der Buffer leer ist).
+     */
+    public int available () {
+        int buffered = this.limit - this.position;
+        if (buffered > 0) {
+            return buffered;
+        }
+        try {
+            return this.inputStream.available();
+        } catch (IOException e) {
+            return 0;
         }
-        return ByteUtils.byteArrayFromDynamicBuffer (this.buffer);
     }
 
     /**
      * Hiermit kann eine gegeben Anzahl an Bytes gelesen werden.
      * Dies ist besonders für das Lesen des Request-Bodys interessant.
+     * Zunächst werden die Bytes aus dem Buffer genommen, der Rest wird direkt aus dem Stream gelesen.
      * @param bytes Die Anzahl an Bytes, die gelesen werden sollen.
      * @return Die gelesenen Bytes.
      * @throws ConnectionClosedException
      */
     public byte[] readBytes (int bytes) throws ConnectionClosedException {
-        int character;
+        byte[] result = new byte [bytes];
 
-        // zum Lesen muss zunächst der Buffer gelöscht werden:
-        this.buffer.clear();
+        // Nimm zunächst die Bytes, die bereits im Buffer liegen:
+        int fromBuffer = Math.min (bytes, this.limit - this.position);
+        System.arraycopy (this.buffer, this.position, result, 0, fromBuffer);
+        this.position += fromBuffer;
 
-        for (int readBytes = 0; readBytes < bytes; readBytes += 1) {
-
-            // Hole das Byte aus dem Stream:
+        // Der Rest wird ohne Umweg über den Buffer direkt in das Ergebnis gelesen.
+        int readBytes = fromBuffer;
+        while (readBytes < bytes) {
+            int read;
             try {
-                character = this.inputStream.read();
+                read = this.inputStream.read (result, readBytes, bytes - readBytes);
             } catch (IOException e) {
                 throw new ConnectionClosedException ();
             }
 
-            // Wenn der Character == -1, dann ist der Stream geschlossen bzw. keine weiteren Daten vorhanden
+            // Wenn read == -1, dann ist der Stream geschlossen bzw. keine weiteren Daten vorhanden
             // In diesem Fall könnte ein Fehler geworfen werden.
             // Wir haben uns aber dazu entschieden die Daten bis dahin zurückzugeben.
-            if (character == -1) {
-                break;
+            if (read < 0) {
+                return Arrays.copyOf (result, readBytes);
             }
-
-            this.buffer.add ((byte) character);
+            readBytes += read;
         }
 
-        return ByteUtils.byteArrayFromDynamicBuffer (this.buffer);
+        return result;
     }
 }
@@ -0,0 +1,97 @@
+package de.hsw.server;
+
+import de.hsw.errors.ConnectionClosedException;
+import de.hsw.errors.InvalidHttpRequestException;
+import de.hsw.http.HttpRequest;
+import de.hsw.http.HttpResponse;
+import de.hsw.http.helper.UnsafeHttpInputStreamReader;
+import de.hsw.server.configs.ServerConfig;
+
+import java.io.OutputStream;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Hier werden die Anfrage- und Antwort-Objekte einer Verbindung verwaltet.
+ * Da eine Verbindung ihre Anfragen nacheinander bearbeitet, reicht pro Verbindung ein Paar an Objekten. Die Header,
+ * der Body-Stream und die Buffer der Antwort werden so für alle Anfragen wiederverwendet, statt pro Anfrage neu
+ * erstellt zu werden.
+ * ! Wichtig: Ein Surflet darf sich die Anfrage oder die Antwort daher nicht über "handleRequest" hinaus merken.
+ * Mit "--recycle=debug" werden Surflets, die dies dennoch tun, durch eine IllegalStateException gefunden.
+ */
+public class RequestRecycler {
+
+    private static volatile ServerConfig.Recycling mode = ServerConfig.Recycling.ON;
+
+    private final OutputStream outputStream;
+    private final WritableByteChannel channel;
+
+    private HttpRequest request = null;
+    private HttpResponse response = null;
+
+    /**
+     * Hiermit wird der Recycler für eine Verbindung erstellt.
+     * @param outputStream Der Output-Stream der Verbindung.
+     * @param channel Der (blockierende) Channel derselben Verbindung oder "null" (siehe HttpResponse).
+     */
+    public RequestRecycler (OutputStream outputStream, WritableByteChannel channel) {
+        this.outputStream = outputStream;
+        this.channel = channel;
+    }
+
+    /**
+     * Hiermit kann eingestellt werden, ob die Objekte wiederverwendet werden.
+     * @param mode Der Modus (siehe ServerConfig.Recycling).
+     */
+    public static void setMode (ServerConfig.Recycling mode) {
+        RequestRecycler.mode = mode;
+    }
+    public static ServerConfig.Recycling getMode () {
+        return RequestRecycler.mode;
+    }
+
+    /**
+     * Hiermit wird die nächste Anfrage aus dem Reader der Verbindung gelesen.
+     * @param reader Der Reader der Verbindung.
+     * @return Die Anfrage. Ist das Recycling aktiv, ist es immer dasselbe Objekt.
+     * @throws ConnectionClosedException
+     * @throws InvalidHttpRequestException
+     */
+    public HttpRequest readRequest (UnsafeHttpInputStreamReader reader)
+            throws ConnectionClosedException, InvalidHttpRequestException
+    {
+        if (this.request == null || RequestRecycler.mode != ServerConfig.Recycling.ON) {
+            this.request = new HttpRequest ();
+        }
+        this.request.readFrom (reader);
+        return this.request;
+    }
+
+    /**
+     * Hiermit wird die Antwort für die aktuelle Anfrage angefordert.
+     * @return Die (zurückgesetzte) Antwort. Ist das Recycling aktiv, ist es immer dasselbe Objekt.
+     */
+    public HttpResponse prepareResponse () {
+        if (this.response == null || RequestRecycler.mode != ServerConfig.Recycling.ON) {
+            this.response = new HttpResponse (this.outputStream, this.channel);
+        } else {
+            this.response.reset ();
+        }
+        return this.response;
+    }
+
+    /**
+     * Hiermit wird mitgeteilt, dass die aktuelle Anfrage vollständig bearbeitet ist.
+     * Mit "--recycle=debug" werden die Objekte dabei gesperrt.
+     */
+    public void release () {
+        if (RequestRecycler.mode != ServerConfig.Recycling.DEBUG) {
+            return;
+        }
+        if (this.request != null) {
+            this.request.release ();
+        }
+        if (this.response != null) {
+            this.response.release ();
+        }
+    }
+}
@@ -1,13 +1,35 @@
 package de.hsw.server;
 
+import de.hsw.http.HttpResponse;
+import de.hsw.http.helper.BufferPool;
+import de.hsw.http.helper.HttpRequestBody;
+import de.hsw.server.configs.ServerConfig;
+import de.hsw.server.nio.NioTransport;
+import de.hsw.sessions.SessionManager;
+import de.hsw.surflets.helper.StaticFileCache;
+
 import java.io.IOException;
+import java.lang.reflect.Method;
+import java.net.InetSocketAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.nio.channels.ServerSocketChannel;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class Server implements Runnable {
 
     private ServerSocket socket;
-    private int port;
+    private ServerConfig config;
+    private ExecutorService executor = null;
     private boolean isRunning = true;
 
     public Server () {
@@ -19,7 +41,147 @@ public class Server implements Runnable {
      * @param port
      */
     public Server (int port) {
-        this.port = port;
+        this (new ServerConfig().setPort (port));
+    }
+
+    /**
+     * Hiermit wird der neue Server mit einer vollständigen Konfiguration erstellt.
+     * @param config Die Konfiguration des Servers (Port, Ausführungsmodus, ...).
+     */
+    public Server (ServerConfig config) {
+        this.config = config;
+    }
+
+    /**
+     * Hiermit wird (abhängig vom Ausführungsmodus) der Executor erstellt, der die Verbindungen abarbeitet.
+     * Im Modus "THREAD_PER_CONNECTION" gibt es keinen Executor, es wird also "null" zurückgegeben.
+     * @return Der Executor oder "null".
+     */
+    private ExecutorService createExecutor () {
+        if (this.config.getExecutionMode() == ServerConfig.ExecutionMode.VIRTUAL) {
+            return this.createVirtualThreadExecutor ();
+        }
+        if (this.config.getExecutionMode() != ServerConfig.ExecutionMode.POOLED) {
+            return null;
+        }
+
+        // Die Warteschlange ist begrenzt, damit Speicher und Anzahl der Threads auch bei Lastspitzen konstant bleiben.
+        // Bei einer Größe von 0 wird jede Verbindung direkt an einen freien Thread übergeben (oder abgelehnt).
+        BlockingQueue<Runnable> queue = this.config.getWorkerQueueSize() > 0
+                ? new ArrayBlockingQueue<>(this.config.getWorkerQueueSize())
+                : new SynchronousQueue<>();
+
+        AtomicInteger threadCounter = new AtomicInteger (0);
+        ThreadFactory threadFactory = runnable -> {
+            Thread thread = new Thread (runnable, "surflet-worker-" + threadCounter.incrementAndGet());
+            thread.setDaemon (true);
+            return thread;
+        };
+
+        return new ThreadPoolExecutor (
+                this.config.getWorkerThreads(),
+                this.config.getWorkerThreads(),
+                0L,
+                TimeUnit.MILLISECONDS,
+                queue,
+                threadFactory,
+                new ThreadPoolExecutor.AbortPolicy()
+        );
+    }
+
+    /**
+     * Hiermit wird ein Executor erstellt, der jede Verbindung in einem eigenen virtuellen Thread abarbeitet.
+     * Da das Projekt noch gegen Java 11 gebaut wird, wird die Methode per Reflection gesucht.
+     * Ist sie in der laufenden JVM nicht vorhanden, wird auf einen Thread pro Verbindung zurückgegriffen.
+     * @return Der Executor oder "null", wenn virtuelle Threads nicht unterstützt werden.
+     */
+    private ExecutorService createVirtualThreadExecutor () {
+        try {
+            Method factory = java.util.concurrent.Executors.class.getMethod ("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factory.invoke (null);
+        } catch (ReflectiveOperationException e) {
+            System.out.println("[WARNING]: virtual threads are not supported by this JVM (Java 21+ required). Falling back to one thread per connection.");
+            return null;
+        }
+    }
+
+    /**
+     * Hiermit wird ein verbundener Client zur Abarbeitung weitergereicht.
+     * @param client Das Socket des Clients.
+     */
+    private void dispatch (Socket client) {
+
+        // Sendet der Client zu lange nichts (z. B. eine ruhende Keep-Alive-Verbindung), endet das Lesen mit einem
+        // Timeout und die Verbindung wird geschlossen. So gibt sie ihren Thread bzw. Worker wieder frei.
+        try {
+            client.setSoTimeout (this.config.getKeepAliveTimeout() * 1000);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+
+        // Ohne Executor wird (wie bisher) ein neuer Thread pro Verbindung gestartet.
+        if (this.executor == null) {
+            new Thread (
+                    new ThreadedHttpRequestHandler(client)
+            ).start ();
+            return;
+        }
+
+        try {
+            this.executor.execute (new ThreadedHttpRequestHandler(client));
+        } catch (RejectedExecutionException e) {
+            this.reject (client);
+        }
+    }
+
+    /**
+     * Hiermit wird ein Client abgewiesen, wenn der Pool und seine Warteschlange voll sind.
+     * Der Client erhält ein "503 Service Unavailable" und die Verbindung wird geschlossen.
+     * @param client Das Socket des Clients.
+     */
+    private void reject (Socket client) {
+        System.out.println("[WARNING]: worker pool exhausted, rejecting client " + client.getRemoteSocketAddress());
+        try {
+            new HttpResponse (client.getOutputStream())
+                    .status (503)
+                    .addHeader ("Connection", "close")
+                    .addHeader ("Retry-After", "1")
+                    .send ();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+
+        try {
+            client.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Hiermit wird der Server mit dem nicht-blockierenden Transport gestartet.
+     * Hier wird jede einzelne Anfrage (und nicht jede Verbindung) an den Executor übergeben.
+     * Im Modus "THREAD_PER_CONNECTION" bekommt also jede Anfrage einen eigenen Thread.
+     */
+    private void startNio () {
+        this.executor = this.createExecutor ();
+        Executor workers = this.executor;
+        if (workers == null) {
+            workers = runnable -> new Thread (runnable).start();
+        }
+
+        System.out.println("[INFORMATION]: server listening on port " + this.config.getPort() + " (transport: nio, loops: " + this.config.getEventLoops() + ", mode: " + this.config.getExecutionMode() + ")");
+
+        try {
+            new NioTransport (this.config.getPort(), this.config.getEventLoops(), workers).start();
+        } catch (IOException e) {
+            e.printStackTrace();
+            System.out.println("[ERROR]: something went wrong opening a socket.");
+        }
+
+        if (this.executor != null) {
+            this.executor.shutdown();
+        }
     }
 
     /**
@@ -27,11 +189,52 @@ public class Server implements Runnable {
      */
     public void start () {
 
+        // Übernimm die Einstellungen für den Ablauf der Sessions:
+        SessionManager sessionManager = SessionManager.getInstance();
+        sessionManager.setIdleTimeout (this.config.getSessionTimeout() * 1000L);
+        sessionManager.setAbsoluteTimeout (this.config.getSessionLifetime() * 1000L);
+        sessionManager.setMaxSessions (this.config.getMaxSessions());
+
+        // Ab welcher Größe Antworten komprimiert werden (gilt auch für die komprimierten Varianten im Cache):
+        HttpResponse.setCompressionThreshold (this.config.getCompressionThreshold());
+
+        // Die maximale Größe eines Anfrage-Bodys:
+        HttpRequestBody.setMaxSize (this.config.getMaxBodySize() * 1024L * 1024L);
+        // Und ab welcher Größe er (bei "asPath"/"asMappedBuffer") in eine temporäre Datei geschrieben wird
+        // (größere Bodys werden auch von "asText"/"asJson" nicht mehr in den Speicher geladen):
+        HttpRequestBody.setSpoolThreshold (this.config.getSpoolThreshold() * 1024L);
+
+        // Ob die Anfrage- und Antwort-Objekte einer Verbindung wiederverwendet werden:
+        RequestRecycler.setMode (this.config.getRecycling());
+
+        // Der BufferPool: Ein Cache pro Thread lohnt sich nur mit einem festen Pool an Threads. Die Buffer im Cache
+        // eines beendeten Threads (ein Thread pro Verbindung bzw. Anfrage) wären sonst für den Pool verloren.
+        BufferPool bufferPool = BufferPool.getInstance();
+        bufferPool.setMaxPooledBytes (this.config.getBufferPoolSize() * 1024L * 1024L);
+        bufferPool.setThreadCaching (this.config.getExecutionMode() == ServerConfig.ExecutionMode.POOLED);
+        bufferPool.setLeakDetection (this.config.isLeakDetection());
+
+        // Und die Größe des Caches für statische Dateien:
+        // Ist der Cache deaktiviert, werden auch keine Dateien gemappt.
+        StaticFileCache.getInstance().setMaxBytes (this.config.getFileCacheSize() * 1024L * 1024L);
+        if (this.config.getFileCacheSize() == 0) {
+            StaticFileCache.getInstance().setMaxMappedBytes (0);
+        }
+
+        if (this.config.getTransport() == ServerConfig.Transport.NIO) {
+            this.startNio ();
+            return;
+        }
+
         boolean serverSocketActive = false;
 
         // Probiere zunächst das ServerSocket zu erstellen:
+        // Es wird über einen (blockierenden) ServerSocketChannel erstellt. So hat auch jedes angenommene Socket einen
+        // Channel, über den Dateien mit "FileChannel.transferTo" gesendet werden können.
         try {
-            this.socket = new ServerSocket (this.port);
+            ServerSocketChannel serverChannel = ServerSocketChannel.open();
+            serverChannel.bind (new InetSocketAddress (this.config.getPort()));
+            this.socket = serverChannel.socket();
             serverSocketActive = true;
         } catch (IOException e) {
             e.printStackTrace();
@@ -43,21 +246,26 @@ public class Server implements Runnable {
             return;
         }
 
-        System.out.println("[INFORMATION]: server listening on port " + this.port);
+        this.executor = this.createExecutor ();
+
+        System.out.println("[INFORMATION]: server listening on port " + this.config.getPort() + " (mode: " + this.config.getExecutionMode() + ")");
 
         while (this.isRunning) {
             try {
-                // Warte bis ein Client sich verbindet und shiebe ihn dann in einen neuen Thread.
+                // Warte bis ein Client sich verbindet und shiebe ihn dann in einen neuen Thread bzw. in den Pool.
                 Socket client = this.socket.accept();
-                new Thread (
-                        new ThreadedHttpRequestHandler(client)
-                ).start ();
+                this.dispatch (client);
             } catch (IOException e) {
                 System.out.println("[ERROR]: some client tried connecting but caused the following error:");
                 e.printStackTrace();
             }
         }
 
+        // Beende den Pool (falls vorhanden):
+        if (this.executor != null) {
+            this.executor.shutdown();
+        }
+
         // Versuche den Server Socket zu schließen:
         try {
             this.socket.close();
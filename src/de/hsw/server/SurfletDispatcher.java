@@ -0,0 +1,64 @@
+package de.hsw.server;
+
+import de.hsw.Surflet;
+import de.hsw.http.HttpRequest;
+import de.hsw.http.HttpResponse;
+import de.hsw.server.configs.SurfletMapper;
+import de.hsw.server.configs.SurfletProvider;
+import de.hsw.surflets.Error404Surflet;
+
+/**
+ * Hier wird eine gelesene Anfrage an das zuständige Surflet übergeben.
+ * Dies wird sowohl vom blockierenden als auch vom NIO-Transport verwendet.
+ */
+public class SurfletDispatcher {
+
+    /**
+     * Hiermit wird das Surflet aus dem Mapper geholt und mit dem Request und der Antwort aufgerufen.
+     * @param request Die Http-Anfrage.
+     * @param response Die Http-Antwort.
+     * @throws Exception Alles, was das Surflet wirft.
+     */
+    public static void dispatch (HttpRequest request, HttpResponse response) throws Exception {
+        try {
+            SurfletDispatcher.handle (request, response);
+        } finally {
+            // Eine temporäre Datei des Bodys wird nach der Bearbeitung gelöscht
+            // und die Buffer der Antwort gehen an den Pool zurück.
+            request.getBody().dispose ();
+            response.dispose ();
+        }
+    }
+
+    private static void handle (HttpRequest request, HttpResponse response) throws Exception {
+        // Gepufferte Antworten werden komprimiert, wenn der Client es erlaubt.
+        response.negotiateContentEncoding (request);
+
+        // Ein zu großer Body wird abgelehnt, bevor er gelesen wird (und, bei "Expect: 100-continue", bevor er gesendet wird).
+        if (request.getBody().isTooLarge ()) {
+            response.status (413).addHeader ("Connection", "close").send ();
+            return;
+        }
+
+        SurfletProvider provider = SurfletMapper.getInstance ().resolveSurfletProvider (request);
+        Surflet surflet;
+        try {
+            surflet = provider.acquire ();
+        } catch (ReflectiveOperationException e) {
+            // Kann keine Instanz erstellt werden, wird (wie bisher) die 404-Seite angezeigt.
+            e.printStackTrace();
+            new Error404Surflet ().handleRequest (request, response);
+            return;
+        }
+
+        surflet.handleRequest (request, response);
+
+        // Hat das Surflet in Chunks gestreamt, aber den Body nicht beendet, wird dies hier nachgeholt.
+        // Andernfalls würde der Client auf weitere Chunks warten.
+        response.finish ();
+
+        // Die Instanz wird nur nach einer erfolgreichen Bearbeitung zurückgegeben.
+        // Hat das Surflet einen Fehler geworfen, könnte sein Zustand ungültig sein.
+        provider.release (surflet);
+    }
+}
@@ -4,14 +4,18 @@ import de.hsw.errors.ConnectionClosedException;
 import de.hsw.errors.InvalidHttpRequestException;
 import de.hsw.http.HttpRequest;
 import de.hsw.http.HttpResponse;
-import de.hsw.Surflet;
-import de.hsw.server.configs.SurfletMapper;
+import de.hsw.http.helper.PipelinedOutputStream;
+import de.hsw.http.helper.UnsafeHttpInputStreamReader;
 
 import java.io.*;
 import java.net.Socket;
 
 public class ThreadedHttpRequestHandler implements Runnable {
 
+    // So viele Bytes eines nicht gelesenen Anfrage-Bodys werden höchstens übersprungen, um die Verbindung weiter
+    // verwenden zu können. Bei größeren Resten wird die Verbindung stattdessen geschlossen.
+    private static final long MAX_SKIPPED_BODY_SIZE = 1024 * 1024;
+
     private Socket socket;
     private String clientAddress;
 
@@ -53,6 +57,23 @@ public class ThreadedHttpRequestHandler implements Runnable {
 
         System.out.println("[INFORMATION]: client connected at " + this.getClientAddress ());
 
+        // Der Reader wird für die gesamte Verbindung verwendet, da er Bytes puffert.
+        // Bytes, die bereits zur nächsten Anfrage gehören, gehen so nicht verloren.
+        // Ebenso werden die Anfrage- und Antwort-Objekte (siehe RequestRecycler) für die gesamte Verbindung verwendet.
+        // Sendet der Client mehrere Anfragen auf einmal (Pipelining), sammelt der Output-Stream ihre Antworten.
+        UnsafeHttpInputStreamReader reader;
+        PipelinedOutputStream output;
+        RequestRecycler recycler;
+        try {
+            output = new PipelinedOutputStream (this.socket.getOutputStream());
+            recycler = new RequestRecycler (output, this.socket.getChannel());
+            reader = new UnsafeHttpInputStreamReader (this.socket.getInputStream());
+        } catch (IOException e) {
+            e.printStackTrace();
+            this.destroy();
+            return;
+        }
+
         // Solange der Client verbunden ist, kann ein HTTP-Request gelesen werden.
         // Da in HTTP/1.1 der Client mehrere Anfragen lesen kann,
         // werden hier die Anfragen nach und nach gelesen und abgearbeitet.
@@ -60,12 +81,23 @@ public class ThreadedHttpRequestHandler implements Runnable {
             try {
 
                 // Versuche den Http-Request zu parsen, und erstelle die Http-Antwort:
-                HttpRequest request = new HttpRequest(this.socket.getInputStream());
-                HttpResponse response = new HttpResponse(this.socket.getOutputStream());
+                HttpRequest request = recycler.readRequest (reader);
+                HttpResponse response = recycler.prepareResponse ();
+
+                // Liegt hinter dieser Anfrage (und ihrem Body) bereits die nächste im Buffer, wird die Antwort nicht
+                // sofort gesendet, sondern mit den Antworten der folgenden Anfragen zusammen.
+                output.setDeferFlush (reader.hasBufferedRequest (request.getBody().getContentLength()));
+
+                // Wartet der Client (Expect: 100-continue) auf eine Bestätigung, wird sie erst beim Lesen des Bodys gesendet.
+                request.getBody().enableContinue (output);
 
                 // Hole das Surflet aus dem Mapper und rufe dies mit dem Request und der Antwort auf:
-                Surflet surflet = SurfletMapper.getInstance ().resolveSurflet(request.getMethod (), request.getPath());
-                surflet.handleRequest(request, response);
+                SurfletDispatcher.dispatch (request, response);
+
+                // Hat das Surflet den Body nicht (vollständig) gelesen, liegen seine Bytes noch vor der nächsten Anfrage.
+                if (request.getBody().skipRemaining (MAX_SKIPPED_BODY_SIZE) == false) {
+                    break;
+                }
 
                 // Wenn in dem Request der Header "connection" enthalten ist, und dort "close" drin steht.
                 // Dann soll das Socket nach der Bearbeitung geschlossen werden:
@@ -73,14 +105,44 @@ public class ThreadedHttpRequestHandler implements Runnable {
                     break;
                 }
 
-            } catch (ConnectionClosedException | InvalidHttpRequestException e) {
+                // Die gesammelten Antworten werden gesendet, bevor auf die nächste Anfrage gewartet wird.
+                if (reader.hasBufferedRequest (0) == false) {
+                    output.flushNow ();
+                }
+
+            } catch (ConnectionClosedException e) {
+                // Der Client hat die Verbindung geschlossen oder zu lange keine Anfrage gesendet (Timeout des Sockets,
+                // siehe ServerConfig "keepAliveTimeout"). Die Verbindung wird geschlossen.
+                break;
+            } catch (InvalidHttpRequestException e) {
+                // Bei einer ungültigen Anfrage (z. B. einem nicht unterstützten Transfer-Encoding) ist unklar, wo die
+                // nächste beginnt. Die Verbindung wird daher nach dem "400 Bad Request" geschlossen.
+                new HttpResponse (output)
+                        .status (400)
+                        .addHeader ("Connection", "close")
+                        .send ();
                 break;
             } catch (Exception e) {
                 e.printStackTrace();
                 break;
+            } finally {
+                // Ab hier darf die Anfrage (bzw. die Antwort) nicht mehr verwendet werden.
+                recycler.release ();
             }
         }
 
+        // Noch gesammelte Antworten werden vor dem Schließen gesendet.
+        try {
+            output.setDeferFlush (false);
+            output.flushNow ();
+        } catch (IOException e) {
+            // Der Client hat die Verbindung bereits geschlossen.
+        }
+
+        // Die Buffer des Readers und des Output-Streams gehen an den Pool zurück.
+        reader.release ();
+        output.close ();
+
         System.out.println("[INFORMATION]: connection closed for client " + this.getClientAddress ());
         this.destroy();
 
@@ -0,0 +1,431 @@
+package de.hsw.server.configs;
+
+public class ServerConfig {
+
+    /**
+     * In dieser Enum sind alle Varianten aufgelistet, wie der Server die Verbindungen der Clients abarbeiten kann.
+     */
+    public enum ExecutionMode {
+
+        // Für jede Verbindung wird ein eigener Thread gestartet (ursprüngliches Verhalten).
+        THREAD_PER_CONNECTION ("thread"),
+
+        // Die Verbindungen werden von einem festen Pool an Threads abgearbeitet.
+        // Ist der Pool und seine Warteschlange voll, wird der Client mit einem 503 abgewiesen.
+        POOLED ("pooled"),
+
+        // Für jede Verbindung wird ein virtueller Thread gestartet (erst ab Java 21 verfügbar).
+        // Da die Surflets und der Reader fast ausschließlich blockieren, kostet eine wartende Verbindung so nur ein
+        // Objekt auf dem Heap. Wichtig: Blockierende I/O darf nicht in "synchronized" Blöcken stattfinden,
+        // da sonst der Träger-Thread blockiert wird (Pinning).
+        VIRTUAL ("virtual");
+
+        private final String stringValue;
+        ExecutionMode (String stringValue) {
+            this.stringValue = stringValue;
+        }
+        @Override public String toString () {
+            return this.stringValue;
+        }
+
+        /**
+         * Hiermit kann ein Modus aus seiner String-Repräsentation gelesen werden.
+         * @param value Die String-Repräsentation (z. B. "pooled").
+         * @return Der entsprechende Modus.
+         */
+        public static ExecutionMode fromString (String value) {
+            for (ExecutionMode mode : ExecutionMode.values()) {
+                if (mode.stringValue.equalsIgnoreCase (value.trim())) {
+                    return mode;
+                }
+            }
+            throw new IllegalArgumentException ("Unknown execution mode \"" + value + "\"");
+        }
+    }
+
+    /**
+     * In dieser Enum sind alle Varianten aufgelistet, wie der Server die Verbindungen annimmt und liest.
+     */
+    public enum Transport {
+
+        // Blockierendes ServerSocket: jede Verbindung belegt einen Thread, solange sie offen ist.
+        BLOCKING ("blocking"),
+
+        // Nicht-blockierende Event-Loops auf Basis eines Selectors.
+        // Nur vollständig gelesene Anfragen werden an einen Thread (siehe ExecutionMode) übergeben,
+        // wartende Keep-Alive-Verbindungen belegen also keinen Thread.
+        NIO ("nio");
+
+        private final String stringValue;
+        Transport (String stringValue) {
+            this.stringValue = stringValue;
+        }
+        @Override public String toString () {
+            return this.stringValue;
+        }
+
+        /**
+         * Hiermit kann ein Transport aus seiner String-Repräsentation gelesen werden.
+         * @param value Die String-Repräsentation (z. B. "nio").
+         * @return Der entsprechende Transport.
+         */
+        public static Transport fromString (String value) {
+            for (Transport transport : Transport.values()) {
+                if (transport.stringValue.equalsIgnoreCase (value.trim())) {
+                    return transport;
+                }
+            }
+            throw new IllegalArgumentException ("Unknown transport \"" + value + "\"");
+        }
+    }
+
+    /**
+     * In dieser Enum sind alle Varianten aufgelistet, wie die Anfrage- und Antwort-Objekte einer Verbindung
+     * verwendet werden (siehe RequestRecycler).
+     */
+    public enum Recycling {
+
+        // Pro Verbindung werden eine Anfrage und eine Antwort (samt ihren Buffern) für alle Anfragen wiederverwendet.
+        ON ("on"),
+
+        // Für jede Anfrage werden neue Objekte erstellt (ursprüngliches Verhalten).
+        OFF ("off"),
+
+        // Wie "off", aber die Objekte werden nach der Bearbeitung gesperrt. Jeder spätere Zugriff wirft eine
+        // IllegalStateException. So fallen Surflets auf, die sich die Anfrage oder die Antwort merken.
+        DEBUG ("debug");
+
+        private final String stringValue;
+        Recycling (String stringValue) {
+            this.stringValue = stringValue;
+        }
+        @Override public String toString () {
+            return this.stringValue;
+        }
+
+        /**
+         * Hiermit kann ein Modus aus seiner String-Repräsentation gelesen werden.
+         * @param value Die String-Repräsentation (z. B. "debug").
+         * @return Der entsprechende Modus.
+         */
+        public static Recycling fromString (String value) {
+            for (Recycling recycling : Recycling.values()) {
+                if (recycling.stringValue.equalsIgnoreCase (value.trim())) {
+                    return recycling;
+                }
+            }
+            throw new IllegalArgumentException ("Unknown recycling mode \"" + value + "\"");
+        }
+    }
+
+    private int port = 8080;
+    private Transport transport = Transport.BLOCKING;
+    private int eventLoops = Runtime.getRuntime().availableProcessors();
+    private ExecutionMode executionMode = ExecutionMode.THREAD_PER_CONNECTION;
+    private int workerThreads = Runtime.getRuntime().availableProcessors() * 8;
+    private int workerQueueSize = 256;
+
+    // Wie lange (in Sekunden) eine Verbindung ohne neue Bytes vom Client offen bleibt (0 = unbegrenzt).
+    // Beim blockierenden Transport hält sonst jede ruhende Keep-Alive-Verbindung einen Thread (bzw. Worker) fest.
+    private int keepAliveTimeout = 15;
+
+    // Der Ablauf der Sessions (in Sekunden, 0 = nie) und die maximale Anzahl an Sessions (0 = unbegrenzt).
+    private long sessionTimeout = 30 * 60;
+    private long sessionLifetime = 24 * 60 * 60;
+    private int maxSessions = 100_000;
+
+    // Die Größe des Caches für statische Dateien (in Megabytes, 0 = deaktiviert).
+    private long fileCacheSize = 32;
+
+    // Ab welcher Größe (in Bytes) Antworten komprimiert werden (0 = deaktiviert).
+    private int compressionThreshold = 1024;
+
+    // Wie groß ein Anfrage-Body höchstens sein darf (in Megabytes, 0 = unbegrenzt).
+    private long maxBodySize = 0;
+
+    // Ab welcher Größe (in Kilobytes) ein Anfrage-Body in eine temporäre Datei geschrieben wird.
+    // Größere Bodys können nicht mehr im Speicher (z. B. mit "asText") gelesen werden.
+    private long spoolThreshold = 1024;
+
+    // Ob die Anfrage- und Antwort-Objekte einer Verbindung wiederverwendet werden.
+    private Recycling recycling = Recycling.ON;
+
+    // Wie viele Bytes der BufferPool höchstens zurückbehält (in Megabytes) und ob er Leaks sucht (nur zum Testen).
+    private long bufferPoolSize = 32;
+    private boolean leakDetection = false;
+
+    /**
+     * Hiermit kann eine Konfiguration aus den Kommandozeilen-Argumenten erstellt werden.
+     * Das erste Argument ist (wie bisher) der Port. Alle weiteren Argumente haben die Form "--<name>=<wert>":
+     * --mode=thread|pooled|virtual, --workers=<anzahl>, --queue=<anzahl>, --transport=blocking|nio, --loops=<anzahl>,
+     * --keep-alive-timeout=<sekunden>,
+     * --session-timeout=<sekunden>, --session-lifetime=<sekunden>, --sessions=<anzahl>, --file-cache=<megabytes>,
+     * --compression=<bytes>, --max-body=<megabytes>, --spool-threshold=<kilobytes>,
+     * --recycle=on|off|debug, --buffer-pool=<megabytes>, --leak-detection=on|off
+     * @param args Die Kommandozeilen-Argumente.
+     * @return Die daraus resultierende Konfiguration.
+     */
+    public static ServerConfig fromArguments (String[] args) {
+        ServerConfig config = new ServerConfig();
+
+        for (int index = 0; index < args.length; index += 1) {
+            String argument = args [index].trim();
+
+            // Ein Argument ohne "--" ist der Port (so wie es auch schon vorher war).
+            if (argument.startsWith ("--") == false) {
+                try {
+                    config.setPort (Integer.parseInt (argument));
+                } catch (RuntimeException e) {
+                    System.out.println("[ERROR]: the port \"" + argument + "\" is invalid and is discarded.");
+                }
+                continue;
+            }
+
+            int equalIndex = argument.indexOf ('=');
+            if (equalIndex < 0) {
+                System.out.println("[ERROR]: the argument \"" + argument + "\" is malformatted and is discarded.");
+                continue;
+            }
+
+            String name = argument.substring (2, equalIndex).trim().toLowerCase();
+            String value = argument.substring (equalIndex + 1).trim();
+
+            try {
+                switch (name) {
+                    case "mode":
+                        config.setExecutionMode (ExecutionMode.fromString (value));
+                        break;
+                    case "workers":
+                        config.setWorkerThreads (Integer.parseInt (value));
+                        break;
+                    case "queue":
+                        config.setWorkerQueueSize (Integer.parseInt (value));
+                        break;
+                    case "transport":
+                        config.setTransport (Transport.fromString (value));
+                        break;
+                    case "loops":
+                        config.setEventLoops (Integer.parseInt (value));
+                        break;
+                    case "keep-alive-timeout":
+                        config.setKeepAliveTimeout (Integer.parseInt (value));
+                        break;
+                    case "session-timeout":
+                        config.setSessionTimeout (Long.parseLong (value));
+                        break;
+                    case "session-lifetime":
+                        config.setSessionLifetime (Long.parseLong (value));
+                        break;
+                    case "sessions":
+                        config.setMaxSessions (Integer.parseInt (value));
+                        break;
+                    case "file-cache":
+                        config.setFileCacheSize (Long.parseLong (value));
+                        break;
+                    case "compression":
+                        config.setCompressionThreshold (Integer.parseInt (value));
+                        break;
+                    case "max-body":
+                        config.setMaxBodySize (Long.parseLong (value));
+                        break;
+                    case "spool-threshold":
+                        config.setSpoolThreshold (Long.parseLong (value));
+                        break;
+                    case "recycle":
+                        config.setRecycling (Recycling.fromString (value));
+                        break;
+                    case "buffer-pool":
+                        config.setBufferPoolSize (Long.parseLong (value));
+                        break;
+                    case "leak-detection":
+                        config.setLeakDetection (ServerConfig.parseSwitch (value));
+                        break;
+                    default:
+                        System.out.println("[ERROR]: unknown argument \"" + name + "\".");
+                }
+            } catch (RuntimeException e) {
+                System.out.println("[ERROR]: the value of the argument \"" + name + "\" is invalid and is discarded.");
+            }
+        }
+
+        return config;
+    }
+
+    /**
+     * Hiermit wird ein Schalter ("on" bzw. "off") gelesen.
+     * @param value Der Wert des Arguments.
+     * @return "True" für "on". "False" für "off".
+     */
+    private static boolean parseSwitch (String value) {
+        if (value.equalsIgnoreCase ("on")) {
+            return true;
+        }
+        if (value.equalsIgnoreCase ("off")) {
+            return false;
+        }
+        throw new IllegalArgumentException ("Expected \"on\" or \"off\" but got \"" + value + "\"");
+    }
+
+    public int getPort () {
+        return this.port;
+    }
+    public Transport getTransport () {
+        return this.transport;
+    }
+    public int getEventLoops () {
+        return this.eventLoops;
+    }
+    public ExecutionMode getExecutionMode () {
+        return this.executionMode;
+    }
+    public int getWorkerThreads () {
+        return this.workerThreads;
+    }
+    public int getWorkerQueueSize () {
+        return this.workerQueueSize;
+    }
+    public int getKeepAliveTimeout () {
+        return this.keepAliveTimeout;
+    }
+    public long getSessionTimeout () {
+        return this.sessionTimeout;
+    }
+    public long getSessionLifetime () {
+        return this.sessionLifetime;
+    }
+    public int getMaxSessions () {
+        return this.maxSessions;
+    }
+    public long getFileCacheSize () {
+        return this.fileCacheSize;
+    }
+    public int getCompressionThreshold () {
+        return this.compressionThreshold;
+    }
+    public long getMaxBodySize () {
+        return this.maxBodySize;
+    }
+    public long getSpoolThreshold () {
+        return this.spoolThreshold;
+    }
+    public Recycling getRecycling () {
+        return this.recycling;
+    }
+    public long getBufferPoolSize () {
+        return this.bufferPoolSize;
+    }
+    public boolean isLeakDetection () {
+        return this.leakDetection;
+    }
+
+    // Die Setter geben jeweils die Konfiguration zurück, damit method chaining verwendet werden kann.
+    public ServerConfig setPort (int port) {
+        this.port = port;
+        return this;
+    }
+    public ServerConfig setTransport (Transport transport) {
+        this.transport = transport;
+        return this;
+    }
+    public ServerConfig setEventLoops (int eventLoops) {
+        if (eventLoops < 1) {
+            throw new IllegalArgumentException ("At least one event loop is required");
+        }
+        this.eventLoops = eventLoops;
+        return this;
+    }
+    public ServerConfig setExecutionMode (ExecutionMode executionMode) {
+        this.executionMode = executionMode;
+        return this;
+    }
+    public ServerConfig setWorkerThreads (int workerThreads) {
+        if (workerThreads < 1) {
+            throw new IllegalArgumentException ("At least one worker thread is required");
+        }
+        this.workerThreads = workerThreads;
+        return this;
+    }
+    public ServerConfig setWorkerQueueSize (int workerQueueSize) {
+        if (workerQueueSize < 0) {
+            throw new IllegalArgumentException ("The queue size must not be negative");
+        }
+        this.workerQueueSize = workerQueueSize;
+        return this;
+    }
+    public ServerConfig setKeepAliveTimeout (int keepAliveTimeout) {
+        if (keepAliveTimeout < 0 || keepAliveTimeout > Integer.MAX_VALUE / 1000) {
+            throw new IllegalArgumentException ("The keep-alive timeout must be between 0 and " + (Integer.MAX_VALUE / 1000) + " seconds");
+        }
+        this.keepAliveTimeout = keepAliveTimeout;
+        return this;
+    }
+    public ServerConfig setSessionTimeout (long sessionTimeout) {
+        if (sessionTimeout < 0) {
+            throw new IllegalArgumentException ("The session timeout must not be negative");
+        }
+        this.sessionTimeout = sessionTimeout;
+        return this;
+    }
+    public ServerConfig setSessionLifetime (long sessionLifetime) {
+        if (sessionLifetime < 0) {
+            throw new IllegalArgumentException ("The session lifetime must not be negative");
+        }
+        this.sessionLifetime = sessionLifetime;
+        return this;
+    }
+    public ServerConfig setMaxSessions (int maxSessions) {
+        if (maxSessions < 0) {
+            throw new IllegalArgumentException ("The maximum number of sessions must not be negative");
+        }
+        this.maxSessions = maxSessions;
+        return this;
+    }
+    public ServerConfig setFileCacheSize (long fileCacheSize) {
+        if (fileCacheSize < 0) {
+            throw new IllegalArgumentException ("The file cache size must not be negative");
+        }
+        this.fileCacheSize = fileCacheSize;
+        return this;
+    }
+    public ServerConfig setCompressionThreshold (int compressionThreshold) {
+        if (compressionThreshold < 0) {
+            throw new IllegalArgumentException ("The compression threshold must not be negative");
+        }
+        this.compressionThreshold = compressionThreshold;
+        return this;
+    }
+    public ServerConfig setMaxBodySize (long maxBodySize) {
+        if (maxBodySize < 0) {
+            throw new IllegalArgumentException ("The maximum body size must not be negative");
+        }
+        this.maxBodySize = maxBodySize;
+        return this;
+    }
+    public ServerConfig setSpoolThreshold (long spoolThreshold) {
+        if (spoolThreshold < 0) {
+            throw new IllegalArgumentException ("The spool threshold must not be negative");
+        }
+        this.spoolThreshold = spoolThreshold;
+        return this;
+    }
+    public ServerConfig setRecycling (Recycling recycling) {
+        this.recycling = recycling;
+        return this;
+    }
+    public ServerConfig setBufferPoolSize (long bufferPoolSize) {
+        if (bufferPoolSize < 0) {
+            throw new IllegalArgumentException ("The buffer pool size must not be negative");
+        }
+        this.bufferPoolSize = bufferPoolSize;
+        return this;
+    }
+    public ServerConfig setLeakDetection (boolean leakDetection) {
+        this.leakDetection = leakDetection;
+        return this;
+    }
+
+    @Override
+    public String toString () {
+        return "ServerConfig {port=" + this.port + ";transport=" + this.transport + ";loops=" + this.eventLoops + ";mode=" + this.executionMode + ";workers=" + this.workerThreads + ";queue=" + this.workerQueueSize + ";keepAliveTimeout=" + this.keepAliveTimeout + ";sessionTimeout=" + this.sessionTimeout + ";sessionLifetime=" + this.sessionLifetime + ";sessions=" + this.maxSessions + ";fileCache=" + this.fileCacheSize + ";compression=" + this.compressionThreshold + ";maxBody=" + this.maxBodySize + ";spoolThreshold=" + this.spoolThreshold + ";recycle=" + this.recycling + ";bufferPool=" + this.bufferPoolSize + ";leakDetection=" + this.leakDetection + "}";
+    }
+}
@@ -87,11 +87,17 @@ public class SurfletMapper {
                 }
 
                 // Hole die jeweiligen Attribute:
+                // "scope" (singleton|prototype|pooled) und "poolSize" sind optional.
                 String surfletId = element.getAttribute("id");
                 String qualifyingClassName = element.getAttribute("class");
+                SurfletProvider.Scope scope = SurfletProvider.Scope.fromString (element.getAttribute("scope"));
+                int poolSize = SurfletProvider.DEFAULT_POOL_SIZE;
+                if (element.hasAttribute("poolSize")) {
+                    poolSize = Integer.parseInt (element.getAttribute("poolSize").trim());
+                }
 
                 // Lade die Klasse mithilfe des Class-Loaders und dem Fully-Qualifying-Class-Name:
-                Class loaded = loader.loadClass(qualifyingClassName);
+                Class<?> loaded = loader.loadClass(qualifyingClassName);
 
                 // Nun soll sichergestellt werden, dass die geladene Klasse auch das Interface "Surflet" implementiert:
                 boolean hasSurfletInterface = false;
@@ -110,7 +116,7 @@ public class SurfletMapper {
 
                 // Hier angekommen ist alles i. O.
                 // Es kann also das Mapping erstellt werden:
-                mapper.registerSurflet (surfletId, loaded);
+                mapper.registerSurflet (surfletId, loaded.asSubclass (Surflet.class), scope, poolSize);
             }
 
             // Anschließend sollen die Mappings zwischen Methode, Pfad und SurfletId hergestellt werden.
@@ -153,7 +159,7 @@ public class SurfletMapper {
         return mapper;
     }
 
-    private static SurfletMapper instance = null;
+    private static volatile SurfletMapper instance = null;
     public static SurfletMapper getInstance () {
         return SurfletMapper.getInstance ("web.xml");
     }
@@ -172,12 +178,14 @@ public class SurfletMapper {
     }
 
     // Hier werden die Surflets mit ihrer Id und die Mappings dazu gespeichert:
-    private Map<String, Class> surflets = new HashMap<>();
-    private Map<String, String> pathMapping = new HashMap<>();
+    private Map<String, SurfletProvider> surflets = new HashMap<>();
+    private SurfletRouter router = new SurfletRouter();
+    private Map<String, String> defaultMapping = new HashMap<>();
 
     private SurfletMapper () {
-        this.registerSurflet("$default", (Class) Error404Surflet.class);
-        this.registerSurflet("$file", (Class) StaticFileSurflet.class);
+        // Die eingebauten Surflets sind zustandslos und können daher als Singleton verwendet werden.
+        this.registerSurflet("$default", Error404Surflet.class, SurfletProvider.Scope.SINGLETON, 1);
+        this.registerSurflet("$file", StaticFileSurflet.class, SurfletProvider.Scope.SINGLETON, 1);
         this.createMapping("ALL", "default", "$default");
     }
 
@@ -187,7 +195,22 @@ public class SurfletMapper {
      * @param surflet
      */
     public void registerSurflet (String surfletId, Class surflet) {
-        this.surflets.put(surfletId, surflet);
+        this.registerSurflet (surfletId, ((Class<?>) surflet).asSubclass (Surflet.class), SurfletProvider.Scope.PROTOTYPE, SurfletProvider.DEFAULT_POOL_SIZE);
+    }
+
+    /**
+     * Hiermit kann ein Surflet mit einem bestimmten Lebenszyklus unter einer bestimmten Id regestriert werden.
+     * @param surfletId Die Id des Surflets.
+     * @param surflet Die Klasse des Surflets.
+     * @param scope Der Lebenszyklus (singleton, prototype oder pooled).
+     * @param poolSize Wie viele Instanzen beim Scope "pooled" maximal vorgehalten werden.
+     */
+    public void registerSurflet (String surfletId, Class<? extends Surflet> surflet, SurfletProvider.Scope scope, int poolSize) {
+        try {
+            this.surflets.put(surfletId, new SurfletProvider (surflet, scope, poolSize));
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalArgumentException ("The surflet \"" + surfletId + "\" needs a public constructor without parameters", e);
+        }
     }
 
     public boolean hasSurflet (String surfletId) {
@@ -196,6 +219,8 @@ public class SurfletMapper {
 
     /**
      * Hiermit kann ein neues Mapping hinzugefügt werden:
+     * Der Pfad kann Pfad-Parameter ("/task/{id}") und am Ende eine Wildcard ("/static/*") enthalten.
+     * Der Spezialfall "default" legt das Surflet fest, das verwendet wird, wenn keine Route passt.
      * @param method Die Methode, unter der das Mapping hinzugefügt werden soll.
      * @param path Der Pfad für das Surflet.
      * @param surfletId Die Id des aufzurufenden Surflets.
@@ -213,7 +238,11 @@ public class SurfletMapper {
         }
 
         // Hier wird das Mapping tatsächlich erstellt.
-        this.pathMapping.put(method + "-" + path, surfletId);
+        if (path.equals ("default")) {
+            this.defaultMapping.put (method, surfletId);
+            return;
+        }
+        this.router.addRoute (HttpRequest.RequestMethod.valueOf (method), path, surfletId);
     }
 
     /**
@@ -224,27 +253,56 @@ public class SurfletMapper {
      * @return Das Surflet, dass für die Bearbeitung dieser Anfrage zuständig ist.
      */
     public Surflet resolveSurflet (HttpRequest.RequestMethod method, String path) {
-        String key = method.toString() + "-" + path;
-
-        // Wenn zu dieser Kombination kein Surflet gefunden werden kann, dann wird der Key zum default Surflet gemappt.
-        if (this.pathMapping.containsKey(key) == false) {
-            key = "GET-default";
-        }
-
-        // Hole das zuständige Surflet über die jeweiligen Maps.
         try {
-            return (Surflet) this.surflets.get(
-                    this.pathMapping.get(key)
-            ).getDeclaredConstructor().newInstance();
+            return this.resolveSurfletProvider (method, path).acquire();
         } catch (Exception e) {
             e.printStackTrace();
             return new Error404Surflet();
         }
+    }
+
+    /**
+     * Hiermit kann eine Pfad-Methoden Kombination zum Provider eines Surflets aufgelöst werden.
+     * Über den Provider kann eine Instanz geholt ("acquire") und nach der Bearbeitung zurückgegeben ("release")
+     * werden, was für den Scope "pooled" notwendig ist.
+     * @param method Die Http-Methode des Aufrufs.
+     * @param path Der Pfad des Aufrufs.
+     * @return Der Provider des Surflets, dass für die Bearbeitung dieser Anfrage zuständig ist.
+     */
+    public SurfletProvider resolveSurfletProvider (HttpRequest.RequestMethod method, String path) {
+        return this.resolveSurfletProvider (method, path, null);
+    }
+
+    /**
+     * Hiermit kann eine Anfrage zum Provider eines Surflets aufgelöst werden.
+     * Enthält die passende Route Pfad-Parameter, werden diese am Request gesetzt.
+     * @param request Die Http-Anfrage.
+     * @return Der Provider des Surflets, dass für die Bearbeitung dieser Anfrage zuständig ist.
+     */
+    public SurfletProvider resolveSurfletProvider (HttpRequest request) {
+        return this.resolveSurfletProvider (request.getMethod (), request.getPath (), request);
+    }
+
+    /**
+     * Hier wird das eigentliche Auflösen getan.
+     * @param method Die Http-Methode des Aufrufs.
+     * @param path Der Pfad des Aufrufs.
+     * @param request Die Http-Anfrage (für die Pfad-Parameter) oder "null".
+     * @return Der Provider des Surflets.
+     */
+    private SurfletProvider resolveSurfletProvider (HttpRequest.RequestMethod method, String path, HttpRequest request) {
+        String surfletId = this.router.route (method, path, request);
+
+        // Wenn zu dieser Kombination kein Surflet gefunden werden kann, dann wird das default Surflet verwendet.
+        if (surfletId == null) {
+            surfletId = this.defaultMapping.get ("GET");
+        }
 
+        return this.surflets.get (surfletId);
     }
 
     @Override
     public String toString () {
-        return "SurfletMapper {pathMappings=" + this.pathMapping + ";surfletMappings=" + this.surflets + "}";
+        return "SurfletMapper {pathMappings=" + this.router + ";defaultMappings=" + this.defaultMapping + ";surfletMappings=" + this.surflets + "}";
     }
 }
@@ -0,0 +1,169 @@
+package de.hsw.server.configs;
+
+import de.hsw.Surflet;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Ein Provider liefert die Instanzen eines Surflets, abhängig von dessen Lebenszyklus (Scope).
+ * Der Konstruktor des Surflets wird dabei nur einmal (beim Laden der Config) als MethodHandle aufgelöst,
+ * sodass pro Anfrage keine reflektive Suche nach dem Konstruktor mehr nötig ist.
+ */
+public class SurfletProvider {
+
+    public static final int DEFAULT_POOL_SIZE = 16;
+
+    /**
+     * In dieser Enum sind alle unterstützten Lebenszyklen eines Surflets vorhanden.
+     */
+    public enum Scope {
+
+        // Es gibt genau eine Instanz, die von allen Anfragen (gleichzeitig!) verwendet wird.
+        // Das Surflet muss also thread-safe sein.
+        SINGLETON ("singleton"),
+
+        // Für jede Anfrage wird eine neue Instanz erstellt (ursprüngliches Verhalten).
+        PROTOTYPE ("prototype"),
+
+        // Es wird eine kleine Menge an Instanzen vorgehalten. Jede Instanz wird immer nur von einer Anfrage verwendet.
+        POOLED ("pooled");
+
+        private final String stringValue;
+        Scope (String stringValue) {
+            this.stringValue = stringValue;
+        }
+        @Override public String toString () {
+            return this.stringValue;
+        }
+
+        /**
+         * Hiermit kann ein Scope aus seiner String-Repräsentation gelesen werden.
+         * Ist der String leer, wird "prototype" verwendet.
+         * @param value Die String-Repräsentation (z. B. "singleton").
+         * @return Der entsprechende Scope.
+         */
+        public static Scope fromString (String value) {
+            if (value == null || value.trim().isEmpty()) {
+                return Scope.PROTOTYPE;
+            }
+            for (Scope scope : Scope.values()) {
+                if (scope.stringValue.equalsIgnoreCase (value.trim())) {
+                    return scope;
+                }
+            }
+            throw new IllegalArgumentException ("Unknown surflet scope \"" + value + "\"");
+        }
+    }
+
+    private final Class<? extends Surflet> surfletClass;
+    private final Scope scope;
+    private final MethodHandle constructor;
+
+    // Nur für den Scope "singleton":
+    private final Surflet singleton;
+
+    // Nur für den Scope "pooled":
+    private final int maxPoolSize;
+    private final Queue<Surflet> pool = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pooledInstances = new AtomicInteger (0);
+
+    /**
+     * Hiermit wird ein Provider mit dem Scope "prototype" erstellt.
+     * @param surfletClass Die Klasse des Surflets.
+     * @throws ReflectiveOperationException Wenn die Klasse keinen öffentlichen, parameterlosen Konstruktor hat.
+     */
+    public SurfletProvider (Class<? extends Surflet> surfletClass) throws ReflectiveOperationException {
+        this (surfletClass, Scope.PROTOTYPE, DEFAULT_POOL_SIZE);
+    }
+
+    /**
+     * Hiermit wird ein Provider erstellt.
+     * @param surfletClass Die Klasse des Surflets.
+     * @param scope Der Lebenszyklus der Instanzen.
+     * @param maxPoolSize Wie viele Instanzen beim Scope "pooled" maximal vorgehalten werden.
+     * @throws ReflectiveOperationException Wenn die Klasse keinen öffentlichen, parameterlosen Konstruktor hat.
+     */
+    public SurfletProvider (Class<? extends Surflet> surfletClass, Scope scope, int maxPoolSize) throws ReflectiveOperationException {
+        this.surfletClass = surfletClass;
+        this.scope = scope;
+        this.maxPoolSize = Math.max (maxPoolSize, 1);
+
+        // Löse den Konstruktor einmalig auf und passe den Typ an, damit er mit "invokeExact" aufgerufen werden kann.
+        this.constructor = MethodHandles
+                .publicLookup()
+                .findConstructor (surfletClass, MethodType.methodType (void.class))
+                .asType (MethodType.methodType (Surflet.class));
+
+        this.singleton = scope == Scope.SINGLETON ? this.newInstance() : null;
+    }
+
+    /**
+     * Hiermit wird eine neue Instanz des Surflets über den MethodHandle erstellt.
+     * @return Die neue Instanz.
+     * @throws ReflectiveOperationException
+     */
+    private Surflet newInstance () throws ReflectiveOperationException {
+        try {
+            return (Surflet) this.constructor.invokeExact();
+        } catch (Error | RuntimeException e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new ReflectiveOperationException ("Could not instantiate " + this.surfletClass.getName(), e);
+        }
+    }
+
+    /**
+     * Hiermit wird eine Instanz des Surflets für die Bearbeitung einer Anfrage geholt.
+     * Nach der Bearbeitung muss sie mit "release" zurückgegeben werden.
+     * @return Die Instanz des Surflets.
+     * @throws ReflectiveOperationException
+     */
+    public Surflet acquire () throws ReflectiveOperationException {
+        switch (this.scope) {
+            case SINGLETON:
+                return this.singleton;
+            case POOLED:
+                Surflet pooled = this.pool.poll();
+                if (pooled != null) {
+                    this.pooledInstances.decrementAndGet();
+                    return pooled;
+                }
+                return this.newInstance();
+            default:
+                return this.newInstance();
+        }
+    }
+
+    /**
+     * Hiermit wird eine Instanz nach der Bearbeitung einer Anfrage zurückgegeben.
+     * Nur beim Scope "pooled" wird sie (wenn noch Platz ist) für die nächste Anfrage aufbewahrt.
+     * @param surflet Die Instanz des Surflets.
+     */
+    public void release (Surflet surflet) {
+        if (this.scope != Scope.POOLED || surflet == null) {
+            return;
+        }
+        if (this.pooledInstances.incrementAndGet() > this.maxPoolSize) {
+            this.pooledInstances.decrementAndGet();
+            return;
+        }
+        this.pool.offer (surflet);
+    }
+
+    public Class<? extends Surflet> getSurfletClass () {
+        return this.surfletClass;
+    }
+    public Scope getScope () {
+        return this.scope;
+    }
+
+    @Override
+    public String toString () {
+        return this.surfletClass.getName() + " (" + this.scope + ")";
+    }
+}
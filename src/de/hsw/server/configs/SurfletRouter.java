@@ -0,0 +1,350 @@
+package de.hsw.server.configs;
+
+import de.hsw.http.HttpRequest;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Der Router ordnet einem Pfad die Id eines Surflets zu.
+ * Für jede Http-Methode gibt es einen eigenen Baum, dessen Knoten jeweils ein Segment des Pfades (zwischen zwei "/")
+ * darstellen. Neben statischen Segmenten werden Pfad-Parameter ("/task/{id}") und Wildcards ("/static/*") unterstützt.
+ * Beim Auflösen hat ein statisches Segment Vorrang vor einem Parameter, und ein Parameter Vorrang vor einer Wildcard.
+ * Das Auflösen selbst arbeitet nur mit Indizes und Hashes auf dem Pfad und erstellt keine neuen Objekte.
+ * Erst wenn ein Surflet die Pfad-Parameter tatsächlich benötigt, werden diese aus dem Pfad geschnitten.
+ */
+public class SurfletRouter {
+
+    // Unter diesem Namen ist der von einer Wildcard abgedeckte Rest des Pfades als Pfad-Parameter verfügbar.
+    public static final String WILDCARD_PARAMETER = "*";
+
+    // Die initiale Größe der Hash-Tabelle für statische Kinder (immer eine Zweierpotenz).
+    private static final int INITIAL_TABLE_SIZE = 4;
+
+    /**
+     * Ein Knoten des Baumes.
+     */
+    private static class Node {
+
+        // Das statische Segment dieses Knotens (nur bei statischen Knoten) und dessen Hash.
+        private final String segment;
+        private final int segmentHash;
+
+        // Die statischen Kinder liegen in einer Hash-Tabelle (offene Adressierung).
+        // Der Hash wird direkt über den Ausschnitt des Pfades berechnet, sodass kein Substring nötig ist.
+        private Node[] staticChildren = null;
+        private int[] staticChildHashes = null;
+        private int staticChildCount = 0;
+        private Node parameterChild = null;
+        private Node wildcardChild = null;
+
+        // Ist der Knoten das Ende einer Route, ist hier die Id des Surflets, sowie das Muster der Route hinterlegt.
+        private String surfletId = null;
+        private String pattern = null;
+
+        // Die Namen der Pfad-Parameter je Segment-Index (null bei statischen Segmenten) und ob die Route mit einer
+        // Wildcard endet. Ist "hasParameters" false, muss beim Auflösen nichts aus dem Pfad geschnitten werden.
+        private String[] parameterNames = null;
+        private boolean hasParameters = false;
+
+        private Node (String segment) {
+            this.segment = segment;
+            this.segmentHash = hash (segment, 0, segment.length());
+        }
+
+        /**
+         * Hiermit wird ein statisches Kind gesucht, dessen Segment dem Ausschnitt des Pfades entspricht.
+         * @param path Der Pfad.
+         * @param start Der Beginn des Segments im Pfad.
+         * @param end Das Ende des Segments im Pfad.
+         * @return Das Kind oder "null".
+         */
+        private Node findStaticChild (String path, int start, int end) {
+            if (this.staticChildren == null) {
+                return null;
+            }
+            int length = end - start;
+            int hash = hash (path, start, end);
+            int mask = this.staticChildren.length - 1;
+            for (int index = hash & mask; this.staticChildren [index] != null; index = (index + 1) & mask) {
+                Node child = this.staticChildren [index];
+                if (this.staticChildHashes [index] == hash
+                        && child.segment.length() == length
+                        && child.segment.regionMatches (0, path, start, length)) {
+                    return child;
+                }
+            }
+            return null;
+        }
+
+        /**
+         * Hiermit wird ein statisches Kind geholt bzw. eingefügt.
+         * @param segment Das Segment des Kindes.
+         * @return Das (ggf. neue) Kind.
+         */
+        private Node getOrCreateStaticChild (String segment) {
+            Node child = this.findStaticChild (segment, 0, segment.length());
+            if (child != null) {
+                return child;
+            }
+
+            // Die Tabelle ist höchstens halb voll, damit die Suche kurz bleibt.
+            if (this.staticChildren == null) {
+                this.staticChildren = new Node [INITIAL_TABLE_SIZE];
+                this.staticChildHashes = new int [INITIAL_TABLE_SIZE];
+            } else if ((this.staticChildCount + 1) * 2 > this.staticChildren.length) {
+                Node[] oldChildren = this.staticChildren;
+                this.staticChildren = new Node [oldChildren.length * 2];
+                this.staticChildHashes = new int [oldChildren.length * 2];
+                for (Node oldChild : oldChildren) {
+                    if (oldChild != null) {
+                        this.insert (oldChild);
+                    }
+                }
+            }
+
+            child = new Node (segment);
+            this.insert (child);
+            this.staticChildCount += 1;
+            return child;
+        }
+
+        /**
+         * Hiermit wird ein Kind in die Hash-Tabelle eingefügt. Es muss noch Platz in der Tabelle sein.
+         * @param child Das Kind.
+         */
+        private void insert (Node child) {
+            int mask = this.staticChildren.length - 1;
+            int index = child.segmentHash & mask;
+            while (this.staticChildren [index] != null) {
+                index = (index + 1) & mask;
+            }
+            this.staticChildren [index] = child;
+            this.staticChildHashes [index] = child.segmentHash;
+        }
+    }
+
+    /**
+     * Hiermit wird der Hash eines Ausschnitts eines Strings berechnet (wie String.hashCode, nur ohne Substring).
+     * @param value Der String.
+     * @param start Der Beginn des Ausschnitts.
+     * @param end Das Ende des Ausschnitts.
+     * @return Der (gestreute) Hash.
+     */
+    private static int hash (String value, int start, int end) {
+        int hash = 0;
+        for (int index = start; index < end; index += 1) {
+            hash = 31 * hash + value.charAt (index);
+        }
+        return hash ^ (hash >>> 16);
+    }
+
+    // Für jede Methode ein eigener Baum (Index = ordinal der RequestMethod).
+    private final Node[] roots = new Node [HttpRequest.RequestMethod.values().length];
+
+    // Rein statische Routen werden zusätzlich je Methode in einer Map abgelegt.
+    // Da ein statisches Segment ohnehin Vorrang hat, liefert die Map dasselbe Ergebnis wie der Baum, nur schneller.
+    @SuppressWarnings ("unchecked")
+    private final Map<String, String>[] staticRoutes = (Map<String, String>[]) new Map<?, ?> [HttpRequest.RequestMethod.values().length];
+
+    public SurfletRouter () {
+        for (int index = 0; index < this.roots.length; index += 1) {
+            this.roots [index] = new Node ("");
+            this.staticRoutes [index] = new HashMap<>();
+        }
+    }
+
+    /**
+     * Hiermit wird eine Route hinzugefügt.
+     * Der Pfad muss mit "/" beginnen. Segmente der Form "{name}" sind Pfad-Parameter.
+     * Ein "*" als letztes Segment deckt den gesamten restlichen Pfad ab.
+     * @param method Die Http-Methode.
+     * @param pattern Das Muster des Pfades.
+     * @param surfletId Die Id des Surflets.
+     */
+    public void addRoute (HttpRequest.RequestMethod method, String pattern, String surfletId) {
+        if (pattern.startsWith ("/") == false) {
+            throw new IllegalArgumentException ("The path \"" + pattern + "\" has to start with \"/\"");
+        }
+
+        String[] segments = pattern.substring (1).split ("/", -1);
+        String[] parameterNames = new String [segments.length];
+        boolean hasParameters = false;
+        Node node = this.roots [method.ordinal()];
+
+        for (int index = 0; index < segments.length; index += 1) {
+            String segment = segments [index];
+
+            // Wildcard: nur als letztes Segment erlaubt.
+            if (segment.equals ("*")) {
+                if (index != segments.length - 1) {
+                    throw new IllegalArgumentException ("A wildcard is only allowed at the end of the path \"" + pattern + "\"");
+                }
+                if (node.wildcardChild == null) {
+                    node.wildcardChild = new Node ("*");
+                }
+                node = node.wildcardChild;
+                parameterNames [index] = WILDCARD_PARAMETER;
+                hasParameters = true;
+                continue;
+            }
+
+            // Pfad-Parameter:
+            if (segment.length() > 2 && segment.startsWith ("{") && segment.endsWith ("}")) {
+                if (node.parameterChild == null) {
+                    node.parameterChild = new Node ("{}");
+                }
+                node = node.parameterChild;
+                parameterNames [index] = segment.substring (1, segment.length() - 1).trim();
+                hasParameters = true;
+                continue;
+            }
+
+            // Statisches Segment:
+            node = node.getOrCreateStaticChild (segment);
+        }
+
+        // Wenn dieselbe Route bereits existiert, wird sie (wie bei einer Map) überschrieben.
+        node.surfletId = surfletId;
+        node.pattern = pattern;
+        node.parameterNames = parameterNames;
+        node.hasParameters = hasParameters;
+
+        if (hasParameters == false) {
+            this.staticRoutes [method.ordinal()].put (pattern, surfletId);
+        }
+    }
+
+    /**
+     * Hiermit wird rekursiv (mit Backtracking) der passende Knoten gesucht.
+     * @param node Der aktuelle Knoten.
+     * @param path Der Pfad.
+     * @param start Der Beginn des aktuellen Segments.
+     * @return Der Knoten der Route oder "null".
+     */
+    private Node match (Node node, String path, int start) {
+        int end = path.indexOf ('/', start);
+        if (end < 0) {
+            end = path.length();
+        }
+        boolean lastSegment = end == path.length();
+
+        // 1. Statische Segmente:
+        Node child = node.findStaticChild (path, start, end);
+        if (child != null) {
+            Node result = lastSegment ? (child.surfletId != null ? child : null) : this.match (child, path, end + 1);
+            if (result != null) {
+                return result;
+            }
+        }
+
+        // 2. Pfad-Parameter (dürfen nicht leer sein):
+        if (node.parameterChild != null && end > start) {
+            child = node.parameterChild;
+            Node result = lastSegment ? (child.surfletId != null ? child : null) : this.match (child, path, end + 1);
+            if (result != null) {
+                return result;
+            }
+        }
+
+        // 3. Wildcard (deckt den restlichen Pfad ab):
+        if (node.wildcardChild != null && node.wildcardChild.surfletId != null) {
+            return node.wildcardChild;
+        }
+
+        return null;
+    }
+
+    /**
+     * Hiermit wird ein Pfad zur Id eines Surflets aufgelöst.
+     * Hat die Route Pfad-Parameter, werden diese am Request gesetzt.
+     * @param method Die Http-Methode.
+     * @param path Der Pfad (ohne Query-String).
+     * @param request Der Request, an dem die Pfad-Parameter gesetzt werden sollen, oder "null".
+     * @return Die Id des Surflets oder "null", wenn keine Route passt.
+     */
+    public String route (HttpRequest.RequestMethod method, String path, HttpRequest request) {
+        if (path == null || path.startsWith ("/") == false) {
+            return null;
+        }
+
+        String surfletId = this.staticRoutes [method.ordinal()].get (path);
+        if (surfletId != null) {
+            return surfletId;
+        }
+
+        Node node = this.match (this.roots [method.ordinal()], path, 1);
+        if (node == null) {
+            return null;
+        }
+
+        if (node.hasParameters && request != null) {
+            request.setPathParameters (this.extractParameters (node, path));
+        }
+        return node.surfletId;
+    }
+
+    /**
+     * Hiermit werden die Pfad-Parameter einer gefundenen Route aus dem Pfad geschnitten.
+     * @param node Der Knoten der Route.
+     * @param path Der Pfad.
+     * @return Die Pfad-Parameter.
+     */
+    private Map<String, String> extractParameters (Node node, String path) {
+        Map<String, String> parameters = new HashMap<>();
+        int start = 1;
+        for (int index = 0; index < node.parameterNames.length && start <= path.length(); index += 1) {
+            String name = node.parameterNames [index];
+            int end = path.indexOf ('/', start);
+            if (end < 0) {
+                end = path.length();
+            }
+            if (WILDCARD_PARAMETER.equals (name)) {
+                parameters.put (name, path.substring (start));
+                break;
+            }
+            if (name != null) {
+                parameters.put (name, path.substring (start, end));
+            }
+            start = end + 1;
+        }
+        return parameters;
+    }
+
+    /**
+     * Hiermit werden alle Routen eines Knotens (rekursiv) für die Ausgabe gesammelt.
+     * @param node Der Knoten.
+     * @param method Die Methode des Baumes.
+     * @param builder Der Builder, in den geschrieben wird.
+     */
+    private void describe (Node node, HttpRequest.RequestMethod method, StringBuilder builder) {
+        if (node.surfletId != null) {
+            builder.append (method).append ('-').append (node.pattern).append ('=').append (node.surfletId).append (", ");
+        }
+        if (node.staticChildren != null) {
+            for (Node child : node.staticChildren) {
+                if (child != null) {
+                    this.describe (child, method, builder);
+                }
+            }
+        }
+        if (node.parameterChild != null) {
+            this.describe (node.parameterChild, method, builder);
+        }
+        if (node.wildcardChild != null) {
+            this.describe (node.wildcardChild, method, builder);
+        }
+    }
+
+    @Override
+    public String toString () {
+        StringBuilder builder = new StringBuilder ("{");
+        for (HttpRequest.RequestMethod method : HttpRequest.RequestMethod.values()) {
+            this.describe (this.roots [method.ordinal()], method, builder);
+        }
+        if (builder.length() > 1) {
+            builder.setLength (builder.length() - 2);
+        }
+        return builder.append ("}").toString();
+    }
+}
@@ -0,0 +1,937 @@
+package de.hsw.server.nio;
+
+import de.hsw.errors.ConnectionClosedException;
+import de.hsw.errors.InvalidHttpRequestException;
+import de.hsw.http.HttpRequest;
+import de.hsw.http.HttpResponse;
+import de.hsw.http.helper.BufferPool;
+import de.hsw.http.helper.HttpBodyInputStream;
+import de.hsw.http.helper.HttpHeaders;
+import de.hsw.http.helper.HttpRequestBody;
+import de.hsw.http.helper.PipelinedOutputStream;
+import de.hsw.http.helper.UnsafeHttpInputStreamReader;
+import de.hsw.server.RequestRecycler;
+import de.hsw.server.SurfletDispatcher;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Eine Verbindung eines Clients innerhalb einer Event-Loop.
+ * Es werden so lange Bytes in einen Buffer gelesen, bis eine vollständige Http-Anfrage (Header + Body) vorliegt.
+ * Erst dann wird die Anfrage an einen Worker übergeben. Ist der Body größer als MAX_BUFFERED_REQUEST_SIZE, wird die
+ * Anfrage schon nach dem Header übergeben und der Body gestreamt: Die Event-Loop liest ihn dann weiter in den
+ * (begrenzten) Buffer, aus dem der Worker ihn liest.
+ * Die Antwort des Surflets wird in eine Warteschlange geschrieben, die von der Event-Loop (nicht-blockierend) in den
+ * Channel geschrieben wird.
+ */
+class NioConnection {
+
+    // Definiere die NewLine-Character
+    private static final byte CHAR_CR = 0x0D;
+    private static final byte CHAR_LF = 0x0A;
+
+    // Wird von "frameRequest" zurückgegeben, wenn noch nicht genug gelesen wurde bzw. der Body größer als erlaubt ist.
+    private static final long INCOMPLETE = -1;
+    private static final long TOO_LARGE = -2;
+
+    // Die Länge einer gestreamten Anfrage mit Chunks (ihr Ende steht erst beim Lesen des letzten Chunks fest).
+    private static final long UNKNOWN_LENGTH = Long.MAX_VALUE;
+
+    private static final int INITIAL_BUFFER_SIZE = 8 * 1024;
+    private static final int MAX_HEADER_SIZE = 64 * 1024;
+
+    // So groß wird der Lese-Buffer höchstens, egal was der Client im Content-Length Header angibt (auch mit
+    // "--max-body=0"). Größere Anfragen werden gestreamt.
+    private static final int MAX_BUFFERED_REQUEST_SIZE = 256 * 1024;
+
+    // So viele Bytes eines nicht gelesenen Anfrage-Bodys werden höchstens übersprungen (wie beim blockierenden
+    // Transport). Bei größeren Resten wird die Verbindung stattdessen geschlossen.
+    private static final long MAX_SKIPPED_BODY_SIZE = 1024 * 1024;
+
+    // Wie viele Bytes maximal auf das Schreiben warten dürfen, bevor ein (streamendes) Surflet warten muss.
+    private static final long MAX_PENDING_BYTES = 1024 * 1024;
+
+    private final NioEventLoop loop;
+    private final SocketChannel channel;
+    private final SelectionKey key;
+    private final String clientAddress;
+
+    // Der Lese-Buffer (im Schreib-Modus). Gültig sind die Bytes zwischen "readStart" und "position".
+    // Er kommt (wie die Buffer der Schreib-Warteschlange) aus dem BufferPool. Da die Anfrage direkt im Array gesucht
+    // wird, ist es ein Heap-Buffer. Die Buffer der Schreib-Warteschlange sind direkte Buffer.
+    // Die Event-Loop schreibt in den Buffer, der Worker liest die Anfrage (über "inputStream") direkt daraus. Beide
+    // Zugriffe passieren daher unter "readLock".
+    private ByteBuffer readBuffer = BufferPool.getInstance().acquireHeap (INITIAL_BUFFER_SIZE);
+    private int readStart = 0;
+    private final ReentrantLock readLock = new ReentrantLock();
+    private final Condition readAvailable = this.readLock.newCondition();
+    private final InputStream inputStream = new ChannelInputStream();
+
+    // Hiermit werden (nur in der Event-Loop) die Header beim Framing gelesen (siehe "frameRequest").
+    private final HttpHeaders frameHeaders = new HttpHeaders();
+
+    // Diese Felder werden nur unter "readLock" verwendet.
+    // Wie viele Bytes der Worker für die aktuelle Anfrage noch lesen darf. So liest er nie in die nächste Anfrage.
+    private long requestRemaining = 0;
+    private boolean readPaused = false;
+    private boolean inputClosed = false;
+
+    // Die Schreib-Warteschlange wird von den Workern befüllt und von der Event-Loop geleert.
+    private final Queue<ByteBuffer> writeQueue = new ConcurrentLinkedQueue<>();
+    private final AtomicLong pendingBytes = new AtomicLong (0);
+    private final ReentrantLock writeLock = new ReentrantLock();
+    private final Condition writeDrained = this.writeLock.newCondition();
+    private final OutputStream outputStream = new ChannelOutputStream (true);
+
+    // Über diesen Stream schreibt die Event-Loop selbst (z. B. ein "400 Bad Request"). Sie darf nie warten, die Bytes
+    // kommen daher auch bei voller Warteschlange sofort hinein.
+    private final OutputStream loopOutputStream = new ChannelOutputStream (false);
+
+    // Liegt beim Start einer Anfrage bereits die nächste im Buffer (Pipelining), wird ihre Antwort nur in die
+    // Warteschlange gelegt. Geschrieben wird erst nach der letzten Anfrage, alle Antworten also mit einem "write".
+    private final PipelinedOutputStream pipelinedStream = new PipelinedOutputStream (this.outputStream);
+
+    // Der Reader und die Anfrage- und Antwort-Objekte werden (wie beim blockierenden Transport) für alle Anfragen
+    // der Verbindung verwendet. Es wird immer nur eine Anfrage gleichzeitig bearbeitet (siehe "busy").
+    private final UnsafeHttpInputStreamReader reader = new UnsafeHttpInputStreamReader (null);
+    private final RequestRecycler recycler = new RequestRecycler (this.pipelinedStream, null);
+
+    // Diese Felder werden nur im Thread der Event-Loop verändert.
+    private boolean busy = false;
+    private boolean streaming = false;
+    private boolean closeAfterWrite = false;
+    private volatile boolean closed = false;
+
+    NioConnection (NioEventLoop loop, SocketChannel channel, SelectionKey key) {
+        this.loop = loop;
+        this.channel = channel;
+        this.key = key;
+
+        this.clientAddress = String.format (
+            "%s:%d",
+            channel.socket().getInetAddress ().getHostAddress (),
+            channel.socket().getPort()
+        );
+
+        System.out.println("[INFORMATION]: client connected at " + this.clientAddress);
+    }
+
+    /**
+     * Hiermit kann ein Interesse (OP_READ/OP_WRITE) am SelectionKey gesetzt bzw. entfernt werden.
+     * @param operation Die Operation.
+     * @param enabled "True", wenn das Interesse gesetzt werden soll.
+     */
+    private void setInterest (int operation, boolean enabled) {
+        if (this.key.isValid() == false) {
+            return;
+        }
+        int ops = this.key.interestOps();
+        this.key.interestOps (enabled ? (ops | operation) : (ops & ~operation));
+    }
+
+    /**
+     * Wird von der Event-Loop aufgerufen, wenn Daten gelesen werden können.
+     */
+    void onReadable () {
+        try {
+            int read;
+            this.readLock.lock();
+            try {
+                // Ist der Buffer voll, werden zuerst die bereits gelesenen Bytes entfernt. Danach wird er vergrößert,
+                // aber nie über MAX_BUFFERED_REQUEST_SIZE hinaus.
+                if (this.readBuffer.hasRemaining() == false) {
+                    this.compactReadBuffer();
+                }
+                if (this.readBuffer.hasRemaining() == false) {
+                    if (this.readBuffer.capacity() >= MAX_BUFFERED_REQUEST_SIZE) {
+                        if (this.busy == false) {
+                            throw new InvalidHttpRequestException ("Request too large");
+                        }
+                        // Der Worker hat den Body noch nicht gelesen. Es wird erst weitergelesen, wenn er dies tut.
+                        this.readPaused = true;
+                        this.setInterest (SelectionKey.OP_READ, false);
+                        return;
+                    }
+                    this.resizeReadBuffer (Math.min (this.readBuffer.capacity() * 2, MAX_BUFFERED_REQUEST_SIZE));
+                }
+
+                read = this.channel.read (this.readBuffer);
+                if (read < 0) {
+                    this.inputClosed = true;
+                }
+                this.readAvailable.signalAll();
+            } finally {
+                this.readLock.unlock();
+            }
+
+            // Der Client hat die Verbindung geschlossen.
+            // Läuft noch eine Anfrage, wird erst nach dem Senden der Antwort geschlossen.
+            if (read < 0) {
+                if (this.busy) {
+                    this.closeAfterWrite = true;
+                    this.setInterest (SelectionKey.OP_READ, false);
+                } else {
+                    this.close();
+                }
+                return;
+            }
+
+            this.processBuffered();
+        } catch (IOException e) {
+            this.close();
+        } catch (InvalidHttpRequestException e) {
+            this.rejectBadRequest();
+        }
+    }
+
+    /**
+     * Hiermit wird geschaut, ob im Buffer eine vollständige Anfrage liegt. Ist dies der Fall, wird sie an einen
+     * Worker übergeben. Während ein Worker an einer Anfrage arbeitet, wird nicht weiter gelesen, damit die Antworten
+     * in der richtigen Reihenfolge gesendet werden.
+     * @throws InvalidHttpRequestException
+     */
+    private void processBuffered () throws InvalidHttpRequestException {
+        if (this.busy || this.closeAfterWrite || this.closed) {
+            return;
+        }
+
+        long requestLength;
+        boolean pipelined;
+        this.readLock.lock();
+        try {
+            // Die bereits gelesenen Bytes der letzten Anfrage werden entfernt. Ein (durch eine große Anfrage)
+            // vergrößerter Buffer wird dabei wieder verkleinert, damit eine ruhende Verbindung wenig Speicher belegt.
+            this.compactReadBuffer();
+            if (this.readBuffer.capacity() > INITIAL_BUFFER_SIZE && this.readBuffer.position() <= INITIAL_BUFFER_SIZE) {
+                this.resizeReadBuffer (INITIAL_BUFFER_SIZE);
+            }
+
+            requestLength = this.frameRequest();
+            if (requestLength < 0) {
+                pipelined = false;
+            } else {
+                // Der Worker liest die Anfrage direkt aus dem Buffer, aber nie über ihr Ende hinaus.
+                this.requestRemaining = requestLength;
+                this.streaming = requestLength > this.readBuffer.position();
+                pipelined = this.streaming == false && this.hasBufferedHeader ((int) requestLength);
+            }
+        } finally {
+            this.readLock.unlock();
+        }
+
+        if (requestLength == TOO_LARGE) {
+            this.rejectTooLarge();
+            return;
+        }
+        if (requestLength == INCOMPLETE) {
+            this.setInterest (SelectionKey.OP_READ, true);
+            return;
+        }
+        // Wird der Body gestreamt, liest die Event-Loop während der Bearbeitung weiter.
+        this.busy = true;
+        this.setInterest (SelectionKey.OP_READ, this.streaming);
+
+        final boolean streamed = this.streaming;
+        try {
+            this.loop.getWorkers().execute (() -> NioConnection.this.handle (streamed, pipelined));
+        } catch (RejectedExecutionException e) {
+            this.reject();
+        }
+    }
+
+    /**
+     * Hiermit kann geprüft werden, ob im Buffer bereits der vollständige Header-Block einer weiteren Anfrage liegt.
+     * @param start Das Ende der aktuellen Anfrage.
+     * @return "True", wenn der Client mehrere Anfragen auf einmal gesendet hat (Pipelining). Andernfalls "False".
+     */
+    private boolean hasBufferedHeader (int start) {
+        byte[] data = this.readBuffer.array();
+        for (int index = start + 3; index < this.readBuffer.position(); index += 1) {
+            if (data [index] == CHAR_LF && data [index - 1] == CHAR_CR && data [index - 2] == CHAR_LF && data [index - 3] == CHAR_CR) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Hiermit wird die Länge der ersten Anfrage im Buffer ermittelt.
+     * Ist sie länger als der Buffer (bzw. MAX_BUFFERED_REQUEST_SIZE), wird nicht auf den Rest gewartet: Die Länge ist
+     * dann größer als die Anzahl gelesener Bytes und der Body wird gestreamt.
+     * Fehlt noch der Body und wartet der Client (Expect: 100-continue) auf eine Bestätigung, wird der Body ebenfalls
+     * gestreamt: Das "100 Continue" wird (wie beim blockierenden Transport) erst gesendet, wenn das Surflet den Body
+     * liest. So kann es einen Upload ablehnen, bevor der Client ihn sendet.
+     * @return Die Länge der Anfrage (UNKNOWN_LENGTH bei gestreamten Chunks), INCOMPLETE, wenn noch gewartet wird,
+     * oder TOO_LARGE.
+     * @throws InvalidHttpRequestException
+     */
+    private long frameRequest () throws InvalidHttpRequestException {
+        byte[] data = this.readBuffer.array();
+        int available = this.readBuffer.position();
+
+        // Leere Zeilen vor der Request-Line werden (wie von UnsafeHttpInputStreamReader.readHeaderBlock) übersprungen.
+        int start = 0;
+        while (available - start >= 2 && data [start] == CHAR_CR && data [start + 1] == CHAR_LF) {
+            start += 2;
+        }
+
+        // Suche das Ende des Header-Blocks ("\r\n\r\n"):
+        int headerEnd = -1;
+        for (int index = start + 3; index < available; index += 1) {
+            if (data [index] == CHAR_LF && data [index - 1] == CHAR_CR && data [index - 2] == CHAR_LF && data [index - 3] == CHAR_CR) {
+                headerEnd = index + 1;
+                break;
+            }
+        }
+
+        if (headerEnd < 0) {
+            if (available - start > MAX_HEADER_SIZE) {
+                throw new InvalidHttpRequestException ("Header too large");
+            }
+            return INCOMPLETE;
+        }
+
+        // Die Header werden genau so wie vom Worker (HttpRequest) geparsed und die Länge des Bodys genau so bestimmt
+        // (HttpRequestBody.parseBodyLength). So sehen Event-Loop und Worker das Ende der Anfrage immer gleich
+        // (z. B. auch bei doppelten Headern).
+        long bodyLength;
+        boolean expectsContinue;
+        try {
+            this.frameHeaders.parseFrom (data, this.findCRLF (data, start, headerEnd) + 2, headerEnd);
+            bodyLength = HttpRequestBody.parseBodyLength (this.frameHeaders);
+            expectsContinue = "100-continue".equalsIgnoreCase (this.frameHeaders.getOrDefault ("expect", "").trim());
+        } finally {
+            this.frameHeaders.clear();
+        }
+
+        long maxSize = HttpRequestBody.getMaxSize();
+        long requestLength;
+
+        // Wird der Body in Chunks gesendet, endet er erst mit dem letzten Chunk.
+        if (bodyLength < 0) {
+            requestLength = this.findChunkedBodyEnd (data, headerEnd, available, maxSize);
+
+            // Ist der Buffer voll, ohne dass der letzte Chunk gefunden wurde, wird der Body gestreamt.
+            if (requestLength == INCOMPLETE && (available >= MAX_BUFFERED_REQUEST_SIZE || expectsContinue)) {
+                requestLength = UNKNOWN_LENGTH;
+            }
+        } else {
+            if (bodyLength > Long.MAX_VALUE - headerEnd) {
+                throw new InvalidHttpRequestException ("Body too large");
+            }
+            long total = headerEnd + bodyLength;
+            if (maxSize > 0 && bodyLength > maxSize) {
+                return TOO_LARGE;
+            }
+
+            // Eine Anfrage bis MAX_BUFFERED_REQUEST_SIZE wird vollständig gelesen (der Buffer also ggf. vergrößert).
+            // Größere Anfragen werden gestreamt: Der Buffer wird nie nach der (vom Client angegebenen) Länge bemessen.
+            boolean streamed = total > MAX_BUFFERED_REQUEST_SIZE || expectsContinue;
+            if (streamed == false) {
+                this.resizeReadBuffer ((int) total);
+            }
+            requestLength = available >= total || streamed ? total : INCOMPLETE;
+        }
+        return requestLength;
+    }
+
+    /**
+     * Hiermit wird das Ende eines Bodys in Chunks gesucht. Die Chunks werden dabei nur übersprungen,
+     * dekodiert werden sie erst beim Lesen des Bodys (siehe HttpBodyInputStream).
+     * @param data Die Bytes des Buffers.
+     * @param bodyStart Der Anfang des Bodys (das Ende des Header-Blocks).
+     * @param available Die Anzahl an gelesenen Bytes.
+     * @param maxSize Wie groß der Body höchstens sein darf (0 = unbegrenzt).
+     * @return Das Ende der Anfrage, -1, wenn noch nicht alles gelesen wurde, oder TOO_LARGE.
+     * @throws InvalidHttpRequestException Wenn eine Größen-Zeile ungültig ist oder die Trailer zu groß sind.
+     */
+    private long findChunkedBodyEnd (byte[] data, int bodyStart, int available, long maxSize) throws InvalidHttpRequestException {
+        long bodySize = 0;
+        int position = bodyStart;
+
+        while (position < available) {
+            int lineEnd = this.findCRLF (data, position, available);
+            if (lineEnd < 0) {
+                return INCOMPLETE;
+            }
+
+            long size = HttpBodyInputStream.parseChunkSize (new String (data, position, lineEnd - position, StandardCharsets.US_ASCII));
+            if (size < 0) {
+                throw new InvalidHttpRequestException ("Invalid chunk size");
+            }
+            position = lineEnd + 2;
+
+            // Der letzte Chunk: Es folgen noch (optionale) Trailer-Header bis zu einer leeren Zeile.
+            // Sie werden (wie beim Lesen des Bodys) begrenzt.
+            if (size == 0) {
+                int lines = 0;
+                int trailerStart = position;
+                while (position < available) {
+                    int trailerEnd = this.findCRLF (data, position, available);
+                    if (trailerEnd < 0) {
+                        return INCOMPLETE;
+                    }
+                    boolean empty = trailerEnd == position;
+                    position = trailerEnd + 2;
+                    if (empty) {
+                        return position;
+                    }
+                    lines += 1;
+                    if (lines > HttpBodyInputStream.MAX_TRAILER_LINES || position - trailerStart > HttpBodyInputStream.MAX_TRAILER_SIZE) {
+                        throw new InvalidHttpRequestException ("Trailer too large");
+                    }
+                }
+                return INCOMPLETE;
+            }
+
+            if (maxSize > 0 && size > maxSize - bodySize) {
+                return TOO_LARGE;
+            }
+            bodySize += size;
+
+            // Die Daten des Chunks und das CRLF dahinter. Liegen sie noch nicht vollständig im Buffer, wird gewartet.
+            if (size > available - position - 2) {
+                return INCOMPLETE;
+            }
+            position += (int) size + 2;
+            if (data [position - 2] != CHAR_CR || data [position - 1] != CHAR_LF) {
+                throw new InvalidHttpRequestException ("Missing CRLF after chunk");
+            }
+        }
+        return INCOMPLETE;
+    }
+
+    /**
+     * Hiermit wird das nächste CRLF gesucht.
+     * @param data Die Bytes des Buffers.
+     * @param start Ab welchem Index gesucht wird.
+     * @param available Die Anzahl an gelesenen Bytes.
+     * @return Der Index des CR oder -1, wenn (noch) keines gefunden wurde.
+     */
+    private int findCRLF (byte[] data, int start, int available) {
+        for (int index = start; index + 1 < available; index += 1) {
+            if (data [index] == CHAR_CR && data [index + 1] == CHAR_LF) {
+                return index;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Hiermit werden die bereits gelesenen Bytes aus dem Lese-Buffer entfernt (nur unter "readLock").
+     */
+    private void compactReadBuffer () {
+        if (this.readStart == 0) {
+            return;
+        }
+        byte[] data = this.readBuffer.array();
+        int pending = this.readBuffer.position() - this.readStart;
+        System.arraycopy (data, this.readStart, data, 0, pending);
+        this.readBuffer.position (pending);
+        this.readStart = 0;
+    }
+
+    /**
+     * Hiermit wird der Lese-Buffer (nur unter "readLock") gegen einen Buffer der angegebenen Größe getauscht.
+     * Die noch nicht gelesenen Bytes werden dabei übernommen. Es wird nur vergrößert bzw. (nach einer großen Anfrage)
+     * auf INITIAL_BUFFER_SIZE verkleinert, wenn die Bytes hineinpassen.
+     * @param capacity Die Größe des Buffers.
+     */
+    private void resizeReadBuffer (int capacity) {
+        int pending = this.readBuffer.position() - this.readStart;
+        boolean grow = this.readBuffer.capacity() < capacity;
+        boolean shrink = capacity == INITIAL_BUFFER_SIZE && this.readBuffer.capacity() > capacity && pending <= capacity;
+        if (grow == false && shrink == false) {
+            return;
+        }
+        ByteBuffer resized = BufferPool.getInstance().acquireHeap (capacity);
+        resized.put (this.readBuffer.array(), this.readStart, pending);
+        BufferPool.getInstance().release (this.readBuffer);
+        this.readBuffer = resized;
+        this.readStart = 0;
+    }
+
+    /**
+     * Hiermit werden Bytes, die der Reader des Workers bereits aus dem Lese-Buffer genommen, aber nicht verwendet hat
+     * (z. B. hinter einem gestreamten Body mit Chunks), wieder vor die noch nicht gelesenen Bytes gelegt.
+     * @param bytes Die Bytes.
+     */
+    private void unread (byte[] bytes) {
+        if (bytes.length == 0) {
+            return;
+        }
+        this.readLock.lock();
+        try {
+            if (this.closed) {
+                return;
+            }
+            if (this.readStart < bytes.length) {
+                int pending = this.readBuffer.position() - this.readStart;
+                ByteBuffer target = BufferPool.getInstance().acquireHeap (Math.max (INITIAL_BUFFER_SIZE, bytes.length + pending));
+                target.position (bytes.length);
+                target.put (this.readBuffer.array(), this.readStart, pending);
+                BufferPool.getInstance().release (this.readBuffer);
+                this.readBuffer = target;
+                this.readStart = bytes.length;
+            }
+            this.readStart -= bytes.length;
+            System.arraycopy (bytes, 0, this.readBuffer.array(), this.readStart, bytes.length);
+        } finally {
+            this.readLock.unlock();
+        }
+    }
+
+    /**
+     * Hier wird die Anfrage in einem Worker-Thread geparsed und vom Surflet bearbeitet.
+     * Die Bytes werden dabei (über "inputStream") direkt aus dem Lese-Buffer gelesen.
+     * @param streamed "True", wenn der Body noch nicht vollständig gelesen wurde (siehe "frameRequest").
+     * @param pipelined "True", wenn bereits die nächste Anfrage im Buffer liegt (siehe "pipelinedStream").
+     */
+    private void handle (boolean streamed, boolean pipelined) {
+        boolean close = true;
+
+        try {
+            this.pipelinedStream.setDeferFlush (pipelined);
+            this.reader.reset (this.inputStream);
+            HttpRequest request = this.recycler.readRequest (this.reader);
+            HttpResponse response = this.recycler.prepareResponse ();
+
+            // Wartet der Client (Expect: 100-continue) auf eine Bestätigung, wird sie erst beim Lesen des Bodys gesendet.
+            if (streamed) {
+                request.getBody().enableContinue (this.pipelinedStream);
+            }
+
+            SurfletDispatcher.dispatch (request, response);
+
+            // Hat das Surflet den Body nicht (vollständig) gelesen, liegen seine Bytes noch vor der nächsten Anfrage.
+            close = request.getBody().skipRemaining (MAX_SKIPPED_BODY_SIZE) == false
+                    || request.getHeader ("connection", "keep-alive").equalsIgnoreCase ("close");
+        } catch (ConnectionClosedException e) {
+            close = true;
+        } catch (InvalidHttpRequestException e) {
+            close = true;
+            NioConnection.sendBadRequest (this.pipelinedStream);
+        } catch (Exception e) {
+            e.printStackTrace();
+        } finally {
+            this.recycler.release ();
+            // Die gesammelten Bytes kommen in die Warteschlange. Geschrieben werden sie in "onRequestCompleted".
+            try {
+                this.pipelinedStream.drain ();
+            } catch (IOException e) {
+                close = true;
+            }
+            // Hat der Reader schon Bytes der nächsten Anfrage gelesen, gehen sie zurück in den Lese-Buffer.
+            if (streamed && close == false) {
+                this.unread (this.reader.takeBuffered ());
+            }
+            // Bytes einer vollständig gelesenen Anfrage, die der Worker nicht genommen hat, gehören noch zu ihr und
+            // dürfen nicht als Anfang der nächsten Anfrage gelesen werden.
+            if (streamed == false && close == false) {
+                this.discardRequestRemaining ();
+            }
+        }
+
+        final boolean closeAfterWrite = close;
+        this.loop.execute (() -> NioConnection.this.onRequestCompleted (closeAfterWrite));
+    }
+
+    /**
+     * Hiermit werden die noch nicht gelesenen Bytes der aktuellen Anfrage aus dem Lese-Buffer entfernt.
+     */
+    private void discardRequestRemaining () {
+        this.readLock.lock();
+        try {
+            if (this.closed) {
+                return;
+            }
+            int pending = this.readBuffer.position() - this.readStart;
+            this.readStart += (int) Math.min (pending, this.requestRemaining);
+            this.requestRemaining = 0;
+        } finally {
+            this.readLock.unlock();
+        }
+    }
+
+    /**
+     * Wird (in der Event-Loop) aufgerufen, sobald ein Worker eine Anfrage vollständig bearbeitet hat.
+     * @param closeAfterWrite "True", wenn die Verbindung nach dem Senden geschlossen werden soll.
+     */
+    private void onRequestCompleted (boolean closeAfterWrite) {
+        this.busy = false;
+        this.streaming = false;
+        this.closeAfterWrite = this.closeAfterWrite || closeAfterWrite;
+
+        // Wurde die Verbindung während der Bearbeitung geschlossen, können erst jetzt der Reader und der Lese-Buffer
+        // zurückgegeben werden.
+        if (this.closed) {
+            this.reader.release();
+            this.releaseReadBuffer();
+            return;
+        }
+
+        // Gelesen wird wieder, sobald "processBuffered" auf weitere Bytes wartet.
+        this.setInterest (SelectionKey.OP_READ, false);
+        this.readLock.lock();
+        try {
+            this.readPaused = false;
+        } finally {
+            this.readLock.unlock();
+        }
+
+        // Bearbeite ggf. die nächste, bereits gelesene Anfrage. Die Antwort wird erst geschrieben, wenn keine
+        // weitere Anfrage mehr wartet. So gehen die Antworten mehrerer Anfragen mit einem (gathering) "write" raus.
+        try {
+            this.processBuffered();
+        } catch (InvalidHttpRequestException e) {
+            this.rejectBadRequest();
+            return;
+        }
+        if (this.busy == false) {
+            this.onWritable();
+        }
+    }
+
+    /**
+     * Hiermit wird eine Anfrage abgewiesen, deren Body größer als erlaubt ist.
+     * Die Verbindung wird danach geschlossen, da der Rest des Bodys nicht gelesen wird.
+     */
+    private void rejectTooLarge () {
+        this.busy = true;
+        this.setInterest (SelectionKey.OP_READ, false);
+        new HttpResponse (this.loopOutputStream)
+                .status (413)
+                .addHeader ("Connection", "close")
+                .send ();
+        this.onRequestCompleted (true);
+    }
+
+    /**
+     * Hiermit wird eine ungültige Anfrage (z. B. mit einem nicht unterstützten Transfer-Encoding) abgewiesen.
+     * Die Verbindung wird danach geschlossen, da unklar ist, wo die nächste Anfrage beginnt.
+     */
+    private void rejectBadRequest () {
+        if (this.closed) {
+            return;
+        }
+        this.busy = true;
+        this.setInterest (SelectionKey.OP_READ, false);
+        NioConnection.sendBadRequest (this.loopOutputStream);
+        this.onRequestCompleted (true);
+    }
+
+    /**
+     * Hiermit wird die Antwort auf eine ungültige Anfrage gesendet.
+     * @param outputStream Der Output-Stream der Verbindung.
+     */
+    private static void sendBadRequest (OutputStream outputStream) {
+        new HttpResponse (outputStream)
+                .status (400)
+                .addHeader ("Connection", "close")
+                .send ();
+    }
+
+    /**
+     * Hiermit wird ein Client abgewiesen, wenn kein Worker die Anfrage annehmen kann.
+     */
+    private void reject () {
+        System.out.println("[WARNING]: worker pool exhausted, rejecting client " + this.clientAddress);
+        new HttpResponse (this.loopOutputStream)
+                .status (503)
+                .addHeader ("Connection", "close")
+                .addHeader ("Retry-After", "1")
+                .send ();
+        this.onRequestCompleted (true);
+    }
+
+    /**
+     * Wird von der Event-Loop aufgerufen, wenn in den Channel geschrieben werden kann.
+     * Es wird so viel aus der Warteschlange geschrieben, wie der Channel gerade annimmt (gathering write).
+     */
+    void onWritable () {
+        if (this.closed) {
+            return;
+        }
+
+        try {
+            while (this.writeQueue.isEmpty() == false) {
+                ByteBuffer[] buffers = this.writeQueue.toArray (new ByteBuffer[0]);
+                long written = this.channel.write (buffers);
+                this.pendingBytes.addAndGet (-written);
+
+                // Entferne alle vollständig geschriebenen Buffer aus der Warteschlange und gib sie an den Pool zurück:
+                while (this.writeQueue.isEmpty() == false && this.writeQueue.peek().hasRemaining() == false) {
+                    BufferPool.getInstance().release (this.writeQueue.poll());
+                }
+
+                // Der Channel nimmt gerade nichts mehr an. Es wird also gewartet, bis er wieder beschreibbar ist.
+                if (buffers [buffers.length - 1].hasRemaining()) {
+                    this.setInterest (SelectionKey.OP_WRITE, true);
+                    this.signalWriters();
+                    return;
+                }
+            }
+        } catch (IOException e) {
+            this.close();
+            return;
+        }
+
+        this.setInterest (SelectionKey.OP_WRITE, false);
+        this.signalWriters();
+
+        if (this.closeAfterWrite && this.busy == false) {
+            this.close();
+        }
+    }
+
+    /**
+     * Hiermit werden Worker geweckt, die darauf warten, dass die Schreib-Warteschlange kleiner wird.
+     */
+    private void signalWriters () {
+        this.writeLock.lock();
+        try {
+            this.writeDrained.signalAll();
+        } finally {
+            this.writeLock.unlock();
+        }
+    }
+
+    /**
+     * Hiermit kann die Verbindung geschlossen werden.
+     */
+    void close () {
+        if (this.closed) {
+            return;
+        }
+        this.closed = true;
+        this.key.cancel();
+        try {
+            this.channel.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        this.releaseWriteQueue();
+        this.signalWriters();
+
+        // Wartet ein Worker auf weitere Bytes des Bodys, wird er geweckt.
+        this.readLock.lock();
+        try {
+            this.readAvailable.signalAll();
+        } finally {
+            this.readLock.unlock();
+        }
+
+        // Der Reader und der Lese-Buffer werden auch vom Worker verwendet: Läuft noch eine Anfrage, werden sie erst in
+        // "onRequestCompleted" zurückgegeben.
+        if (this.busy == false) {
+            this.reader.release();
+            this.releaseReadBuffer();
+        }
+        System.out.println("[INFORMATION]: connection closed for client " + this.clientAddress);
+    }
+
+    /**
+     * Hiermit wird der Lese-Buffer an den Pool zurückgegeben.
+     */
+    private void releaseReadBuffer () {
+        this.readLock.lock();
+        try {
+            BufferPool.getInstance().release (this.readBuffer);
+            this.readBuffer = null;
+        } finally {
+            this.readLock.unlock();
+        }
+    }
+
+    /**
+     * Hiermit werden alle Buffer der Schreib-Warteschlange verworfen und an den Pool zurückgegeben.
+     */
+    private void releaseWriteQueue () {
+        ByteBuffer buffer;
+        while ((buffer = this.writeQueue.poll()) != null) {
+            BufferPool.getInstance().release (buffer);
+        }
+    }
+
+    /**
+     * Hiermit werden Bytes in die Schreib-Warteschlange gelegt. Sie werden dafür in (direkte) Buffer aus dem Pool
+     * kopiert, die nach dem Schreiben zurückgegeben werden.
+     * @param bytes Das Array der Bytes.
+     * @param offset Ab welchem Index kopiert werden soll.
+     * @param length Die Anzahl an Bytes.
+     */
+    private void enqueue (byte[] bytes, int offset, int length) {
+        while (length > 0) {
+            ByteBuffer buffer = BufferPool.getInstance().acquire (Math.min (length, BufferPool.MAX_BUFFER_SIZE));
+            int part = Math.min (length, buffer.capacity());
+            buffer.put (bytes, offset, part).flip();
+            this.writeQueue.add (buffer);
+            this.pendingBytes.addAndGet (part);
+            offset += part;
+            length -= part;
+        }
+
+        // Wurde die Verbindung inzwischen (von der Event-Loop) geschlossen, schreibt niemand mehr die Buffer.
+        if (this.closed) {
+            this.releaseWriteQueue();
+        }
+    }
+
+    /**
+     * Aus diesem Stream liest der Reader des Workers die Anfrage. Die Bytes werden direkt aus dem Lese-Buffer genommen,
+     * aber nie über das Ende der aktuellen Anfrage hinaus (siehe "requestRemaining"). Wird der Body gestreamt, wartet
+     * der Worker hier, bis die Event-Loop weitere Bytes gelesen hat.
+     */
+    private class ChannelInputStream extends InputStream {
+
+        @Override
+        public int read () throws IOException {
+            byte[] single = new byte [1];
+            int read = this.read (single, 0, 1);
+            return read < 0 ? -1 : (single [0] & 0xFF);
+        }
+
+        @Override
+        public int read (byte[] target, int offset, int length) throws IOException {
+            if (length == 0) {
+                return 0;
+            }
+            NioConnection.this.readLock.lock();
+            try {
+                while (true) {
+                    if (NioConnection.this.closed) {
+                        throw new IOException ("Connection closed");
+                    }
+                    if (NioConnection.this.requestRemaining == 0) {
+                        return -1;
+                    }
+
+                    int pending = NioConnection.this.readBuffer.position() - NioConnection.this.readStart;
+                    if (pending > 0) {
+                        int count = (int) Math.min (Math.min (length, pending), NioConnection.this.requestRemaining);
+                        System.arraycopy (NioConnection.this.readBuffer.array(), NioConnection.this.readStart, target, offset, count);
+                        NioConnection.this.readStart += count;
+                        NioConnection.this.requestRemaining -= count;
+
+                        // Der Buffer war voll. Jetzt ist wieder Platz, also kann die Event-Loop weiterlesen.
+                        if (NioConnection.this.readPaused) {
+                            NioConnection.this.readPaused = false;
+                            NioConnection.this.loop.execute (NioConnection.this::resumeReading);
+                        }
+                        return count;
+                    }
+                    if (NioConnection.this.inputClosed) {
+                        return -1;
+                    }
+                    NioConnection.this.readAvailable.await();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException ("Interrupted while waiting for the client");
+            } finally {
+                NioConnection.this.readLock.unlock();
+            }
+        }
+
+        @Override
+        public int available () {
+            NioConnection.this.readLock.lock();
+            try {
+                if (NioConnection.this.closed) {
+                    return 0;
+                }
+                int pending = NioConnection.this.readBuffer.position() - NioConnection.this.readStart;
+                return (int) Math.min (pending, NioConnection.this.requestRemaining);
+            } finally {
+                NioConnection.this.readLock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Hiermit wird (in der Event-Loop) das Lesen fortgesetzt, nachdem der Worker Platz im Lese-Buffer geschaffen hat.
+     */
+    private void resumeReading () {
+        if (this.closed == false && this.streaming) {
+            this.setInterest (SelectionKey.OP_READ, true);
+        }
+    }
+
+    /**
+     * Dieser Output-Stream wird der Http-Antwort übergeben. Die geschriebenen Bytes werden kopiert und in die
+     * Schreib-Warteschlange gelegt. Ein "flush" sorgt dafür, dass die Event-Loop mit dem Schreiben beginnt.
+     */
+    private class ChannelOutputStream extends OutputStream {
+
+        // "True", wenn bei voller Warteschlange gewartet wird (nur in Workern, nie in der Event-Loop).
+        private final boolean blocking;
+
+        ChannelOutputStream (boolean blocking) {
+            this.blocking = blocking;
+        }
+
+        @Override
+        public void write (int b) throws IOException {
+            this.write (new byte[] {(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write (byte[] bytes, int offset, int length) throws IOException {
+            if (NioConnection.this.closed) {
+                throw new IOException ("Connection closed");
+            }
+            if (length == 0) {
+                return;
+            }
+            if (this.blocking) {
+                this.awaitCapacity();
+            }
+            NioConnection.this.enqueue (bytes, offset, length);
+        }
+
+        @Override
+        public void flush () {
+            NioConnection.this.loop.execute (NioConnection.this::onWritable);
+        }
+
+        /**
+         * Liegen zu viele Bytes in der Warteschlange (z. B. bei einem streamenden Surflet und einem langsamen Client),
+         * dann muss der Worker hier warten, bis die Event-Loop sie geschrieben hat.
+         * @throws IOException
+         */
+        private void awaitCapacity () throws IOException {
+            if (NioConnection.this.pendingBytes.get() <= MAX_PENDING_BYTES) {
+                return;
+            }
+
+            this.flush();
+            NioConnection.this.writeLock.lock();
+            try {
+                while (NioConnection.this.pendingBytes.get() > MAX_PENDING_BYTES && NioConnection.this.closed == false) {
+                    NioConnection.this.writeDrained.await();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException ("Interrupted while waiting for the client");
+            } finally {
+                NioConnection.this.writeLock.unlock();
+            }
+
+            if (NioConnection.this.closed) {
+                throw new IOException ("Connection closed");
+            }
+        }
+    }
+}
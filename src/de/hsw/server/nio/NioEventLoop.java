@@ -0,0 +1,132 @@
+package de.hsw.server.nio;
+
+import java.io.IOException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+
+/**
+ * Eine Event-Loop verwaltet beliebig viele nicht-blockierende Verbindungen mit einem einzigen Thread.
+ * Alle Zugriffe auf den Selector und die SelectionKeys passieren ausschließlich in diesem Thread.
+ * Andere Threads (z. B. die Worker) können über "execute" Aufgaben in die Loop einreihen.
+ */
+public class NioEventLoop implements Runnable {
+
+    private final Selector selector;
+    private final Executor workers;
+    private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+    private volatile boolean isRunning = true;
+
+    /**
+     * Hiermit wird eine neue Event-Loop erstellt.
+     * @param workers Der Executor, an den die vollständig gelesenen Anfragen übergeben werden.
+     * @throws IOException
+     */
+    public NioEventLoop (Executor workers) throws IOException {
+        this.selector = Selector.open();
+        this.workers = workers;
+    }
+
+    /**
+     * Hiermit wird eine neu angenommene Verbindung bei dieser Event-Loop registriert.
+     * @param channel Der Channel des Clients.
+     */
+    public void register (SocketChannel channel) {
+        this.execute (() -> {
+            try {
+                channel.configureBlocking (false);
+                SelectionKey key = channel.register (NioEventLoop.this.selector, SelectionKey.OP_READ);
+                key.attach (new NioConnection (NioEventLoop.this, channel, key));
+            } catch (IOException e) {
+                e.printStackTrace();
+                try {
+                    channel.close();
+                } catch (IOException ignored) {}
+            }
+        });
+    }
+
+    /**
+     * Hiermit kann eine Aufgabe in den Thread der Event-Loop eingereiht werden.
+     * @param task Die Aufgabe.
+     */
+    public void execute (Runnable task) {
+        this.tasks.add (task);
+        this.selector.wakeup();
+    }
+
+    /**
+     * Hiermit wird der Executor der Worker zurückgegeben.
+     * @return Der Executor der Worker.
+     */
+    Executor getWorkers () {
+        return this.workers;
+    }
+
+    /**
+     * Hiermit wird die Event-Loop beendet.
+     */
+    public void shutdown () {
+        this.isRunning = false;
+        this.selector.wakeup();
+    }
+
+    /**
+     * Hiermit werden alle eingereihten Aufgaben abgearbeitet.
+     */
+    private void runTasks () {
+        Runnable task;
+        while ((task = this.tasks.poll()) != null) {
+            try {
+                task.run();
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    @Override
+    public void run () {
+        while (this.isRunning) {
+            try {
+                this.selector.select();
+            } catch (IOException e) {
+                e.printStackTrace();
+                continue;
+            }
+
+            this.runTasks();
+
+            // Gehe alle Verbindungen durch, die gelesen bzw. beschrieben werden können:
+            Iterator<SelectionKey> iterator = this.selector.selectedKeys().iterator();
+            while (iterator.hasNext()) {
+                SelectionKey key = iterator.next();
+                iterator.remove();
+
+                NioConnection connection = (NioConnection) key.attachment();
+                if (key.isValid() && key.isReadable()) {
+                    connection.onReadable();
+                }
+                if (key.isValid() && key.isWritable()) {
+                    connection.onWritable();
+                }
+            }
+        }
+
+        // Schließe beim Beenden alle noch offenen Verbindungen:
+        for (SelectionKey key : this.selector.keys()) {
+            if (key.attachment() instanceof NioConnection) {
+                ((NioConnection) key.attachment()).close();
+            }
+        }
+        try {
+            this.selector.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+}
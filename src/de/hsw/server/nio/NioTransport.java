@@ -0,0 +1,86 @@
+package de.hsw.server.nio;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.Executor;
+
+/**
+ * Hier der nicht-blockierende Transport des Servers.
+ * Der aufrufende Thread nimmt die Verbindungen an und verteilt sie reihum auf N Event-Loops.
+ * Die Event-Loops lesen und schreiben nicht-blockierend, nur die Surflets laufen in den Workern.
+ */
+public class NioTransport {
+
+    private final int port;
+    private final Executor workers;
+    private final NioEventLoop[] loops;
+    private ServerSocketChannel serverChannel;
+    private volatile boolean isRunning = true;
+
+    /**
+     * Hiermit wird der Transport erstellt.
+     * @param port Der Port, auf dem gelauscht werden soll.
+     * @param eventLoops Die Anzahl an Event-Loops (Threads).
+     * @param workers Der Executor, in dem die Surflets ausgeführt werden.
+     */
+    public NioTransport (int port, int eventLoops, Executor workers) {
+        this.port = port;
+        this.workers = workers;
+        this.loops = new NioEventLoop [eventLoops];
+    }
+
+    /**
+     * Hiermit wird der Transport gestartet. Diese Methode blockiert, bis der Transport beendet wird.
+     * @throws IOException Wenn der Port nicht geöffnet werden konnte.
+     */
+    public void start () throws IOException {
+
+        this.serverChannel = ServerSocketChannel.open();
+        this.serverChannel.bind (new InetSocketAddress (this.port));
+
+        // Starte die Event-Loops:
+        for (int index = 0; index < this.loops.length; index += 1) {
+            this.loops [index] = new NioEventLoop (this.workers);
+            Thread thread = new Thread (this.loops [index], "surflet-event-loop-" + (index + 1));
+            thread.setDaemon (true);
+            thread.start();
+        }
+
+        int next = 0;
+        while (this.isRunning) {
+            try {
+                // Warte bis ein Client sich verbindet und übergebe ihn dann reihum einer Event-Loop.
+                SocketChannel client = this.serverChannel.accept();
+                this.loops [next].register (client);
+                next = (next + 1) % this.loops.length;
+            } catch (IOException e) {
+                if (this.isRunning == false) {
+                    break;
+                }
+                System.out.println("[ERROR]: some client tried connecting but caused the following error:");
+                e.printStackTrace();
+            }
+        }
+
+        for (NioEventLoop loop : this.loops) {
+            loop.shutdown();
+        }
+        this.serverChannel.close();
+    }
+
+    /**
+     * Hiermit wird der Transport beendet.
+     */
+    public void shutdown () {
+        this.isRunning = false;
+        try {
+            if (this.serverChannel != null) {
+                this.serverChannel.close();
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+}
@@ -1,18 +1,38 @@
 package de.hsw.sessions;
 
 import de.hsw.sessions.helper.DataBox;
+import de.hsw.sessions.helper.TimingWheel;
 
-import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class Session {
 
-    private boolean unsafe = false;
-    private String id;
-    private Map<String, DataBox> data = new HashMap<>();
+    private volatile boolean unsafe = false;
+    private final String id;
+
+    // Mehrere parallele Anfragen desselben Nutzers teilen sich die Session, daher eine ConcurrentHashMap.
+    // Diese erlaubt weder "null" als Name noch als Wert.
+    private final Map<String, DataBox> data = new ConcurrentHashMap<>();
+
+    // Wann die Session erstellt bzw. zuletzt verwendet wurde (in Millisekunden seit 1970).
+    private final long creationTime;
+    private volatile long lastAccessedTime;
+
+    // Die folgenden Felder werden ausschließlich vom SessionManager (unter seinem Lock) verwendet:
+    // Der eingeplante Ablauf im Timing-Wheel, sowie die Verkettung in der LRU-Liste.
+    // Nur "lruTouchedTime" wird auch ohne Lock gelesen, um unnötiges Umsortieren zu vermeiden.
+    TimingWheel.Timeout<Session> expiryTimeout = null;
+    Session lruPrevious = null;
+    Session lruNext = null;
+    volatile long lruTouchedTime;
+    boolean removed = false;
 
     public Session (String id) {
         this.id = id;
+        this.creationTime = System.currentTimeMillis();
+        this.lastAccessedTime = this.creationTime;
+        this.lruTouchedTime = this.creationTime;
     }
 
     /**
@@ -69,6 +89,25 @@ public class Session {
         return this.id;
     }
 
+    /**
+     * Hiermit kann abgefragt werden, wann die Session erstellt wurde.
+     * @return Der Zeitpunkt in Millisekunden seit 1970.
+     */
+    public long getCreationTime () {
+        return this.creationTime;
+    }
+
+    /**
+     * Hiermit kann abgefragt werden, wann die Session zuletzt von einer Anfrage geladen wurde.
+     * @return Der Zeitpunkt in Millisekunden seit 1970.
+     */
+    public long getLastAccessedTime () {
+        return this.lastAccessedTime;
+    }
+    void setLastAccessedTime (long lastAccessedTime) {
+        this.lastAccessedTime = lastAccessedTime;
+    }
+
     /**
      * Hiermit kann eine Session auf "Unsafe" gesetzt werden.
      * Dies ist der Fall, wenn ihre ID = "AAAA".
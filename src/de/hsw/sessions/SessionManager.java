@@ -2,23 +2,26 @@ package de.hsw.sessions;
 
 import de.hsw.http.HttpRequest;
 import de.hsw.http.HttpResponse;
+import de.hsw.sessions.helper.TimingWheel;
 
 import java.io.UnsupportedEncodingException;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
-import java.util.HashMap;
 import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class SessionManager {
 
     // Der Session-Manager ist ein Singleton. Dementsprechend bauen wir hier ein Objekt.
-    private static SessionManager sessionManager = null;
+    // Der Manager wird von allen Verbindungs-Threads gleichzeitig verwendet. Die Instanz liegt daher in einer
+    // eigenen Holder-Klasse: Die JVM initialisiert diese erst beim ersten Zugriff und garantiert dabei,
+    // dass alle Threads dieselbe, vollständig erstellte Instanz sehen (ohne Lock bei jedem Aufruf).
+    private static class Holder {
+        private static final SessionManager INSTANCE = new SessionManager();
+    }
     public static SessionManager getInstance () {
-        if (SessionManager.sessionManager == null) {
-            SessionManager.sessionManager = new SessionManager();
-        }
-        return SessionManager.sessionManager;
+        return Holder.INSTANCE;
     }
 
     /**
@@ -53,10 +56,252 @@ public class SessionManager {
     }
 
     // In dem Manager wird immer eine Id-Session Verbindung hergestellt.
-    private Map<String, Session> sessions = new HashMap<>();
+    // Eine ConcurrentHashMap, da gleichzeitig aus mehreren Threads gelesen und geschrieben wird.
+    private final Map<String, Session> sessions = new ConcurrentHashMap<>();
+
+    // Standardwerte für den Ablauf der Sessions:
+    // Nach 30 Minuten ohne Anfrage bzw. spätestens 24 Stunden nach der Erstellung läuft eine Session ab.
+    // Es werden höchstens 100.000 Sessions gehalten, darüber hinaus wird die am längsten unbenutzte Session verdrängt.
+    public static final long DEFAULT_IDLE_TIMEOUT = 30 * 60 * 1000L;
+    public static final long DEFAULT_ABSOLUTE_TIMEOUT = 24 * 60 * 60 * 1000L;
+    public static final int DEFAULT_MAX_SESSIONS = 100_000;
+
+    // Eine Session wird höchstens einmal pro Sekunde in der LRU-Liste nach vorne geschoben.
+    // So muss nicht bei jeder Anfrage der Lock genommen werden, die Reihenfolge ist trotzdem (fast) exakt.
+    private static final long LRU_TOUCH_INTERVAL = 1000L;
+
+    private volatile long idleTimeout = DEFAULT_IDLE_TIMEOUT;
+    private volatile long absoluteTimeout = DEFAULT_ABSOLUTE_TIMEOUT;
+    private volatile int maxSessions = DEFAULT_MAX_SESSIONS;
+
+    // Die Abläufe werden über ein Timing-Wheel (Genauigkeit: eine Sekunde) eingeplant, statt regelmäßig
+    // alle Sessions zu durchsuchen. Wird eine Session verwendet, wird ihr Timeout nicht verschoben:
+    // Erst wenn er abläuft, wird geprüft, ob die Session inzwischen verwendet wurde, und ggf. neu eingeplant.
+    private final TimingWheel<Session> expiryWheel = new TimingWheel<> (1000L, 512, this::onTimeout);
+
+    // Die LRU-Liste (vorne = zuletzt verwendet). Sie, sowie das Hinzufügen und Entfernen von Sessions, sind durch
+    // diesen Lock geschützt. Das reine Laden einer Session kommt (über die ConcurrentHashMap) ohne Lock aus.
+    private final Object lock = new Object();
+    private Session lruHead = null;
+    private Session lruTail = null;
 
     // Der Konstruktor ist hier private, damit der Manager nur mit "getInstance" als Singleton erstellt werden kann.
-    private SessionManager () {}
+    private SessionManager () {
+        Thread ticker = new Thread (() -> {
+            while (true) {
+                try {
+                    Thread.sleep (this.expiryWheel.getTickMillis());
+                    this.expiryWheel.advance();
+                } catch (InterruptedException e) {
+                    return;
+                } catch (RuntimeException e) {
+                    System.out.println("[ERROR]: could not expire sessions: " + e.getMessage());
+                }
+            }
+        }, "session-expiry");
+        ticker.setDaemon (true);
+        ticker.start();
+    }
+
+    /**
+     * Hiermit kann eingestellt werden, nach wie vielen Millisekunden ohne Anfrage eine Session abläuft.
+     * @param idleTimeout Die Zeit in Millisekunden (0 = nie).
+     */
+    public void setIdleTimeout (long idleTimeout) {
+        if (idleTimeout < 0) {
+            throw new IllegalArgumentException ("The idle timeout must not be negative");
+        }
+        this.idleTimeout = idleTimeout;
+    }
+
+    /**
+     * Hiermit kann eingestellt werden, wie viele Millisekunden nach ihrer Erstellung eine Session spätestens abläuft.
+     * @param absoluteTimeout Die Zeit in Millisekunden (0 = nie).
+     */
+    public void setAbsoluteTimeout (long absoluteTimeout) {
+        if (absoluteTimeout < 0) {
+            throw new IllegalArgumentException ("The absolute timeout must not be negative");
+        }
+        this.absoluteTimeout = absoluteTimeout;
+    }
+
+    /**
+     * Hiermit kann eingestellt werden, wie viele Sessions maximal gehalten werden.
+     * Wird die Grenze überschritten, wird die am längsten unbenutzte Session entfernt.
+     * @param maxSessions Die maximale Anzahl (0 = unbegrenzt).
+     */
+    public void setMaxSessions (int maxSessions) {
+        if (maxSessions < 0) {
+            throw new IllegalArgumentException ("The maximum number of sessions must not be negative");
+        }
+        this.maxSessions = maxSessions;
+        synchronized (this.lock) {
+            this.evictOverflow();
+        }
+    }
+
+    /**
+     * Hiermit kann abgefragt werden, wie viele Sessions aktuell gehalten werden.
+     * @return Die Anzahl der Sessions.
+     */
+    public int getSessionCount () {
+        return this.sessions.size();
+    }
+
+    /**
+     * Hiermit wird berechnet, wann eine Session (nach aktuellem Stand) abläuft.
+     * @param session Die Session.
+     * @return Der Zeitpunkt in Millisekunden seit 1970 oder Long.MAX_VALUE, wenn sie nie abläuft.
+     */
+    private long expiryTime (Session session) {
+        long expiryTime = Long.MAX_VALUE;
+        if (this.idleTimeout > 0) {
+            expiryTime = session.getLastAccessedTime() + this.idleTimeout;
+        }
+        if (this.absoluteTimeout > 0) {
+            expiryTime = Math.min (expiryTime, session.getCreationTime() + this.absoluteTimeout);
+        }
+        return expiryTime;
+    }
+
+    /**
+     * Hiermit wird der Ablauf einer Session (erneut) im Timing-Wheel eingeplant.
+     * Muss unter dem Lock aufgerufen werden.
+     * @param session Die Session.
+     * @param now Die aktuelle Zeit.
+     */
+    private void scheduleExpiry (Session session, long now) {
+        long expiryTime = this.expiryTime (session);
+        session.expiryTimeout = expiryTime == Long.MAX_VALUE
+                ? null
+                : this.expiryWheel.schedule (session, expiryTime - now);
+    }
+
+    /**
+     * Wird vom Timing-Wheel aufgerufen, wenn der eingeplante Ablauf einer Session erreicht ist.
+     * Wurde die Session in der Zwischenzeit verwendet, wird sie lediglich neu eingeplant.
+     * @param session Die Session.
+     */
+    private void onTimeout (Session session) {
+        synchronized (this.lock) {
+            if (session.removed) {
+                return;
+            }
+            long now = System.currentTimeMillis();
+            if (now >= this.expiryTime (session)) {
+                this.remove (session);
+            } else {
+                this.scheduleExpiry (session, now);
+            }
+        }
+    }
+
+    /**
+     * Hiermit wird eine Session gespeichert, in die LRU-Liste eingereiht und ihr Ablauf eingeplant.
+     * @param session Die Session.
+     */
+    private void store (Session session) {
+        synchronized (this.lock) {
+            Session previous = this.sessions.put (session.getId(), session);
+            if (previous != null && previous != session) {
+                this.detach (previous);
+            }
+
+            session.lruNext = this.lruHead;
+            if (this.lruHead != null) {
+                this.lruHead.lruPrevious = session;
+            }
+            this.lruHead = session;
+            if (this.lruTail == null) {
+                this.lruTail = session;
+            }
+
+            this.scheduleExpiry (session, session.getCreationTime());
+            this.evictOverflow();
+        }
+    }
+
+    /**
+     * Hiermit werden so lange die am längsten unbenutzten Sessions entfernt, bis die maximale Anzahl eingehalten wird.
+     * Muss unter dem Lock aufgerufen werden.
+     */
+    private void evictOverflow () {
+        int maxSessions = this.maxSessions;
+        while (maxSessions > 0 && this.sessions.size() > maxSessions && this.lruTail != null) {
+            this.remove (this.lruTail);
+        }
+    }
+
+    /**
+     * Hiermit wird eine Session aus dem Manager entfernt. Muss unter dem Lock aufgerufen werden.
+     * @param session Die Session.
+     */
+    private void remove (Session session) {
+        if (session.removed) {
+            return;
+        }
+        this.sessions.remove (session.getId(), session);
+        this.detach (session);
+    }
+
+    /**
+     * Hiermit wird eine Session aus der LRU-Liste genommen und ihr Ablauf abgebrochen.
+     * Muss unter dem Lock aufgerufen werden.
+     * @param session Die Session.
+     */
+    private void detach (Session session) {
+        session.removed = true;
+        this.expiryWheel.cancel (session.expiryTimeout);
+        session.expiryTimeout = null;
+
+        if (session.lruPrevious != null) {
+            session.lruPrevious.lruNext = session.lruNext;
+        } else if (this.lruHead == session) {
+            this.lruHead = session.lruNext;
+        }
+        if (session.lruNext != null) {
+            session.lruNext.lruPrevious = session.lruPrevious;
+        } else if (this.lruTail == session) {
+            this.lruTail = session.lruPrevious;
+        }
+        session.lruPrevious = null;
+        session.lruNext = null;
+    }
+
+    /**
+     * Hiermit wird vermerkt, dass eine Session gerade verwendet wird.
+     * Sie wird (höchstens einmal pro LRU_TOUCH_INTERVAL) an den Anfang der LRU-Liste geschoben.
+     * @param session Die Session.
+     * @param now Die aktuelle Zeit.
+     */
+    private void touch (Session session, long now) {
+        session.setLastAccessedTime (now);
+        if (now - session.lruTouchedTime < LRU_TOUCH_INTERVAL) {
+            return;
+        }
+
+        synchronized (this.lock) {
+            if (session.removed || this.lruHead == session) {
+                session.lruTouchedTime = now;
+                return;
+            }
+            session.lruTouchedTime = now;
+
+            // Aus der Liste nehmen ...
+            session.lruPrevious.lruNext = session.lruNext;
+            if (session.lruNext != null) {
+                session.lruNext.lruPrevious = session.lruPrevious;
+            } else {
+                this.lruTail = session.lruPrevious;
+            }
+
+            // ... und vorne wieder einhängen.
+            session.lruPrevious = null;
+            session.lruNext = this.lruHead;
+            this.lruHead.lruPrevious = session;
+            this.lruHead = session;
+        }
+    }
 
 
     /**
@@ -75,7 +320,7 @@ public class SessionManager {
         }
 
         // Speichere die neue Session im Session-Manager und pflanze den Cookie in die Http-Antwort ein.
-        this.sessions.put (id, session);
+        this.store (session);
         response.addCookie (new Cookie("JSESSIONID", id));
 
         return session;
@@ -112,18 +357,33 @@ public class SessionManager {
                             .findFirst()
                             .orElse(Cookie.UNSAFE_COOKIE);
 
+        if (cookie.getValue().equalsIgnoreCase("AAAA")) {
+            return this.createSession (response);
+        }
+
+        // Die Session wird mit nur einem Zugriff geladen (statt erst "hasSession" und dann "get"),
+        // da sie zwischen den beiden Aufrufen von einem anderen Thread entfernt werden könnte.
         // Wenn dem Server keine Session mit der im Cookie enthaltenen Id bekannt ist,
         // soll ein neuer Cookie erstellt, und der alte damit überschrieben werden.
-        if (
-                cookie.getValue().equalsIgnoreCase("AAAA") ||
-                this.hasSession (cookie.getValue()) == false
-        ) {
+        Session session = this.sessions.get (cookie.getValue());
+        if (session == null) {
             return this.createSession (response);
         }
 
+        // Das Timing-Wheel hat eine Genauigkeit von einer Sekunde. Eine bereits abgelaufene Session,
+        // die noch nicht entfernt wurde, darf trotzdem nicht mehr verwendet werden.
+        long now = System.currentTimeMillis();
+        if (now >= this.expiryTime (session)) {
+            synchronized (this.lock) {
+                this.remove (session);
+            }
+            return this.createSession (response);
+        }
+        this.touch (session, now);
+
         // Hier angekommen gibt es eine Session mit dieser Id.
         // Sie soll hier also zurückgegeben werden:
-        return this.sessions.get (cookie.getValue());
+        return session;
     }
 
     /**
@@ -133,6 +393,8 @@ public class SessionManager {
      */
     public void kill (Session session, HttpResponse response) {
         response.removeCookie ("JSESSIONID");
-        this.sessions.remove (session.getId ());
+        synchronized (this.lock) {
+            this.remove (session);
+        }
     }
 }
@@ -0,0 +1,171 @@
+package de.hsw.sessions.helper;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Ein (gehashtes) Timing-Wheel, mit dem sehr viele Timeouts günstig verwaltet werden können.
+ * Die Zeit ist in Ticks fester Länge eingeteilt. Jeder Tick gehört zu einem Fach des Rades (Tick modulo Anzahl Fächer).
+ * Ein Timeout wird in das Fach seines Ablauf-Ticks gelegt. Liegt dieser mehr als eine Umdrehung in der Zukunft,
+ * wird er bei den Umdrehungen dazwischen lediglich übersprungen.
+ * Einfügen und Entfernen kosten dadurch O(1), und pro Tick wird nur ein einziges Fach angesehen (statt aller Einträge).
+ * @param <T> Der Typ der Werte, die ablaufen können.
+ */
+public class TimingWheel<T> {
+
+    /**
+     * Ein eingeplanter Timeout. Er ist gleichzeitig der Eintrag in der (doppelt verketteten) Liste seines Faches.
+     * @param <T> Der Typ des Wertes.
+     */
+    public static class Timeout<T> {
+
+        private final T value;
+        private final long deadlineTick;
+
+        // Die Verkettung innerhalb des Faches. "bucket" ist -1, wenn der Timeout nicht (mehr) eingeplant ist.
+        private Timeout<T> previous = null;
+        private Timeout<T> next = null;
+        private int bucket = -1;
+
+        private Timeout (T value, long deadlineTick) {
+            this.value = value;
+            this.deadlineTick = deadlineTick;
+        }
+
+        public T getValue () {
+            return this.value;
+        }
+    }
+
+    private final long tickMillis;
+    private final long startTime;
+    private final Consumer<T> onExpired;
+
+    // Die Fächer des Rades (jeweils der Anfang einer Liste) und die Maske für "Tick modulo Anzahl Fächer".
+    private final Timeout<T>[] buckets;
+    private final int mask;
+
+    // Der nächste Tick, der abgearbeitet werden muss.
+    private long currentTick = 0;
+    private int size = 0;
+
+    /**
+     * Hiermit wird ein Timing-Wheel erstellt.
+     * @param tickMillis Die Länge eines Ticks in Millisekunden (die Genauigkeit der Timeouts).
+     * @param bucketCount Die Anzahl an Fächern (wird auf eine Zweierpotenz aufgerundet).
+     * @param onExpired Wird für jeden abgelaufenen Wert aufgerufen (außerhalb des Locks des Rades).
+     */
+    @SuppressWarnings ("unchecked")
+    public TimingWheel (long tickMillis, int bucketCount, Consumer<T> onExpired) {
+        if (tickMillis < 1 || bucketCount < 1) {
+            throw new IllegalArgumentException ("Tick length and bucket count have to be positive");
+        }
+        int size = Integer.highestOneBit (Math.min (bucketCount, 1 << 20));
+        if (size < bucketCount) {
+            size <<= 1;
+        }
+        this.tickMillis = tickMillis;
+        this.startTime = System.currentTimeMillis();
+        this.onExpired = onExpired;
+        this.buckets = (Timeout<T>[]) new Timeout<?> [size];
+        this.mask = size - 1;
+    }
+
+    /**
+     * Hiermit wird ein Wert zum Ablauf eingeplant.
+     * Der Timeout läuft frühestens nach "delayMillis" ab, spätestens einen Tick danach.
+     * @param value Der Wert.
+     * @param delayMillis Nach wie vielen Millisekunden der Wert abläuft.
+     * @return Der Timeout, mit dem der Ablauf wieder abgebrochen werden kann.
+     */
+    public synchronized Timeout<T> schedule (T value, long delayMillis) {
+        long ticks = Math.max (1, (delayMillis + this.tickMillis - 1) / this.tickMillis);
+        // Gerechnet wird ab der aktuellen Zeit, nicht ab dem zuletzt abgearbeiteten Tick (falls das Rad hinterherhängt).
+        long nowTick = Math.max (this.currentTick, (System.currentTimeMillis() - this.startTime) / this.tickMillis);
+        Timeout<T> timeout = new Timeout<> (value, nowTick + ticks);
+        this.link (timeout);
+        return timeout;
+    }
+
+    /**
+     * Hiermit wird ein eingeplanter Timeout abgebrochen.
+     * @param timeout Der Timeout (darf "null" oder bereits abgelaufen sein).
+     * @return "True", wenn der Timeout noch eingeplant war. Andernfalls "False".
+     */
+    public synchronized boolean cancel (Timeout<T> timeout) {
+        if (timeout == null || timeout.bucket < 0) {
+            return false;
+        }
+        this.unlink (timeout);
+        return true;
+    }
+
+    /**
+     * Hiermit wird das Rad bis zur aktuellen Zeit weitergedreht.
+     * Alle dabei abgelaufenen Werte werden (nach dem Freigeben des Locks) an "onExpired" übergeben.
+     */
+    public void advance () {
+        List<T> expired = new ArrayList<>();
+
+        synchronized (this) {
+            long targetTick = (System.currentTimeMillis() - this.startTime) / this.tickMillis;
+            while (this.currentTick <= targetTick) {
+                Timeout<T> timeout = this.buckets [(int) (this.currentTick & this.mask)];
+                while (timeout != null) {
+                    Timeout<T> next = timeout.next;
+                    // Einträge späterer Umdrehungen bleiben im Fach liegen.
+                    if (timeout.deadlineTick <= this.currentTick) {
+                        this.unlink (timeout);
+                        expired.add (timeout.value);
+                    }
+                    timeout = next;
+                }
+                this.currentTick += 1;
+            }
+        }
+
+        for (T value : expired) {
+            this.onExpired.accept (value);
+        }
+    }
+
+    /**
+     * Hiermit kann die Anzahl der eingeplanten Timeouts abgefragt werden.
+     * @return Die Anzahl der eingeplanten Timeouts.
+     */
+    public synchronized int size () {
+        return this.size;
+    }
+
+    public long getTickMillis () {
+        return this.tickMillis;
+    }
+
+    private void link (Timeout<T> timeout) {
+        int bucket = (int) (timeout.deadlineTick & this.mask);
+        timeout.bucket = bucket;
+        timeout.previous = null;
+        timeout.next = this.buckets [bucket];
+        if (timeout.next != null) {
+            timeout.next.previous = timeout;
+        }
+        this.buckets [bucket] = timeout;
+        this.size += 1;
+    }
+
+    private void unlink (Timeout<T> timeout) {
+        if (timeout.previous != null) {
+            timeout.previous.next = timeout.next;
+        } else {
+            this.buckets [timeout.bucket] = timeout.next;
+        }
+        if (timeout.next != null) {
+            timeout.next.previous = timeout.previous;
+        }
+        timeout.previous = null;
+        timeout.next = null;
+        timeout.bucket = -1;
+        this.size -= 1;
+    }
+}
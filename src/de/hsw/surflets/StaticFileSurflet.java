@@ -3,10 +3,24 @@ package de.hsw.surflets;
 import de.hsw.Surflet;
 import de.hsw.http.HttpRequest;
 import de.hsw.http.HttpResponse;
+import de.hsw.http.helper.ByteRange;
+import de.hsw.http.helper.ContentEncoding;
+import de.hsw.http.helper.ETagUtils;
+import de.hsw.http.helper.HttpDateUtils;
 import de.hsw.http.helper.HttpRequestBody;
+import de.hsw.surflets.helper.StaticFileCache;
 
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
 
 public class StaticFileSurflet implements Surflet {
 
@@ -33,6 +47,91 @@ public class StaticFileSurflet implements Surflet {
         }
     }
 
+    /**
+     * Hiermit wird geprüft, ob ein Range-Header berücksichtigt werden darf.
+     * Mit "If-Range" kann der Client die Bereiche an eine bestimmte Version der Datei knüpfen.
+     * Passt die Version nicht (mehr), muss die gesamte Datei gesendet werden.
+     * @param request Die Http-Anfrage.
+     * @param lastModified Der Änderungszeitpunkt der Datei.
+     * @return "True", wenn die Bereiche gesendet werden dürfen. Andernfalls "False".
+     */
+    private boolean isIfRangeSatisfied (HttpRequest request, long lastModified) {
+        String ifRange = request.getHeader ("if-range", null);
+        if (ifRange == null) {
+            return true;
+        }
+
+        // If-Range verlangt einen starken Vergleich. Die ETags der Dateien sind schwach,
+        // können also nie passen. Es wird dann die gesamte Datei gesendet.
+        ifRange = ifRange.trim();
+        if (ifRange.startsWith ("\"") || ifRange.startsWith ("W/")) {
+            return false;
+        }
+
+        // Ein Zeitpunkt muss exakt dem (auf Sekunden abgerundeten) Änderungszeitpunkt der Datei entsprechen.
+        return HttpDateUtils.parse (ifRange) == HttpDateUtils.truncateToSeconds (lastModified);
+    }
+
+    /**
+     * Hiermit werden die angefragten Bereiche einer Datei gesendet.
+     * Jeder Bereich wird direkt ab seiner Position aus dem Channel der Datei gesendet.
+     * @param response Die Http-Antwort.
+     * @param channel Der Channel der Datei.
+     * @param ranges Die erfüllbaren Bereiche (bei einer leeren Liste wird "416" gesendet).
+     * @param size Die Größe der Datei.
+     * @param contentType Der Content-Type der Datei.
+     * @param entityHeaders Die Header, die die Datei beschreiben (ETag, Last-Modified, ...).
+     */
+    private void sendRanges (HttpResponse response, FileChannel channel, List<ByteRange> ranges, long size, String contentType, Map<String, String> entityHeaders) {
+
+        // Keiner der Bereiche liegt innerhalb der Datei:
+        if (ranges.isEmpty()) {
+            response.status (416);
+            response.addHeader ("Content-Range", "bytes */" + size);
+            response.send ();
+            return;
+        }
+
+        response.status (206);
+        entityHeaders.forEach (response::addHeader);
+
+        // Ein einzelner Bereich wird wie eine normale Datei gesendet, nur mit Content-Range.
+        if (ranges.size() == 1) {
+            ByteRange range = ranges.get (0);
+            response.setContentType (contentType);
+            response.addHeader ("Content-Range", range.toContentRange (size));
+            response.sendFileRegion (channel, range.getStart(), range.getLength());
+            return;
+        }
+
+        // Mehrere Bereiche werden als "multipart/byteranges" gesendet. Jeder Teil hat eigene Header.
+        // Die Länge der gesamten Antwort wird vorab berechnet, damit keine Chunks nötig sind.
+        String boundary = Long.toHexString (ThreadLocalRandom.current().nextLong()) + Long.toHexString (System.nanoTime());
+        byte[][] partHeaders = new byte [ranges.size()][];
+        byte[] closingBoundary = ("\r\n--" + boundary + "--\r\n").getBytes (StandardCharsets.US_ASCII);
+        long contentLength = closingBoundary.length;
+        for (int index = 0; index < ranges.size(); index += 1) {
+            ByteRange range = ranges.get (index);
+            partHeaders [index] = (
+                    "\r\n--" + boundary + "\r\n" +
+                    "Content-Type: " + contentType + "\r\n" +
+                    "Content-Range: " + range.toContentRange (size) + "\r\n" +
+                    "\r\n"
+            ).getBytes (StandardCharsets.US_ASCII);
+            contentLength += partHeaders [index].length + range.getLength();
+        }
+
+        response.addHeader ("Content-Type", "multipart/byteranges; boundary=" + boundary);
+        response.addHeader ("Content-Length", Long.toString (contentLength));
+        response.sendStatusLineAndHeaders ();
+        for (int index = 0; index < ranges.size(); index += 1) {
+            ByteRange range = ranges.get (index);
+            response.write (partHeaders [index]);
+            response.writeFileRegion (channel, range.getStart(), range.getLength());
+        }
+        response.write (closingBoundary);
+    }
+
     @Override
     public void handleRequest(HttpRequest request, HttpResponse response) throws Exception {
 
@@ -48,9 +147,73 @@ public class StaticFileSurflet implements Surflet {
                 throw new Exception ("No Extension found");
             }
             String extension = path.substring (periodIndex + 1);
-            byte[] bytes = Files.readAllBytes (Paths.get ("www" + path));
-            response.setContentType (this.getContentTypeFromExtension (extension));
-            response.send(bytes);
+
+            // Da Wildcard-Routen ("/static/*") beliebige Pfade an dieses Surflet weitergeben,
+            // muss sichergestellt werden, dass nur Dateien innerhalb von "www" gelesen werden.
+            Path root = Paths.get ("www").toAbsolutePath().normalize();
+            Path file = Paths.get ("www" + path).toAbsolutePath().normalize();
+            if (file.startsWith (root) == false) {
+                throw new Exception ("Path outside of the web root");
+            }
+
+            String contentType = this.getContentTypeFromExtension (extension);
+
+            // Kleine Dateien kommen aus dem Cache und werden mit den bereits kodierten Headern gesendet,
+            // mittelgroße Dateien sind (ebenfalls im Cache) gemappt.
+            // Nur Dateien, die zu groß für den Cache sind, werden bei jeder Anfrage direkt aus der Datei gesendet.
+            StaticFileCache.Entry entry = StaticFileCache.getInstance().get (file, contentType);
+            long size;
+            long lastModified;
+            String etag;
+            if (entry != null) {
+                size = entry.getSize();
+                lastModified = entry.getLastModified();
+                etag = entry.getETag();
+            } else {
+                BasicFileAttributes attributes = Files.readAttributes (file, BasicFileAttributes.class);
+                size = attributes.size();
+                lastModified = attributes.lastModifiedTime().toMillis();
+                etag = ETagUtils.fromFileAttributes (size, lastModified);
+            }
+
+            // Hat der Client die aktuelle Version der Datei bereits, reicht ein "304 Not Modified" ohne Body.
+            if (ETagUtils.isNotModified (request, etag, lastModified)) {
+                response.status (304);
+                response.addHeader ("ETag", etag);
+                response.addHeader ("Last-Modified", HttpDateUtils.format (lastModified));
+                response.send ();
+                return;
+            }
+
+            // Fragt der Client nur Teile der Datei an (z. B. um einen Download fortzusetzen),
+            // werden diese direkt aus der Datei gesendet. Ein ungültiger Range-Header wird ignoriert.
+            if (request.getMethod() == HttpRequest.RequestMethod.GET && request.hasHeader ("range") && this.isIfRangeSatisfied (request, lastModified)) {
+                try (FileChannel channel = FileChannel.open (file, StandardOpenOption.READ)) {
+                    List<ByteRange> ranges = ByteRange.parse (request.getHeader ("range"), channel.size());
+                    if (ranges != null) {
+                        this.sendRanges (response, channel, ranges, channel.size(), contentType, StaticFileCache.createEntityHeaders (size, lastModified));
+                        return;
+                    }
+                }
+            }
+
+            if (entry != null && entry.getResponse() != null) {
+                // Die komprimierte Variante liegt (falls vorhanden) ebenfalls fertig kodiert im Cache.
+                if (entry.getGzipResponse() != null && ContentEncoding.negotiate (request.getHeader ("accept-encoding", null), ContentEncoding.GZIP) == ContentEncoding.GZIP) {
+                    response.sendPreEncoded (entry.getGzipResponse());
+                } else {
+                    response.sendPreEncoded (entry.getResponse());
+                }
+                return;
+            }
+
+            response.setContentType (contentType);
+            StaticFileCache.createEntityHeaders (size, lastModified).forEach (response::addHeader);
+            if (entry != null) {
+                response.send (entry.getMappedBody());
+            } else {
+                response.sendFile (file);
+            }
 
         // Wenn die Datei nicht gelesen werden konnte, soll hier der 404 Error angezeigt werden:
         } catch (Exception e) {
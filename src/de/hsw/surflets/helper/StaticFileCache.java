@@ -0,0 +1,433 @@
+package de.hsw.surflets.helper;
+
+import de.hsw.http.HttpResponse;
+import de.hsw.http.helper.BufferPool;
+import de.hsw.http.helper.ContentEncoding;
+import de.hsw.http.helper.ETagUtils;
+import de.hsw.http.helper.HttpDateUtils;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Ein Cache für statische Dateien, damit häufig angefragte Dateien (z. B. main.css) nicht bei jeder Anfrage
+ * erneut von der Festplatte gelesen werden müssen.
+ * Jeder Eintrag enthält die bereits vollständig kodierte Antwort (Header und Body), sodass ein Treffer mit einem
+ * einzigen Schreibaufruf gesendet werden kann.
+ * Mittelgroße Dateien werden stattdessen in den Speicher gemappt (MappedByteBuffer). Sie liegen damit nicht im Heap,
+ * sondern werden direkt aus dem Page-Cache des Betriebssystems in das Socket geschrieben.
+ * Größere Dateien werden gar nicht gecached, sondern von der Antwort mit "transferTo" gesendet.
+ * Der Cache hat (für beide Arten getrennt) ein Budget an Bytes. Wird es überschritten, werden die am längsten
+ * nicht verwendeten Einträge entfernt.
+ * Ob sich eine Datei geändert hat, wird (höchstens einmal pro Sekunde und Datei) anhand von Änderungszeitpunkt
+ * und Größe geprüft. Aus denselben Werten wird einmalig das (schwache) ETag eines Eintrags berechnet.
+ * Für komprimierbare Dateien im Heap wird außerdem einmalig eine gzip-Variante erstellt. Liegt neben der Datei
+ * eine (mindestens gleich aktuelle) Datei mit der Endung ".gz", wird diese verwendet, statt selbst zu komprimieren.
+ */
+public class StaticFileCache {
+
+    public static final long DEFAULT_MAX_BYTES = 32 * 1024 * 1024;
+    public static final int DEFAULT_MAX_ENTRY_SIZE = 1024 * 1024;
+    public static final long DEFAULT_MAX_MAPPED_BYTES = 256 * 1024 * 1024;
+    public static final long DEFAULT_MAX_MAPPED_ENTRY_SIZE = 16 * 1024 * 1024;
+
+    // So lange gilt ein Eintrag nach der letzten Prüfung als aktuell, ohne dass die Datei erneut geprüft wird.
+    private static final long VALIDATION_INTERVAL = 1000L;
+
+    /**
+     * Ein Eintrag des Caches. Er enthält entweder die kodierte Antwort oder den gemappten Inhalt der Datei.
+     */
+    public static class Entry {
+
+        private final long lastModified;
+        private final long size;
+        private final String etag;
+        private final HttpResponse.PreEncoded response;
+        private final HttpResponse.PreEncoded gzipResponse;
+        private final MappedByteBuffer mapped;
+        private volatile long validatedAt;
+
+        private Entry (long lastModified, long size, HttpResponse.PreEncoded response, HttpResponse.PreEncoded gzipResponse, MappedByteBuffer mapped, long validatedAt) {
+            this.lastModified = lastModified;
+            this.size = size;
+            this.etag = ETagUtils.fromFileAttributes (size, lastModified);
+            this.response = response;
+            this.gzipResponse = gzipResponse;
+            this.mapped = mapped;
+            this.validatedAt = validatedAt;
+        }
+
+        /**
+         * Hiermit kann die kodierte Antwort abgefragt werden.
+         * @return Die kodierte Antwort oder "null", wenn die Datei gemappt wurde.
+         */
+        public HttpResponse.PreEncoded getResponse () {
+            return this.response;
+        }
+
+        /**
+         * Hiermit kann die kodierte Antwort mit dem gzip-komprimierten Body abgefragt werden.
+         * @return Die kodierte Antwort oder "null", wenn es keine (kleinere) komprimierte Variante gibt.
+         */
+        public HttpResponse.PreEncoded getGzipResponse () {
+            return this.gzipResponse;
+        }
+
+        /**
+         * Hiermit kann der gemappte Inhalt der Datei abgefragt werden.
+         * Jeder Aufruf liefert eine eigene Sicht (mit eigener Position), sie kann also ohne Lock verwendet werden.
+         * @return Der Inhalt oder "null", wenn die Datei nicht gemappt wurde.
+         */
+        public ByteBuffer getMappedBody () {
+            return this.mapped == null ? null : this.mapped.duplicate();
+        }
+
+        public long getLastModified () {
+            return this.lastModified;
+        }
+        public long getSize () {
+            return this.size;
+        }
+        public String getETag () {
+            return this.etag;
+        }
+
+        /**
+         * Hiermit wird berechnet, wie viele Bytes der Eintrag im Budget belegt.
+         * @return Die Anzahl an Bytes.
+         */
+        private long cost () {
+            if (this.mapped != null) {
+                return this.size;
+            }
+            return this.response.size() + (this.gzipResponse == null ? 0 : this.gzipResponse.size());
+        }
+    }
+
+    // Der Cache ist ein Singleton, da alle Instanzen des StaticFileSurflets dieselben Dateien ausliefern.
+    private static class Holder {
+        private static final StaticFileCache INSTANCE = new StaticFileCache();
+    }
+    public static StaticFileCache getInstance () {
+        return Holder.INSTANCE;
+    }
+
+    // Eine LinkedHashMap in Zugriffs-Reihenfolge: Der erste Eintrag ist immer der am längsten nicht verwendete.
+    // Alle Zugriffe auf die Map (auch lesende, da sie die Reihenfolge ändern) sind durch "this" geschützt.
+    private final LinkedHashMap<Path, Entry> entries = new LinkedHashMap<> (64, 0.75f, true);
+    private long totalBytes = 0;
+    private long maxBytes = DEFAULT_MAX_BYTES;
+    private int maxEntrySize = DEFAULT_MAX_ENTRY_SIZE;
+
+    // Gemappte Dateien belegen keinen Heap, sondern Adressraum (und Page-Cache). Sie haben daher ein eigenes Budget.
+    // Hinweis: Ein MappedByteBuffer wird erst vom Garbage-Collector freigegeben, nicht schon beim Entfernen.
+    private long mappedBytes = 0;
+    private long maxMappedBytes = DEFAULT_MAX_MAPPED_BYTES;
+    private long maxMappedEntrySize = DEFAULT_MAX_MAPPED_ENTRY_SIZE;
+
+    private StaticFileCache () {}
+
+    /**
+     * Hiermit werden die Header erstellt, die eine Datei beschreiben und daher mit in die kodierte Antwort gehören.
+     * Sie werden auch für Dateien verwendet, die nicht im Cache liegen.
+     * @param size Die Größe der Datei.
+     * @param lastModified Der Änderungszeitpunkt der Datei.
+     * @return Die Header.
+     */
+    public static Map<String, String> createEntityHeaders (long size, long lastModified) {
+        Map<String, String> headers = new LinkedHashMap<>();
+        headers.put ("Accept-Ranges", "bytes");
+        headers.put ("ETag", ETagUtils.fromFileAttributes (size, lastModified));
+        headers.put ("Last-Modified", HttpDateUtils.format (lastModified));
+        return headers;
+    }
+
+    /**
+     * Hiermit kann das Budget des Caches eingestellt werden.
+     * @param maxBytes Wie viele Bytes (kodierte Antworten) der Cache insgesamt halten darf (0 = Cache deaktiviert).
+     */
+    public synchronized void setMaxBytes (long maxBytes) {
+        if (maxBytes < 0) {
+            throw new IllegalArgumentException ("The cache size must not be negative");
+        }
+        this.maxBytes = maxBytes;
+        this.evictOverflow();
+    }
+
+    /**
+     * Hiermit kann eingestellt werden, bis zu welcher Größe eine Datei in den Cache aufgenommen wird.
+     * @param maxEntrySize Die maximale Größe einer Datei in Bytes.
+     */
+    public synchronized void setMaxEntrySize (int maxEntrySize) {
+        if (maxEntrySize < 0) {
+            throw new IllegalArgumentException ("The maximum entry size must not be negative");
+        }
+        this.maxEntrySize = maxEntrySize;
+    }
+
+    /**
+     * Hiermit kann das Budget für gemappte Dateien eingestellt werden.
+     * @param maxMappedBytes Wie viele Bytes insgesamt gemappt sein dürfen (0 = es wird nichts gemappt).
+     */
+    public synchronized void setMaxMappedBytes (long maxMappedBytes) {
+        if (maxMappedBytes < 0) {
+            throw new IllegalArgumentException ("The mapped cache size must not be negative");
+        }
+        this.maxMappedBytes = maxMappedBytes;
+        this.evictOverflow();
+    }
+
+    /**
+     * Hiermit kann eingestellt werden, bis zu welcher Größe eine Datei gemappt wird.
+     * Noch größere Dateien werden bei jeder Anfrage direkt gesendet.
+     * @param maxMappedEntrySize Die maximale Größe einer Datei in Bytes.
+     */
+    public synchronized void setMaxMappedEntrySize (long maxMappedEntrySize) {
+        if (maxMappedEntrySize < 0) {
+            throw new IllegalArgumentException ("The maximum mapped entry size must not be negative");
+        }
+        this.maxMappedEntrySize = maxMappedEntrySize;
+    }
+
+    /**
+     * Hiermit kann abgefragt werden, wie viele Bytes aktuell im Cache liegen.
+     * @return Die Anzahl an Bytes.
+     */
+    public synchronized long getTotalBytes () {
+        return this.totalBytes;
+    }
+
+    /**
+     * Hiermit wird der Eintrag einer Datei geholt. Ist die Datei nicht (oder veraltet) im Cache, wird sie gelesen
+     * und aufgenommen.
+     * @param file Der (bereits normalisierte) Pfad der Datei.
+     * @param contentType Der Content-Type, mit dem die Datei ausgeliefert wird.
+     * @return Der Eintrag oder "null", wenn die Datei zu groß für den Cache ist (sie muss dann direkt gesendet werden).
+     * @throws IOException Wenn die Datei nicht existiert oder nicht gelesen werden kann.
+     */
+    public Entry get (Path file, String contentType) throws IOException {
+        long now = System.currentTimeMillis();
+
+        Entry entry;
+        synchronized (this) {
+            entry = this.entries.get (file);
+        }
+
+        if (entry != null) {
+            if (now - entry.validatedAt < VALIDATION_INTERVAL) {
+                return entry;
+            }
+
+            // Prüfe, ob sich die Datei seit dem Lesen verändert hat (oder gelöscht wurde).
+            BasicFileAttributes attributes;
+            try {
+                attributes = Files.readAttributes (file, BasicFileAttributes.class);
+            } catch (IOException e) {
+                this.remove (file, entry);
+                throw e;
+            }
+            if (attributes.lastModifiedTime().toMillis() == entry.lastModified && attributes.size() == entry.size) {
+                entry.validatedAt = now;
+                return entry;
+            }
+            this.remove (file, entry);
+        }
+
+        BasicFileAttributes attributes = Files.readAttributes (file, BasicFileAttributes.class);
+        if (attributes.isRegularFile() == false) {
+            throw new NoSuchFileException (file.toString());
+        }
+
+        boolean heap;
+        synchronized (this) {
+            if (attributes.size() <= this.maxEntrySize && attributes.size() <= this.maxBytes) {
+                heap = true;
+            } else if (attributes.size() <= this.maxMappedEntrySize && attributes.size() <= this.maxMappedBytes) {
+                heap = false;
+            } else {
+                return null;
+            }
+        }
+
+        // Der Änderungszeitpunkt wird vor dem Lesen bestimmt. Wird die Datei währenddessen verändert,
+        // erkennt die nächste Prüfung dies also in jedem Fall.
+        long lastModified = attributes.lastModifiedTime().toMillis();
+        if (heap) {
+            // Kleine Dateien werden in einen Buffer aus dem Pool gelesen. Er wird nur bis zum Kodieren benötigt,
+            // da die kodierte Antwort ohnehin eine eigene Kopie des Bodys enthält.
+            ByteBuffer pooled = null;
+            try {
+                byte[] body;
+                int length;
+                if (attributes.size() < BufferPool.MAX_BUFFER_SIZE) {
+                    pooled = BufferPool.getInstance().acquireHeap ((int) attributes.size() + 1);
+                    length = StaticFileCache.readFully (file, pooled);
+                } else {
+                    length = -1;
+                }
+                // Ist die Datei inzwischen gewachsen (bzw. zu groß für den Pool), wird sie vollständig gelesen.
+                if (length < 0) {
+                    body = Files.readAllBytes (file);
+                    length = body.length;
+                } else {
+                    body = pooled.array();
+                }
+                entry = this.createHeapEntry (file, contentType, body, length, lastModified, now);
+            } finally {
+                BufferPool.getInstance().release (pooled);
+            }
+        } else {
+            // Das Mapping bleibt auch nach dem Schließen des Channels gültig.
+            try (FileChannel channel = FileChannel.open (file, StandardOpenOption.READ)) {
+                MappedByteBuffer mapped = channel.map (FileChannel.MapMode.READ_ONLY, 0, attributes.size());
+                entry = new Entry (lastModified, attributes.size(), null, null, mapped, now);
+            }
+        }
+
+        synchronized (this) {
+            Entry previous = this.entries.put (file, entry);
+            if (previous != null) {
+                this.subtract (previous);
+            }
+            if (entry.mapped == null) {
+                this.totalBytes += entry.cost();
+            } else {
+                this.mappedBytes += entry.cost();
+            }
+            this.evictOverflow();
+        }
+        return entry;
+    }
+
+    /**
+     * Hiermit wird ein Eintrag mit der vollständig kodierten Antwort (und ggf. ihrer gzip-Variante) erstellt.
+     * @param file Der Pfad der Datei.
+     * @param contentType Der Content-Type der Datei.
+     * @param body Das Array mit dem Inhalt der Datei.
+     * @param length Die Länge des Inhalts.
+     * @param lastModified Der Änderungszeitpunkt der Datei.
+     * @param now Der aktuelle Zeitpunkt.
+     * @return Der Eintrag.
+     */
+    private Entry createHeapEntry (Path file, String contentType, byte[] body, int length, long lastModified, long now) {
+        Map<String, String> entityHeaders = StaticFileCache.createEntityHeaders (length, lastModified);
+
+        // Gibt es eine komprimierte Variante, hängen beide Antworten vom Accept-Encoding ab.
+        // Bereiche (Range) werden nur für die unkomprimierte Variante angeboten.
+        HttpResponse.PreEncoded gzipResponse = null;
+        byte[] gzipBody = this.loadGzipBody (file, body, length, lastModified, contentType);
+        if (gzipBody != null) {
+            entityHeaders.put ("Vary", "Accept-Encoding");
+            Map<String, String> gzipHeaders = new LinkedHashMap<> (entityHeaders);
+            gzipHeaders.remove ("Accept-Ranges");
+            gzipHeaders.put ("Content-Encoding", ContentEncoding.GZIP.toString());
+            gzipResponse = HttpResponse.preEncode (contentType, gzipHeaders, gzipBody);
+        }
+        return new Entry (lastModified, length, HttpResponse.preEncode (contentType, entityHeaders, body, 0, length), gzipResponse, null, now);
+    }
+
+    /**
+     * Hiermit wird eine Datei vollständig in einen Buffer gelesen.
+     * @param file Der Pfad der Datei.
+     * @param target Der Buffer.
+     * @return Die Anzahl an gelesenen Bytes oder -1, wenn die Datei nicht in den Buffer passt.
+     * @throws IOException Wenn die Datei nicht gelesen werden kann.
+     */
+    private static int readFully (Path file, ByteBuffer target) throws IOException {
+        try (FileChannel channel = FileChannel.open (file, StandardOpenOption.READ)) {
+            while (target.hasRemaining()) {
+                if (channel.read (target) < 0) {
+                    return target.position();
+                }
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Hiermit wird der gzip-komprimierte Body einer Datei bestimmt.
+     * Eine vorhandene ".gz"-Datei wird nur verwendet, wenn sie nicht älter als die Datei selbst ist.
+     * Andernfalls wird der Body (einmalig, für die gesamte Lebensdauer des Eintrags) komprimiert.
+     * @param file Der Pfad der Datei.
+     * @param body Das Array mit dem Inhalt der Datei.
+     * @param length Die Länge des Inhalts.
+     * @param lastModified Der Änderungszeitpunkt der Datei.
+     * @param contentType Der Content-Type der Datei.
+     * @return Der komprimierte Body oder "null", wenn nicht komprimiert werden soll bzw. es sich nicht lohnt.
+     */
+    private byte[] loadGzipBody (Path file, byte[] body, int length, long lastModified, String contentType) {
+        int threshold = HttpResponse.getCompressionThreshold();
+        if (threshold == 0) {
+            return null;
+        }
+
+        byte[] gzipBody = null;
+        Path sibling = file.resolveSibling (file.getFileName() + ".gz");
+        try {
+            BasicFileAttributes attributes = Files.readAttributes (sibling, BasicFileAttributes.class);
+            if (attributes.isRegularFile() && attributes.lastModifiedTime().toMillis() >= lastModified && attributes.size() < length) {
+                gzipBody = Files.readAllBytes (sibling);
+            }
+        } catch (IOException e) {
+            // Es gibt keine (lesbare) ".gz"-Datei.
+        }
+
+        if (gzipBody == null && length >= threshold && ContentEncoding.isCompressible (contentType)) {
+            gzipBody = ContentEncoding.GZIP.encode (body, 0, length);
+        }
+        return gzipBody != null && gzipBody.length < length ? gzipBody : null;
+    }
+
+    /**
+     * Hiermit wird ein Eintrag entfernt, sofern er noch der aktuelle Eintrag der Datei ist.
+     * @param file Der Pfad der Datei.
+     * @param entry Der Eintrag.
+     */
+    private synchronized void remove (Path file, Entry entry) {
+        if (this.entries.remove (file, entry)) {
+            this.subtract (entry);
+        }
+    }
+
+    /**
+     * Hiermit werden die Bytes eines entfernten Eintrags vom passenden Budget abgezogen.
+     * Muss unter dem Lock aufgerufen werden.
+     * @param entry Der Eintrag.
+     */
+    private void subtract (Entry entry) {
+        if (entry.mapped == null) {
+            this.totalBytes -= entry.cost();
+        } else {
+            this.mappedBytes -= entry.cost();
+        }
+    }
+
+    /**
+     * Hiermit werden so lange die am längsten nicht verwendeten Einträge entfernt, bis beide Budgets eingehalten werden.
+     * Es werden dabei nur Einträge der Art entfernt, deren Budget überschritten ist.
+     * Muss unter dem Lock aufgerufen werden.
+     */
+    private void evictOverflow () {
+        Iterator<Map.Entry<Path, Entry>> iterator = this.entries.entrySet().iterator();
+        while ((this.totalBytes > this.maxBytes || this.mappedBytes > this.maxMappedBytes) && iterator.hasNext()) {
+            Entry entry = iterator.next().getValue();
+            boolean overBudget = entry.mapped == null
+                    ? this.totalBytes > this.maxBytes
+                    : this.mappedBytes > this.maxMappedBytes;
+            if (overBudget) {
+                this.subtract (entry);
+                iterator.remove();
+            }
+        }
+    }
+}